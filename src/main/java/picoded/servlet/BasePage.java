@@ -1,10 +1,13 @@
 package picoded.servlet;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import javax.servlet.http.HttpServletResponse;
 
-import picoded.core.conv.ConvertJSON;
 import picoded.core.exception.ExceptionUtils;
 import picoded.core.struct.GenericConvertHashMap;
 import picoded.core.struct.GenericConvertMap;
@@ -62,6 +65,19 @@ public class BasePage extends CoreUtilPage {
 		this.responseStringBuilder = oriPage.responseStringBuilder;
 	}
 	
+	/**
+	 * Reset CorePage/BasePage request scoped parameters, for instance recycling
+	 */
+	@Override
+	protected void resetInstanceProcess() {
+		// Does original reset
+		super.resetInstanceProcess();
+		
+		// Does additional reset for base page
+		this.responseApiMap = null;
+		this.responseStringBuilder = null;
+	}
+	
 	///////////////////////////////////////////////////////
 	//
 	// Handle no route found exception
@@ -100,8 +116,35 @@ public class BasePage extends CoreUtilPage {
 			// Get the current class map
 			BasePageClassMap classMap = BasePageClassMap.setupAndCache(this);
 			classMap.handleRequest(this, requestWildcardUriArray());
-			
-			// Process the response objects, and output them
+		} catch (ApiException | HaltException e) {
+			doRequestOutput(writer, e);
+			return;
+		}
+		
+		// Output is deferred, until the async endpoint result completes
+		if (isRequestDeferred()) {
+			thenDeferred((value, error) -> {
+				doRequestOutput(writer, error);
+				return value;
+			});
+			return;
+		}
+		
+		// Process the response objects, and output them
+		doRequestOutput(writer, null);
+	}
+	
+	/**
+	 * Process the response objects and output them, or handle the request exception
+	 *
+	 * @param  writer to output with
+	 * @param  error of the request processing, null if there is no error
+	 */
+	protected void doRequestOutput(PrintWriter writer, Throwable error) throws Exception {
+		try {
+			if (error != null) {
+				throw DeferredRequest.asException(error);
+			}
 			doRequestOutput(writer);
 		} catch (ApiException ae) {
 			this.handleApiException(ae);
@@ -128,7 +171,7 @@ public class BasePage extends CoreUtilPage {
 			if (getHttpServletResponse().getContentType() == null) {
 				getHttpServletResponse().setContentType("application/json");
 			}
-			writer.println(ConvertJSON.fromObject(responseApiMap, true));
+			outputApiResponseMap(writer);
 		}
 	}
 	
@@ -138,7 +181,113 @@ public class BasePage extends CoreUtilPage {
 	 */
 	protected void outputApiException() {
 		getHttpServletResponse().setContentType("application/json");
-		getPrintWriter().println(ConvertJSON.fromObject(responseApiMap, true));
+		try {
+			outputApiResponseMap(getPrintWriter());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Indicates if the JSON API response should be pretty printed.
+	 *
+	 * Override this to return false, for a compact JSON output in production.
+	 *
+	 * @return true, if the JSON output is pretty printed (default true)
+	 */
+	protected boolean prettyPrintApiResponse() {
+		return true;
+	}
+	
+	/**
+	 * Timeout for endpoints returning an async result (CompletionStage), after which
+	 * the request fails with a 503 error. Note that `@AsyncPage` requests use their timeout instead.
+	 *
+	 * @return timeout in milliseconds, 0 for no timeout (default 30 seconds)
+	 */
+	public long asyncResponseTimeout() {
+		return 30000;
+	}
+	
+	/**
+	 * Indicates if the JSON API response should be gzip compressed, for clients which accepts it.
+	 * This is for deployments in an external container, without connector level compression.
+	 *
+	 * Override this to return true, to enable it. Note that as per responseApiMap, this should
+	 * not be used in conjuction with the PrintWriter (compression is skipped for committed responses).
+	 *
+	 * @return true, if the JSON output is gzip compressed (default false)
+	 */
+	protected boolean compressApiResponse() {
+		return false;
+	}
+	
+	/**
+	 * Minimum JSON API response size (in bytes) before it is compressed, if enabled.
+	 * So that small JSON responses do not pay the gzip overhead.
+	 *
+	 * @return minimum size in bytes (default 1024)
+	 */
+	protected int compressApiResponseMinSize() {
+		return 1024;
+	}
+	
+	/**
+	 * Indicates if the current response can be gzip compressed
+	 *
+	 * @return true, if compression is enabled, accepted by the client, and not yet encoded
+	 */
+	protected boolean canCompressApiResponse() {
+		if (!compressApiResponse()) {
+			return false;
+		}
+		HttpServletResponse res = getHttpServletResponse();
+		if (res.isCommitted() || res.getHeader("Content-Encoding") != null) {
+			return false;
+		}
+		
+		// The response varies by the accepted encoding, regardless of the client
+		res.addHeader("Vary", "Accept-Encoding");
+		String acceptEncoding = getHttpServletRequest().getHeader("Accept-Encoding");
+		return acceptEncoding != null && HttpHeaderUtil.acceptsEncoding(acceptEncoding, "gzip");
+	}
+	
+	/**
+	 * Write out the responseApiMap as JSON, streamed directly to the response output stream.
+	 * So that the full JSON string is never built in memory.
+	 *
+	 * Iterator / Stream values within the map are consumed lazily while being written.
+	 * And gzip compressed if enabled, see `compressApiResponse()`.
+	 *
+	 * @param  writer used for any previous output, which is flushed first
+	 */
+	protected void outputApiResponseMap(PrintWriter writer) throws IOException {
+		boolean pretty = prettyPrintApiResponse();
+		
+		// Write directly to the output stream, with the same encoding as the PrintWriter
+		// (falls back to the given writer, if it is not the response PrintWriter)
+		OutputStream output = getOutputStream();
+		if (output == null || writer != _printWriter) {
+			JsonStreamWriter.writeTo(writer, responseApiMap, pretty);
+			return;
+		}
+		String encoding = getHttpServletRequest().getCharacterEncoding();
+		Charset charset = (encoding != null) ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+		
+		// Gzip compressed output, above the minimum size. With any previously printed output
+		// flushed into it first, as flushing it to the response commits the response (and its headers)
+		if (canCompressApiResponse()) {
+			GzipThresholdOutputStream gzipOutput = new GzipThresholdOutputStream(
+				getHttpServletResponse(), output, compressApiResponseMinSize());
+			flushPrintWriterTo(gzipOutput);
+			JsonStreamWriter.writeTo(gzipOutput, charset, responseApiMap, pretty);
+			gzipOutput.finish();
+			return;
+		}
+		
+		// Flush any previously printed output, to preserve the output order
+		writer.flush();
+		JsonStreamWriter.writeTo(output, charset, responseApiMap, pretty);
 	}
 	
 	/**
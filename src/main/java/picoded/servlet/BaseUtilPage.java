@@ -53,6 +53,21 @@ public class BaseUtilPage extends BasePage {
 		this._configsPath = oriPage.getConfigPath();
 	}
 	
+	/**
+	 * Reset BaseUtilPage parameters, for instance recycling
+	 */
+	@Override
+	protected void resetInstanceProcess() {
+		// Does original reset
+		super.resetInstanceProcess();
+		
+		// Does additional reset for BaseUtilPage
+		this._webInfPath = null;
+		this._classesPath = null;
+		this._libraryPath = null;
+		this._configsPath = null;
+	}
+	
 	/////////////////////////////////////////////////////////////////////////////////////////////
 	//
 	// Path handling
@@ -162,6 +177,17 @@ public class BaseUtilPage extends BasePage {
 		}
 	}
 	
+	/**
+	 * Indicates if the JSON API response should be pretty printed,
+	 * configured via "sys.api.prettyPrint" (default true)
+	 *
+	 * @return true, if the JSON output is pretty printed
+	 */
+	@Override
+	protected boolean prettyPrintApiResponse() {
+		return configFileSet().getBoolean("sys.api.prettyPrint", true);
+	}
+	
 	/////////////////////////////////////////////////////////////////////////////////////////////
 	//
 	// Reusable output logger
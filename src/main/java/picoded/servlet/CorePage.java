@@ -11,6 +11,8 @@ import java.io.*;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Enumeration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import java.net.URLDecoder;
 import java.io.OutputStream;
 import java.net.URLDecoder;
@@ -25,6 +27,12 @@ import picoded.core.file.FileUtil;
 import picoded.core.common.EmptyArray;
 import picoded.core.struct.ArrayListMap;
 import picoded.servlet.util.FileServlet;
+import picoded.servlet.internal.AsyncRequestGuard;
+import picoded.servlet.internal.DeferredRequest;
+import picoded.servlet.internal.RedirectOutputStream;
+import picoded.servlet.internal.InstanceFactory;
+import picoded.servlet.internal.PagePool;
+import picoded.servlet.internal.RequestExecutor;
 import picoded.servlet.internal.ServletStringUtil;
 
 import picoded.core.common.HttpRequestType;
@@ -137,19 +145,69 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		this._requestInputStream = ori._requestInputStream;
 		this._responseOutputStream = ori._responseOutputStream;
 		this._printWriter = ori._printWriter;
+		this._printWriterOutput = ori._printWriterOutput;
+		this._asyncDispatchGuard = ori._asyncDispatchGuard;
+		this._deferredRequest = ori._deferredRequest;
+	}
+	
+	/**
+	 * Reset all request scoped parameters of the instance, used for recycling
+	 * pooled instances (see `@PooledPage`)
+	 */
+	public final void resetInstance() {
+		resetInstanceProcess();
+	}
+	
+	/**
+	 * Reset instance implementation, that should be extended on.
+	 * This should clear the same fields as `transferParamsProcess`
+	 */
+	protected void resetInstanceProcess() {
+		// Clear the values respectively
+		this._contextPath = null;
+		this._contextURI = null;
+		this._requestCookieMap = null;
+		this._requestHeaderMap = null;
+		this._servletContextEvent = null;
+		this._httpRequest = null;
+		this._httpResponse = null;
+		this._requestMap = null;
+		this._requestType = null;
+		this._requestInputStream = null;
+		this._responseOutputStream = null;
+		this._printWriter = null;
+		this._printWriterOutput = null;
+		this._asyncDispatchGuard = null;
+		this._deferredRequest = null;
 	}
 	
 	/**
 	 * Spawn an instance of the current class
+	 *
+	 * If the class is annotated with `@PooledPage`, an idle instance
+	 * is reused from its pool when avaliable.
 	 **/
 	protected CorePage spawnInstance() throws ServletException { //, OutputStream outStream
+		// Reuse a pooled instance (if applicable)
+		PagePool pool = PagePool.forClass(this.getClass());
+		if (pool != null) {
+			CorePage pooled = pool.borrow();
+			if (pooled != null) {
+				// Reroute instances are pooled without the servlet config
+				if (pooled.getServletConfig() == null) {
+					pooled.applyServletConfig(this.getServletConfig());
+				}
+				return pooled;
+			}
+		}
+		
 		try {
 			// Get new instance of page (via its extended class)
+			// with its cached constructor factory
 			Class<? extends CorePage> pageClass = this.getClass();
-			CorePage ret = pageClass.newInstance();
+			CorePage ret = InstanceFactory.forClass(pageClass).get();
 			
-			// Cast and apply servlet config
-			ret = pageClass.cast(ret);
+			// Apply servlet config
 			ret.applyServletConfig(this.getServletConfig());
 			
 			// Return result
@@ -159,21 +217,63 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		}
 	}
 	
+	/**
+	 * Servlet config shared from the original instance, without re-running `init`
+	 **/
+	protected ServletConfig _sharedServletConfig = null;
+	
+	/**
+	 * [To be extended by sub class, if needed]
+	 * Compatibility switch, for pages which rely on `init(ServletConfig)` being
+	 * called on every spawned instance (for every request).
+	 *
+	 * By default this is false, and spawned instances share the servlet config
+	 * of the original instance, without re-running the servlet initialization.
+	 *
+	 * @return true, if init should be called on every spawned instance
+	 **/
+	protected boolean initOnSpawnInstance() {
+		return false;
+	}
+	
 	/**
 	 * Copy servlet config from the orginal instance, to a new instance
 	 *
 	 * @param  servletConfig  servlet config to apply from the original page
 	 **/
 	protected void applyServletConfig(ServletConfig servletConfig) {
+		if (servletConfig == null) {
+			return;
+		}
+		
+		// Share the servlet config, without the servlet init chain
+		if (!initOnSpawnInstance()) {
+			_sharedServletConfig = servletConfig;
+			return;
+		}
+		
+		// Legacy behaviour, which does the full servlet init
 		try {
-			if (servletConfig != null) {
-				init(servletConfig);
-			}
+			init(servletConfig);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Returns the servlet config, either from `init`,
+	 * or shared from the original instance (for spawned instances)
+	 *
+	 * @return servlet config
+	 **/
+	@Override
+	public ServletConfig getServletConfig() {
+		if (_sharedServletConfig != null) {
+			return _sharedServletConfig;
+		}
+		return super.getServletConfig();
+	}
+	
 	///////////////////////////////////////////////////////
 	//
 	// TheadLocal convinence copy
@@ -196,6 +296,9 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 	
 	/**
 	 * Gets and return the thread local CorePage used in current servlet request
+	 *
+	 * For `@AsyncPage` classes, this is setup on the thread executing the request
+	 * (and not the container thread).
 	 */
 	public static CorePage getCorePage() {
 		return localCopy.get();
@@ -310,10 +413,24 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		}
 		
 		// Setup the request map only when needed
-		_requestMap = new ServletRequestMap(_httpRequest);
+		_requestMap = new ServletRequestMap(_httpRequest, streamingJsonRequestBody());
 		return _requestMap;
 	}
 	
+	/**
+	 * [To be extended by sub class, if needed]
+	 * Enables streaming parsing of JSON request body, directly from the request input stream.
+	 * Reducing the memory used for large JSON payloads.
+	 *
+	 * Note that when enabled, `getRequestBodyString()` can only be used on the request
+	 * parameter map, if it is called before any of the parameters are used.
+	 *
+	 * @return true, to enable streaming JSON request body parsing
+	 **/
+	protected boolean streamingJsonRequestBody() {
+		return false;
+	}
+	
 	/**
 	 * Alias to `getRequestParameterMap()`
 	 **/
@@ -661,6 +778,122 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		return _requestType == HttpRequestType.OPTION;
 	}
 	
+	/**
+	 * Returns if the request was put into async mode (eg. by an async file output),
+	 * in which the response output should not be used further by this thread
+	 *
+	 * Note that this excludes the async mode used to dispatch `@AsyncPage` requests,
+	 * or for deferred requests, where the response output is still owned by the request.
+	 **/
+	public boolean isAsyncStarted() {
+		return _httpRequest != null && _asyncDispatchGuard == null && _deferredRequest == null
+			&& _httpRequest.isAsyncStarted();
+	}
+	
+	/**
+	 * Guard of the async context, used to dispatch the request off the container thread
+	 * (see `@AsyncPage`), null if the request is processed on the container thread.
+	 **/
+	protected AsyncRequestGuard _asyncDispatchGuard = null;
+	
+	/**
+	 * Returns if the request was dispatched off the container thread (see `@AsyncPage`)
+	 **/
+	public boolean isAsyncDispatched() {
+		return _asyncDispatchGuard != null;
+	}
+	
+	/**
+	 * Deferred request, when the request is completed asynchronously (see `deferRequest`),
+	 * null if the request is completed synchronously.
+	 **/
+	protected DeferredRequest _deferredRequest = null;
+	
+	/**
+	 * Returns if the rest of the request processing was deferred (see `deferRequest`)
+	 **/
+	public boolean isRequestDeferred() {
+		return _deferredRequest != null;
+	}
+	
+	/**
+	 * Returns if the request can be deferred, this requires async support for the request,
+	 * and is only supported for the page processing the request (and not rerouted pages)
+	 **/
+	public boolean canDeferRequest() {
+		if (_httpRequest == null || _deferredRequest != null || getCorePage() != this) {
+			return false;
+		}
+		return _asyncDispatchGuard != null
+			|| (_httpRequest.isAsyncSupported() && !_httpRequest.isAsyncStarted());
+	}
+	
+	/**
+	 * Defer the rest of the request processing (output, teardown) until the given async result
+	 * completes, releasing the request thread (via startAsync) in the meantime.
+	 *
+	 * The remaining processing steps are then appended with `thenDeferred` (for output),
+	 * or `thenDeferredAlways` (for teardown).
+	 *
+	 * @param  stage of the async result
+	 * @param  timeout of the async request in milliseconds (0 for no timeout),
+	 *         this is ignored for `@AsyncPage` requests, which use their dispatch timeout instead
+	 **/
+	public void deferRequest(CompletionStage<?> stage, long timeout) {
+		// Reuse the dispatch guard, else listen for the timeout here on the container thread
+		AsyncRequestGuard guard = _asyncDispatchGuard;
+		if (guard == null) {
+			AsyncContext asyncContext = _httpRequest.startAsync(_httpRequest, _httpResponse);
+			asyncContext.setTimeout(timeout);
+			guard = new AsyncRequestGuard(asyncContext);
+		}
+		_deferredRequest = new DeferredRequest(guard, stage);
+	}
+	
+	/**
+	 * Append a step to the deferred request processing, executed once the previous steps
+	 * complete. With `getCorePage()` setup for the step (on the thread executing it).
+	 *
+	 * The step is skipped if the request has timed out, as the response can no longer be used.
+	 *
+	 * @param  step to append
+	 **/
+	public void thenDeferred(DeferredRequest.Step step) {
+		_deferredRequest.then(withCorePage(step));
+	}
+	
+	/**
+	 * Append a step to the deferred request processing, which always runs (even if the request
+	 * has timed out), see `thenDeferred`. This is meant for teardown, and should not write
+	 * to the response.
+	 *
+	 * @param  step to append
+	 **/
+	public void thenDeferredAlways(DeferredRequest.Step step) {
+		_deferredRequest.thenAlways(withCorePage(step));
+	}
+	
+	/**
+	 * @param  step to wrap
+	 *
+	 * @return step with `getCorePage()` setup for it
+	 **/
+	private DeferredRequest.Step withCorePage(DeferredRequest.Step step) {
+		return (value, error) -> {
+			CorePage previous = localCopy.get();
+			localCopy.set(this);
+			try {
+				return step.apply(value, error);
+			} finally {
+				if (previous != null) {
+					localCopy.set(previous);
+				} else {
+					localCopy.remove();
+				}
+			}
+		};
+	}
+	
 	///////////////////////////////////////////////////////
 	//
 	// Output stream / output writer / send redirect
@@ -670,6 +903,9 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 	/** Memoizer for printwriter */
 	protected PrintWriter _printWriter = null;
 	
+	/** Output stream of the printwriter, see `flushPrintWriterTo` */
+	protected RedirectOutputStream _printWriterOutput = null;
+	
 	/**
 	 * gets the PrintWriter, from the getOutputStream() object and returns it
 	 **/
@@ -680,7 +916,8 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		try {
 			// Important note: You will need to use "true" for auto flush.
 			// "PrintWriter(Writer out, boolean autoFlush)", or it will NOT work.
-			_printWriter = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+			_printWriterOutput = new RedirectOutputStream(getOutputStream());
+			_printWriter = new PrintWriter(new OutputStreamWriter(_printWriterOutput,
 				getHttpServletRequest().getCharacterEncoding()), true);
 			return _printWriter;
 		} catch (UnsupportedEncodingException e) {
@@ -688,6 +925,25 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		}
 	}
 	
+	/**
+	 * Flush any output still buffered within the PrintWriter into the given output stream
+	 * (eg. a compressing stream), instead of the response output stream. So that the
+	 * response is not committed by the flush.
+	 *
+	 * @param  output stream to flush into
+	 **/
+	protected void flushPrintWriterTo(OutputStream output) {
+		if (_printWriter == null) {
+			return;
+		}
+		_printWriterOutput.redirect(output);
+		try {
+			_printWriter.flush();
+		} finally {
+			_printWriterOutput.restore();
+		}
+	}
+	
 	/**
 	 * gets the OutputStream, from the httpResponse.getOutputStream() object and returns it
 	 * also surpresses IOException, as RuntimeException
@@ -900,21 +1156,30 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 				}
 				
 				// Process the request
-				// Flush any data if exists
+				// Flush any data if exists (unless the output was handed over to an async writer)
 				try {
 					doRequest(getPrintWriter());
-					getPrintWriter().flush();
+					if (isRequestDeferred()) {
+						// Flush and teardown, once the deferred request completes
+						thenDeferred((value, error) -> {
+							processDeferredOutput(error);
+							return value;
+						});
+						thenDeferredAlways((value, error) -> {
+							processDeferredTeardown(error);
+							return value;
+						});
+						return;
+					}
+					if (!isAsyncStarted()) {
+						getPrintWriter().flush();
+					}
 				} catch (Exception e) {
 					handleRequestException(e);
 				}
 				
 				// Does teardwon
-				try {
-					doSharedTeardown();
-					doRequestTearDown();
-				} catch (Exception e) {
-					handleRequestSetupTeardownException(e);
-				}
+				processChainTeardown();
 			} catch (Exception e) {
 				// Final exception catcher
 				handleException(e);
@@ -927,19 +1192,180 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 		}
 	}
 	
+	/**
+	 * Does the teardown of the process chain
+	 **/
+	private void processChainTeardown() throws Exception {
+		try {
+			doSharedTeardown();
+			doRequestTearDown();
+		} catch (Exception e) {
+			handleRequestSetupTeardownException(e);
+		}
+	}
+	
+	/**
+	 * The rest of the process chain output (flush) for a deferred request,
+	 * with the same request exception handling as `processChain`.
+	 * This is skipped if the deferred request has timed out.
+	 *
+	 * @param  error of the deferred request processing, null if there is no error
+	 **/
+	private void processDeferredOutput(Throwable error) throws Exception {
+		try {
+			if (error != null) {
+				throw DeferredRequest.asException(error);
+			}
+			getPrintWriter().flush();
+		} catch (Exception e) {
+			handleRequestException(e);
+		}
+	}
+	
+	/**
+	 * The rest of the process chain (teardown) for a deferred request, which always runs.
+	 * Any unhandled error is then passed to the final exception catcher.
+	 *
+	 * @param  error of the deferred request processing, null if there is no error
+	 **/
+	private void processDeferredTeardown(Throwable error) throws Exception {
+		try {
+			processChainTeardown();
+			if (error != null) {
+				throw DeferredRequest.asException(error);
+			}
+		} catch (Exception e) {
+			// Final exception catcher
+			handleException(e);
+		}
+	}
+	
 	///////////////////////////////////////////////////////
 	//
 	// Native Servlet do overwrites [Avoid overwriting]
 	//
 	///////////////////////////////////////////////////////
 	
+	/**
+	 * Spawn the instance to process the request with, and recycle it
+	 * once the request is completed (if its pooled).
+	 *
+	 * @param  reqType of the request
+	 * @param  request servlet request
+	 * @param  response servlet response
+	 **/
+	private void processRequest(HttpRequestType reqType, HttpServletRequest request,
+		HttpServletResponse response) throws ServletException {
+		// Dispatch off the container thread, if its an async page (and supported)
+		RequestExecutor executor = RequestExecutor.forClass(this.getClass());
+		if (executor != null && request.isAsyncSupported() && !request.isAsyncStarted()) {
+			dispatchRequest(executor, reqType, request, response);
+			return;
+		}
+		processInstance(reqType, request, response, null);
+	}
+	
+	/**
+	 * Spawn the instance and process the request, on the current thread
+	 *
+	 * @param  reqType of the request
+	 * @param  request servlet request
+	 * @param  response servlet response
+	 * @param  dispatchGuard used to dispatch the request, null if its on the container thread
+	 *
+	 * @return true, if the request was deferred (and is completed asynchronously)
+	 **/
+	private boolean processInstance(HttpRequestType reqType, HttpServletRequest request,
+		HttpServletResponse response, AsyncRequestGuard dispatchGuard) throws ServletException {
+		CorePage page = spawnInstance();
+		boolean deferred = false;
+		try {
+			page._asyncDispatchGuard = dispatchGuard;
+			page.setupInstance(reqType, request, response).processChain();
+		} finally {
+			deferred = page.isRequestDeferred();
+			if (deferred) {
+				// Recycle and complete, once the deferred request completes (or times out)
+				DeferredRequest deferredRequest = page._deferredRequest;
+				deferredRequest.thenAlways((value, error) -> {
+					recycleInstance(page);
+					if (error != null) {
+						throw error;
+					}
+					return value;
+				});
+				deferredRequest.finish();
+			} else {
+				recycleInstance(page);
+			}
+		}
+		return deferred;
+	}
+	
+	/**
+	 * Recycle the instance once the request is completed (if its pooled)
+	 *
+	 * @param  page instance to recycle
+	 **/
+	private static void recycleInstance(CorePage page) {
+		PagePool pool = PagePool.forClass(page.getClass());
+		if (pool != null) {
+			pool.recycle(page);
+		}
+	}
+	
+	/**
+	 * Dispatch the request onto the executor (via startAsync), releasing the container thread.
+	 * The async request is completed once the request is processed.
+	 *
+	 * If the `@AsyncPage` timeout is reached first, a 503 error is sent instead, with the
+	 * response guarded from any further use by the processing thread (see AsyncRequestGuard).
+	 *
+	 * @param  executor to process the request with
+	 * @param  reqType of the request
+	 * @param  request servlet request
+	 * @param  response servlet response
+	 **/
+	private void dispatchRequest(RequestExecutor executor, HttpRequestType reqType,
+		HttpServletRequest request, HttpServletResponse response) throws ServletException {
+		AsyncContext asyncContext = request.startAsync(request, response);
+		asyncContext.setTimeout(executor.timeout);
+		
+		// Listen for the timeout, this is only possible here on the container thread
+		AsyncRequestGuard guard = new AsyncRequestGuard(asyncContext);
+		HttpServletResponse guardedResponse = guard.wrapResponse(response);
+		try {
+			executor.execute(() -> {
+				boolean deferred = false;
+				try {
+					deferred = processInstance(reqType, request, guardedResponse, guard);
+				} catch (Exception e) {
+					// There is no container thread to throw to, so log and respond with 500
+					// (unless it has already timed out)
+					if (!guard.isFinished()) {
+						request.getServletContext().log("Async page request failed", e);
+						guard.complete(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					}
+				} finally {
+					// Deferred requests are completed asynchronously instead
+					if (!deferred) {
+						guard.complete(0);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Executor is full, fail fast instead of holding the container thread
+			guard.complete(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+	}
+	
 	/**
 	 * [Do not extend] Diverts the native doX to spawnInstance().setupInstance(TYPE,Req,Res).processChain()
 	 **/
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response)
 		throws ServletException {
-		spawnInstance().setupInstance(HttpRequestType.GET, request, response).processChain();
+		processRequest(HttpRequestType.GET, request, response);
 	}
 	
 	/**
@@ -948,7 +1374,7 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 	@Override
 	public void doPost(HttpServletRequest request, HttpServletResponse response)
 		throws ServletException {
-		spawnInstance().setupInstance(HttpRequestType.POST, request, response).processChain();
+		processRequest(HttpRequestType.POST, request, response);
 	}
 	
 	/**
@@ -957,7 +1383,7 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 	@Override
 	public void doPut(HttpServletRequest request, HttpServletResponse response)
 		throws ServletException {
-		spawnInstance().setupInstance(HttpRequestType.PUT, request, response).processChain();
+		processRequest(HttpRequestType.PUT, request, response);
 	}
 	
 	/**
@@ -966,7 +1392,7 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 	@Override
 	public void doDelete(HttpServletRequest request, HttpServletResponse response)
 		throws ServletException {
-		spawnInstance().setupInstance(HttpRequestType.DELETE, request, response).processChain();
+		processRequest(HttpRequestType.DELETE, request, response);
 	}
 	
 	/**
@@ -975,7 +1401,7 @@ public class CorePage extends javax.servlet.http.HttpServlet implements ServletC
 	@Override
 	public void doOptions(HttpServletRequest request, HttpServletResponse response)
 		throws ServletException {
-		spawnInstance().setupInstance(HttpRequestType.OPTION, request, response).processChain();
+		processRequest(HttpRequestType.OPTION, request, response);
 		// try {
 		// 	super.doOptions(request, response);
 		// } catch (Exception e) {
@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.OutputStream;
@@ -83,6 +84,12 @@ public class CoreUtilPage extends CorePage {
 	//
 	///////////////////////////////////////////////////////
 	
+	/**
+	 * Shared FileServlet for each context path, so that its file caches
+	 * are reused across requests (and page instances)
+	 **/
+	protected static final ConcurrentHashMap<String, FileServlet> _sharedFileServletMap = new ConcurrentHashMap<>();
+	
 	/**
 	 * Cached FileServlet (for reuse)
 	 **/
@@ -95,7 +102,8 @@ public class CoreUtilPage extends CorePage {
 		if (_outputFileServlet != null) {
 			return _outputFileServlet;
 		}
-		return (_outputFileServlet = new FileServlet(getContextPath()));
+		return (_outputFileServlet = _sharedFileServletMap.computeIfAbsent(getContextPath(),
+			FileServlet::new));
 	}
 	
 	/**
@@ -4,15 +4,21 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.Part;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collection;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.disk.DiskFileItem;
@@ -24,6 +30,7 @@ import org.apache.commons.io.IOUtils;
 import picoded.core.struct.GenericConvertArrayList;
 import picoded.core.struct.GenericConvertHashMap;
 import picoded.core.conv.ConvertJSON;
+import picoded.servlet.internal.JsonStreamParser;
 
 /**
  * Represents a servlet page request parameters
@@ -33,7 +40,17 @@ import picoded.core.conv.ConvertJSON;
  * 
  * DO NOT INITIALIZE ServletRequestMap!! Obtain it via the BasePage.requestParameterMap()
  *
- * @TODO: Optimize the class to do the conversion between String[] to String only ON DEMAND, and to cache the result
+ * Parameters are processed on demand, where
+ *
+ * + query / form parameters are converted from String[] on first access of each key (and cached)
+ * + request body (JSON / multipart) is read and parsed, on the first access of any key,
+ *   as its parameters takes precedence over the query parameters of the same name
+ * + GET (or any request without a JSON / multipart body) never reads the request body,
+ *   until a key which is not a query / form parameter is accessed
+ * + everything is loaded, when the map is iterated (keySet / entrySet / size / etc)
+ *
+ * Values explicitly put into the map overwrites both, without loading the request parameters.
+ * Multipart fields of the same name (including the query parameter) are merged into a List.
  **/
 public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	
@@ -56,28 +73,364 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	}
 	
 	/**
-	 * Takes in a httpServletRequest, and process it for its respective parameters
+	 * Takes in a httpServletRequest, its respective parameters are processed on demand
 	 **/
 	public ServletRequestMap(HttpServletRequest inReq) {
+		this(inReq, false);
+	}
+	
+	/**
+	 * Takes in a httpServletRequest, its respective parameters are processed on demand
+	 *
+	 * @param  inReq  servlet request to process
+	 * @param  streamingJson  parse JSON request body directly from its input stream
+	 **/
+	public ServletRequestMap(HttpServletRequest inReq, boolean streamingJson) {
 		super();
 		req = inReq;
-		processHttpServletRequest();
+		requestBodyProcessed = false;
+		parametersFullyLoaded = false;
+		this.streamingJson = streamingJson;
 	}
 	
 	//------------------------------------------------------------------------------
 	//
-	// Parameter handling (the whole point of this class)
+	// On demand parameter loading
 	//
 	//------------------------------------------------------------------------------
 	
+	/** Indicates if the request body has been processed (or does not need to be) */
+	private boolean requestBodyProcessed = true;
+	
+	/** Failure of the request body processing, rethrown on subsequent access */
+	private RuntimeException requestBodyFailure = null;
+	
+	/** Indicates if the container was asked to parse the query / form parameters */
+	private boolean requestParametersParsed = false;
+	
+	/** Indicates if all the query / form parameters has been loaded */
+	private boolean parametersFullyLoaded = true;
+	
+	/** Keys explicitly put / removed, which request parameters should not overwrite */
+	private Set<String> explicitKeys = new HashSet<String>();
+	
 	/**
-	 * Processes a HttpServletRequest, and extract its various possible parameters
+	 * Load the query / form parameter of the given key,
+	 * if it was not previously loaded (or overwritten)
+	 *
+	 * @param  key of the parameter
 	 */
-	private void processHttpServletRequest() {
+	private void loadParameter(String key) {
+		if (parametersFullyLoaded || super.containsKey(key) || explicitKeys.contains(key)) {
+			return;
+		}
+		
 		// This covers GET request,
 		// and/or form POST request
-		super.putAll(formParameterConversion(req.getParameterMap()));
+		String[] values = req.getParameterValues(key);
+		if (values != null) {
+			super.put(key, flattenStringArray(values));
+		}
+	}
+	
+	/**
+	 * Ensure the parameter of the given key has been loaded, the request body is
+	 * processed first if it has parameters, else only if its not a query / form parameter
+	 *
+	 * @param  key of the parameter
+	 */
+	private void loadParameter(Object key) {
+		if (req == null) {
+			return;
+		}
+		if (!requestBodyProcessed && hasRequestBodyParameters()) {
+			processRequestBody();
+		}
+		if (key instanceof String) {
+			loadParameter((String) key);
+			if (super.containsKey(key) || explicitKeys.contains(key)) {
+				return;
+			}
+		}
+		processRequestBody();
+	}
+	
+	/**
+	 * Ensure the container has parsed the query / form parameters, before the request
+	 * input stream is used. As form POST parameters are lost once the input stream is read.
+	 */
+	private void parseRequestParameters() {
+		if (!requestParametersParsed) {
+			req.getParameterMap();
+			requestParametersParsed = true;
+		}
+	}
+	
+	/**
+	 * @return true, if the request has a JSON / multipart body, whose parameters takes
+	 *         precedence over the query parameters
+	 */
+	private boolean hasRequestBodyParameters() {
+		String contentType = req.getContentType();
+		String reqMethod = req.getMethod();
+		if (contentType == null
+			|| !(reqMethod.equalsIgnoreCase("PUT") || reqMethod.equalsIgnoreCase("POST"))) {
+			return false;
+		}
+		return contentType.contains("application/json") || contentType.contains("text/plain")
+			|| contentType.contains("multipart/");
+	}
+	
+	/**
+	 * Mark the given key as explicitly set, without loading its request parameter (or body).
+	 * So that request parameters of the same name are not stored subsequently.
+	 *
+	 * @param  key of the parameter
+	 */
+	private void explicitParameter(String key) {
+		explicitKeys.add(key);
+	}
+	
+	/**
+	 * @param  key of the parameter
+	 *
+	 * @return true, if the request body parameter should not be stored, as it is explicitly set
+	 */
+	private boolean isBodyParameterOverwritten(String key) {
+		return explicitKeys.contains(key);
+	}
+	
+	/**
+	 * Load all the request parameters (and body), used before iterating the map
+	 */
+	private void loadAllParameters() {
+		if (req == null) {
+			return;
+		}
+		processRequestBody();
+		if (parametersFullyLoaded) {
+			return;
+		}
 		
+		// This covers GET request,
+		// and/or form POST request
+		for (Map.Entry<String, String[]> entry : req.getParameterMap().entrySet()) {
+			String key = entry.getKey();
+			if (!super.containsKey(key) && !explicitKeys.contains(key)) {
+				super.put(key, flattenStringArray(entry.getValue()));
+			}
+		}
+		parametersFullyLoaded = true;
+	}
+	
+	//------------------------------------------------------------------------------
+	//
+	// Map overwrites, for on demand loading
+	//
+	//------------------------------------------------------------------------------
+	
+	@Override
+	public Object get(Object key) {
+		loadParameter(key);
+		return super.get(key);
+	}
+	
+	@Override
+	public Object getOrDefault(Object key, Object defaultValue) {
+		loadParameter(key);
+		return super.getOrDefault(key, defaultValue);
+	}
+	
+	@Override
+	public boolean containsKey(Object key) {
+		loadParameter(key);
+		return super.containsKey(key);
+	}
+	
+	@Override
+	public Object put(String key, Object value) {
+		explicitParameter(key);
+		return super.put(key, value);
+	}
+	
+	@Override
+	public void putAll(Map<? extends String, ? extends Object> m) {
+		for (Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	@Override
+	public Object putIfAbsent(String key, Object value) {
+		explicitParameter(key);
+		return super.putIfAbsent(key, value);
+	}
+	
+	@Override
+	public Object remove(Object key) {
+		loadParameter(key);
+		if (key instanceof String) {
+			explicitKeys.add((String) key);
+		}
+		return super.remove(key);
+	}
+	
+	@Override
+	public boolean remove(Object key, Object value) {
+		loadParameter(key);
+		if (key instanceof String) {
+			explicitKeys.add((String) key);
+		}
+		return super.remove(key, value);
+	}
+	
+	@Override
+	public Object replace(String key, Object value) {
+		explicitParameter(key);
+		return super.replace(key, value);
+	}
+	
+	@Override
+	public boolean replace(String key, Object oldValue, Object newValue) {
+		explicitParameter(key);
+		return super.replace(key, oldValue, newValue);
+	}
+	
+	@Override
+	public Object computeIfAbsent(String key,
+		Function<? super String, ? extends Object> mappingFunction) {
+		explicitParameter(key);
+		return super.computeIfAbsent(key, mappingFunction);
+	}
+	
+	@Override
+	public Object computeIfPresent(String key,
+		BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		explicitParameter(key);
+		return super.computeIfPresent(key, remappingFunction);
+	}
+	
+	@Override
+	public Object compute(String key,
+		BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		explicitParameter(key);
+		return super.compute(key, remappingFunction);
+	}
+	
+	@Override
+	public Object merge(String key, Object value,
+		BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+		explicitParameter(key);
+		return super.merge(key, value, remappingFunction);
+	}
+	
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+		loadAllParameters();
+		super.replaceAll(function);
+	}
+	
+	@Override
+	public void clear() {
+		// Nothing else should be loaded after clearing
+		requestBodyProcessed = true;
+		parametersFullyLoaded = true;
+		super.clear();
+	}
+	
+	@Override
+	public int size() {
+		loadAllParameters();
+		return super.size();
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		loadAllParameters();
+		return super.isEmpty();
+	}
+	
+	@Override
+	public boolean containsValue(Object value) {
+		loadAllParameters();
+		return super.containsValue(value);
+	}
+	
+	@Override
+	public Set<String> keySet() {
+		loadAllParameters();
+		return super.keySet();
+	}
+	
+	@Override
+	public Collection<Object> values() {
+		loadAllParameters();
+		return super.values();
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		loadAllParameters();
+		return super.entrySet();
+	}
+	
+	@Override
+	public void forEach(BiConsumer<? super String, ? super Object> action) {
+		loadAllParameters();
+		super.forEach(action);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		loadAllParameters();
+		return super.equals(o);
+	}
+	
+	@Override
+	public int hashCode() {
+		loadAllParameters();
+		return super.hashCode();
+	}
+	
+	@Override
+	public String toString() {
+		loadAllParameters();
+		return super.toString();
+	}
+	
+	//------------------------------------------------------------------------------
+	//
+	// Parameter handling (the whole point of this class)
+	//
+	//------------------------------------------------------------------------------
+	
+	/**
+	 * Processes the HttpServletRequest body (if not previously done),
+	 * and extract its various possible parameters.
+	 *
+	 * As the request body can only be read once, any failure is rethrown on subsequent calls.
+	 */
+	private void processRequestBody() {
+		if (requestBodyProcessed) {
+			return;
+		}
+		if (requestBodyFailure != null) {
+			throw requestBodyFailure;
+		}
+		try {
+			parseRequestParameters();
+			processRequestBodyContent();
+			requestBodyProcessed = true;
+		} catch (RuntimeException e) {
+			requestBodyFailure = e;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read the HttpServletRequest body, and extract its various possible parameters
+	 */
+	private void processRequestBodyContent() {
 		// Get the content type
 		String contentType = req.getContentType();
 		
@@ -101,6 +454,12 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 		
 		// Does specific processing for application/json
 		if (contentType.contains("application/json")) {
+			// Does streaming processing of JSON request (if enabled), and return
+			if (streamingJson && reqBodyByteArray == null) {
+				processJsonStream();
+				return;
+			}
+			
 			// Does processing of JSON request, and return
 			setByteArrayFromHttpServletRequest(req);
 			processJsonParams();
@@ -145,23 +504,6 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	// GET / POST form parameter handling
 	//-------------------------------------------------
 	
-	/**
-	 * Does the conversion of a Map<String,String[]> to a Map<String,Object>, for GET/POST form request arguments.
-	 * If multiple string valeus are found in the String[], it will be converted into a list
-	 * (facilitated by `flattenStringArray`)
-	 *
-	 * @param  in  raw mapping with string array
-	 *
-	 * @return  processed string object map
-	 **/
-	private static Map<String, Object> formParameterConversion(Map<String, String[]> in) {
-		HashMap<String, Object> ret = new HashMap<String, Object>();
-		for (Map.Entry<String, String[]> entry : in.entrySet()) {
-			ret.put(entry.getKey(), flattenStringArray(entry.getValue()));
-		}
-		return ret;
-	}
-	
 	/**
 	 * Does the conversion from string array to string,
 	 * Used internally for all the map conversion.
@@ -214,6 +556,7 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	 * @param inReq to extract the input stream from
 	 */
 	private void setByteArrayFromHttpServletRequest(HttpServletRequest inReq) {
+		parseRequestParameters();
 		try {
 			// get the request body / input stream
 			setByteArrayFromInputStream(inReq.getInputStream());
@@ -226,6 +569,19 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	 * @return request body in byte array
 	 */
 	protected byte[] getRequestBodyByteArray() {
+		// Keep the raw request body, if it is requested before the streaming JSON processing
+		if (streamingJson && !requestBodyProcessed && isJsonRequestBody()) {
+			setByteArrayFromHttpServletRequest(req);
+		}
+		
+		// Ensure the request body is read
+		processRequestBody();
+		
+		// The raw request body is not kept, after streaming JSON processing
+		if (requestBodyStreamed) {
+			throw new RuntimeException("getRequestBodyString() cannot be used after "
+				+ "the JSON request body was stream processed");
+		}
 		return reqBodyByteArray;
 	}
 	
@@ -238,13 +594,22 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	 * @return
 	 */
 	public String getRequestBodyString() {
+		return decodeRequestBody(getRequestBodyByteArray());
+	}
+	
+	/**
+	 * @param  body of the request
+	 *
+	 * @return request body as a string, in its request encoding
+	 */
+	private String decodeRequestBody(byte[] body) {
 		try {
 			// Detect request encoding format, by default set to UTF-8
 			String encoding = (req.getCharacterEncoding() != null) ? req.getCharacterEncoding()
 				: "UTF-8";
 			
 			// stringify the request body
-			return new String(getRequestBodyByteArray(), encoding);
+			return new String(body, encoding);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -259,13 +624,70 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	 */
 	private void processJsonParams() {
 		// get the JSON string from the body
-		String requestJSON = getRequestBodyString();
+		String requestJSON = decodeRequestBody(reqBodyByteArray);
 		
 		// Convert into jsonMap : currently we only support top level maps
 		Map<String, Object> jsonMap = ConvertJSON.toMap(requestJSON);
 		
-		// Store the data, and return
-		this.putAll(jsonMap);
+		// Store the data (without overwriting explicitly set values), and return
+		if (jsonMap == null) {
+			return;
+		}
+		for (Map.Entry<String, Object> entry : jsonMap.entrySet()) {
+			if (!isBodyParameterOverwritten(entry.getKey())) {
+				super.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	//-------------------------------------------------
+	// Streaming JSON request handling
+	//-------------------------------------------------
+	
+	// Parse JSON request body directly from its input stream
+	private boolean streamingJson = false;
+	
+	// Indicates the request body was stream processed, and is not kept
+	private boolean requestBodyStreamed = false;
+	
+	/**
+	 * @return true, if the request body is (non multipart) JSON to be processed
+	 */
+	private boolean isJsonRequestBody() {
+		if (req == null) {
+			return false;
+		}
+		String contentType = req.getContentType();
+		String reqMethod = req.getMethod();
+		return contentType != null && contentType.contains("application/json")
+			&& !contentType.contains("multipart/")
+			&& (reqMethod.equalsIgnoreCase("PUT") || reqMethod.equalsIgnoreCase("POST"));
+	}
+	
+	/**
+	 * Parse the JSON data directly from the input stream and converts it into parameters,
+	 * without keeping the raw request body in memory
+	 */
+	private void processJsonStream() {
+		Map<String, Object> jsonMap = null;
+		try {
+			// Detect request encoding format, by default set to UTF-8
+			String encoding = (req.getCharacterEncoding() != null) ? req.getCharacterEncoding()
+				: "UTF-8";
+			
+			// Parse the input stream : currently we only support top level maps
+			requestBodyStreamed = true;
+			jsonMap = new JsonStreamParser(req.getInputStream(), Charset.forName(encoding)).parseMap();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		// Store the data (without overwriting explicitly set values), and return
+		for (Map.Entry<String, Object> entry : jsonMap.entrySet()) {
+			if (!isBodyParameterOverwritten(entry.getKey())) {
+				super.put(entry.getKey(), entry.getValue());
+			}
+		}
 	}
 	
 	//-------------------------------------------------
@@ -293,8 +715,16 @@ public class ServletRequestMap extends GenericConvertHashMap<String, Object> {
 	 * @param  value of object to append
 	 */
 	private void appendRequestParameter(String name, Object value) {
-		// Get the existing value
+		// Explicitly set values are not overwritten
+		if (isBodyParameterOverwritten(name)) {
+			return;
+		}
+		
+		// Get the existing value (of a repeated field name, or query parameter)
 		Object existing = super.get(name);
+		if (existing == null && !super.containsKey(name)) {
+			existing = flattenStringArray(req.getParameterValues(name));
+		}
 		
 		// Check if no existing value stored
 		if (existing == null) {
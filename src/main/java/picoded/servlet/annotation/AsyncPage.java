@@ -0,0 +1,45 @@
+package picoded.servlet.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation for opting a page class into async request execution, where the request
+ * processing (`processChain`) is dispatched off the container thread, via `startAsync`.
+ * Releasing the container thread, while the request is blocked on IO.
+ *
+ * Requests are executed on virtual threads, when running on a JDK which supports them.
+ * Falling back to a bounded thread pool (per page class) otherwise.
+ *
+ * `CorePage.getCorePage()` works as per normal within the request (on its executing thread).
+ * The servlet needs to be registered with async support, else requests are processed
+ * on the container thread as per normal.
+ *
+ * ```
+ * @AsyncPage(maxThreads = 200)
+ * public class ReportApi extends BasePage {
+ * 	...
+ * }
+ * ```
+ */
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+public @interface AsyncPage {
+	/** Use virtual threads if supported by the JDK, else the bounded thread pool is always used */
+	public boolean virtualThreads() default true;
+	
+	/** Maximum number of threads, for the bounded thread pool */
+	public int maxThreads() default 200;
+	
+	/** Maximum number of queued requests, for the bounded thread pool (0 for no queue) */
+	public int queueSize() default 1000;
+	
+	/** Async request timeout in milliseconds, 0 (default) for no timeout */
+	public long timeout() default 0;
+}
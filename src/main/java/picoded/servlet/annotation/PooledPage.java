@@ -0,0 +1,32 @@
+package picoded.servlet.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation for opting a page class into instance pooling, where page instances
+ * are recycled across requests (instead of a new instance for every request).
+ *
+ * Pooled instances are reset with `resetInstance()` after each request, which clears
+ * all the request scoped fields. Page classes using this, should extend `resetInstanceProcess()`
+ * to clear any additional request scoped fields they declare.
+ *
+ * ```
+ * @PooledPage(64)
+ * public class HealthPage extends BasePage {
+ * 	...
+ * }
+ * ```
+ */
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+public @interface PooledPage {
+	/** Maximum number of idle instances to keep in the pool */
+	public int value() default 64;
+}
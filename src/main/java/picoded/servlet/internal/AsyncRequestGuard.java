@@ -0,0 +1,501 @@
+package picoded.servlet.internal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Internal utility class, which guards the response of an async request (see `@AsyncPage`),
+ * against the async context timing out, while the request is still being processed
+ * off the container thread.
+ *
+ * The async context is completed exactly once, by whichever comes first
+ *
+ * + `complete(status)` : once the request is processed (or failed)
+ * + `onTimeout` : respond with 503 instead, and mark the request as finished
+ *
+ * Once finished, the response must not be used further, as the container may have recycled it.
+ * Hence the processing thread should use the response from `wrapResponse`, which drops any
+ * further changes to the response, and fails any further output with an IOException.
+ * All of which is synchronized on this guard, so that a timeout never interleaves
+ * with an output in progress.
+ *
+ * The listener is registered on construction, and as such this must be constructed
+ * on the container thread (which started the async context).
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class AsyncRequestGuard implements AsyncListener {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Async context of the request */
+	public final AsyncContext asyncContext;
+	
+	/** Indicates if the async context was completed (or timed out), guarded by this */
+	protected boolean finished = false;
+	
+	/**
+	 * Setup the guard, and register it as the async context listener
+	 *
+	 * @param  asyncContext of the request
+	 */
+	public AsyncRequestGuard(AsyncContext asyncContext) {
+		this.asyncContext = asyncContext;
+		asyncContext.addListener(this);
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// State handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @return true, if the async context was completed (or timed out)
+	 */
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Complete the async context, if it is not already finished
+	 *
+	 * @param  errorStatus to send (if the response is not yet committed), 0 for none
+	 *
+	 * @return true, if the async context was completed by this call
+	 */
+	public synchronized boolean complete(int errorStatus) {
+		if (finished) {
+			return false;
+		}
+		finished = true;
+		if (errorStatus > 0) {
+			sendError(errorStatus);
+		}
+		asyncContext.complete();
+		return true;
+	}
+	
+	/**
+	 * Send the error status, if the response is not yet committed
+	 *
+	 * @param  status code to send
+	 */
+	protected void sendError(int status) {
+		HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		if (response.isCommitted()) {
+			return;
+		}
+		try {
+			response.sendError(status);
+		} catch (IOException | IllegalStateException e) {
+			// Response is no longer usable, nothing else can be done
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// AsyncListener implementation
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Request took too long, respond with 503 (and skip any further output)
+	 */
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		complete(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+	
+	/**
+	 * Request failed (eg. client disconnect), skip any further output
+	 */
+	@Override
+	public synchronized void onError(AsyncEvent event) {
+		finished = true;
+	}
+	
+	@Override
+	public synchronized void onComplete(AsyncEvent event) {
+		finished = true;
+	}
+	
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+		// Does nothing
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Guarded response
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Wrap the response, so that it is no longer used once the request is finished
+	 *
+	 * @param  response of the request
+	 *
+	 * @return the guarded response
+	 */
+	public HttpServletResponse wrapResponse(HttpServletResponse response) {
+		return new GuardedResponse(response);
+	}
+	
+	/**
+	 * @return exception for output after the request is finished
+	 */
+	protected IOException finishedException() {
+		return new IOException("Async request is already completed (or timed out)");
+	}
+	
+	/**
+	 * Response wrapper, which drops any changes once the request is finished
+	 */
+	protected class GuardedResponse extends HttpServletResponseWrapper {
+		
+		/** Guarded output stream, initialized on first use */
+		protected ServletOutputStream outputStream = null;
+		
+		/** Guarded writer, initialized on first use */
+		protected PrintWriter writer = null;
+		
+		public GuardedResponse(HttpServletResponse response) {
+			super(response);
+		}
+		
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				if (outputStream == null) {
+					outputStream = new GuardedOutputStream(super.getOutputStream());
+				}
+				return outputStream;
+			}
+		}
+		
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				if (writer == null) {
+					writer = new PrintWriter(new GuardedWriter(super.getWriter()));
+				}
+				return writer;
+			}
+		}
+		
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.sendError(sc, msg);
+				}
+			}
+		}
+		
+		@Override
+		public void sendError(int sc) throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.sendError(sc);
+				}
+			}
+		}
+		
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.sendRedirect(location);
+				}
+			}
+		}
+		
+		@Override
+		public void flushBuffer() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				super.flushBuffer();
+			}
+		}
+		
+		@Override
+		public void addCookie(Cookie cookie) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.addCookie(cookie);
+				}
+			}
+		}
+		
+		@Override
+		public void setDateHeader(String name, long date) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setDateHeader(name, date);
+				}
+			}
+		}
+		
+		@Override
+		public void addDateHeader(String name, long date) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.addDateHeader(name, date);
+				}
+			}
+		}
+		
+		@Override
+		public void setHeader(String name, String value) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setHeader(name, value);
+				}
+			}
+		}
+		
+		@Override
+		public void addHeader(String name, String value) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.addHeader(name, value);
+				}
+			}
+		}
+		
+		@Override
+		public void setIntHeader(String name, int value) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setIntHeader(name, value);
+				}
+			}
+		}
+		
+		@Override
+		public void addIntHeader(String name, int value) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.addIntHeader(name, value);
+				}
+			}
+		}
+		
+		@Override
+		public void setStatus(int sc) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setStatus(sc);
+				}
+			}
+		}
+		
+		@Override
+		public void setCharacterEncoding(String charset) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setCharacterEncoding(charset);
+				}
+			}
+		}
+		
+		@Override
+		public void setContentLength(int len) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setContentLength(len);
+				}
+			}
+		}
+		
+		@Override
+		public void setContentLengthLong(long len) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setContentLengthLong(len);
+				}
+			}
+		}
+		
+		@Override
+		public void setContentType(String type) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setContentType(type);
+				}
+			}
+		}
+		
+		@Override
+		public void setBufferSize(int size) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setBufferSize(size);
+				}
+			}
+		}
+		
+		@Override
+		public void resetBuffer() {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.resetBuffer();
+				}
+			}
+		}
+		
+		@Override
+		public void reset() {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.reset();
+				}
+			}
+		}
+		
+		@Override
+		public void setLocale(Locale loc) {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					super.setLocale(loc);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Output stream wrapper, which fails once the request is finished
+	 */
+	protected class GuardedOutputStream extends ServletOutputStream {
+		
+		/** Underlying response output stream */
+		protected final ServletOutputStream output;
+		
+		public GuardedOutputStream(ServletOutputStream output) {
+			this.output = output;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				output.write(b);
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				output.write(b, off, len);
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				output.flush();
+			}
+		}
+		
+		/**
+		 * Closing is left to the async context completion
+		 */
+		@Override
+		public void close() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					output.flush();
+				}
+			}
+		}
+		
+		@Override
+		public boolean isReady() {
+			synchronized (AsyncRequestGuard.this) {
+				return !finished && output.isReady();
+			}
+		}
+		
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			output.setWriteListener(writeListener);
+		}
+	}
+	
+	/**
+	 * Writer wrapper, which fails once the request is finished
+	 */
+	protected class GuardedWriter extends Writer {
+		
+		/** Underlying response writer */
+		protected final Writer output;
+		
+		public GuardedWriter(Writer output) {
+			this.output = output;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				output.write(cbuf, off, len);
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (finished) {
+					throw finishedException();
+				}
+				output.flush();
+			}
+		}
+		
+		/**
+		 * Closing is left to the async context completion
+		 */
+		@Override
+		public void close() throws IOException {
+			synchronized (AsyncRequestGuard.this) {
+				if (!finished) {
+					output.flush();
+				}
+			}
+		}
+	}
+}
@@ -2,17 +2,26 @@ package picoded.servlet.internal;
 
 import java.io.PrintWriter;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import picoded.servlet.*;
 import picoded.servlet.annotation.*;
+import picoded.core.common.HttpRequestType;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Internal utility class, used to mapped the relvent
@@ -107,6 +116,8 @@ public class BasePageClassMap {
 	
 	/** Class object representation of BasePage instance used in BasePageClassMap */
 	protected Class<?> pageClass = null;
+	/** Precompiled no-arg constructor factory of the page class */
+	protected Supplier<?> pageFactory = null;
 	/** List of methods used in before filters */
 	protected EndpointMap<Method> beforeMap = new EndpointMap<>();
 	
@@ -122,16 +133,35 @@ public class BasePageClassMap {
 	/** List of methods used in after filters */
 	protected EndpointMap<Method> afterMap = new EndpointMap<>();
 	
+	/** Precomputed invokers of the request methods */
+	protected Map<Method, MethodInvoker> invokerMap = new ConcurrentHashMap<>();
+	
 	/**
 	 * Import and scan the given class object for relevent
 	 * annotations and map it accordingly internally to this BasePageClassMap
 	 **/
 	protected void registerClass(Class<?> classObj) {
-		// Setup the class object refrence
+		// Setup the class object refrence, and its constructor factory
 		pageClass = classObj;
+		pageFactory = InstanceFactory.forClass(classObj);
 		// Map the class methods and fields
 		registerClassMethods(classObj);
 		registerClassFields(classObj);
+		// Precompile the endpoint lookups
+		compileEndpointMaps();
+	}
+	
+	/**
+	 * Precompile the endpoint trie of the various endpoint maps,
+	 * so that it is done once on setup, instead of on the first request
+	 */
+	protected void compileEndpointMaps() {
+		beforeMap.endpointTrie();
+		pathMap.endpointTrie();
+		apiMap.endpointTrie();
+		rerouteFieldMap.endpointTrie();
+		rerouteMethodMap.endpointTrie();
+		afterMap.endpointTrie();
 	}
 	
 	/**
@@ -162,11 +192,14 @@ public class BasePageClassMap {
 		//
 		// Minor note : Because annotation is not extendable, we cant fully refactor
 		// the duplicative loop into a generic function, that is reusable.
+		boolean isRequestMethod = false;
 		for (RequestBefore pathObj : methodObj.getAnnotationsByType(RequestBefore.class)) {
 			beforeMap.registerEndpointPath(pathObj.value(), methodObj);
+			isRequestMethod = true;
 		}
 		for (RequestAfter pathObj : methodObj.getAnnotationsByType(RequestAfter.class)) {
 			afterMap.registerEndpointPath(pathObj.value(), methodObj);
+			isRequestMethod = true;
 		}
 		
 		//
@@ -195,10 +228,34 @@ public class BasePageClassMap {
 		//
 		for (RequestPath pathObj : methodObj.getAnnotationsByType(RequestPath.class)) {
 			pathMap.registerEndpointPath(pathObj.value(), methodObj);
+			isRequestMethod = true;
 		}
 		for (ApiPath pathObj : methodObj.getAnnotationsByType(ApiPath.class)) {
 			apiMap.registerEndpointPath(pathObj.value(), methodObj);
+			isRequestMethod = true;
+		}
+		
+		// Precompute the method invoker, for any registered request method
+		if (isRequestMethod) {
+			invokerMap.put(methodObj, new MethodInvoker(methodObj));
+		}
+	}
+	
+	/**
+	 * Get the precomputed invoker for the given method,
+	 * and set it up if it was not registered previously.
+	 *
+	 * @param  methodObj to get the invoker for
+	 *
+	 * @return  method invoker
+	 */
+	protected MethodInvoker methodInvoker(Method methodObj) {
+		MethodInvoker ret = invokerMap.get(methodObj);
+		if (ret == null) {
+			ret = new MethodInvoker(methodObj);
+			invokerMap.put(methodObj, ret);
 		}
+		return ret;
 	}
 	
 	/**
@@ -303,6 +360,15 @@ public class BasePageClassMap {
 		return ret;
 	}
 	
+	/**
+	 * Create a new instance of the page class, using its precompiled constructor factory
+	 *
+	 * @return new page class instance
+	 */
+	public Object newPageInstance() {
+		return pageFactory.get();
+	}
+	
 	/**
 	 * Intiailize reroute BasePage class instance
 	 *
@@ -320,18 +386,20 @@ public class BasePageClassMap {
 		// 	// ignore, and does the fallback
 		// }
 		
-		// Initialize a new instance if able
-		try {
-			BasePage ret = (BasePage) (Object) classObj.newInstance();
-			ret.transferParams(page);
-			return ret;
-		} catch (InstantiationException e) {
-			throw new RuntimeException(e);
-		} catch (IllegalArgumentException e) {
-			throw new RuntimeException(e);
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException(e);
+		// Reuse a pooled instance (if applicable)
+		PagePool pool = PagePool.forClass(classObj);
+		if (pool != null) {
+			BasePage pooled = (BasePage) pool.borrow();
+			if (pooled != null) {
+				pooled.transferParams(page);
+				return pooled;
+			}
 		}
+		
+		// Initialize a new instance, with the cached constructor factory
+		BasePage ret = (BasePage) BasePageClassMap.setupAndCache(classObj).newPageInstance();
+		ret.transferParams(page);
+		return ret;
 	}
 	
 	/**
@@ -368,29 +436,117 @@ public class BasePageClassMap {
 	 * @return true if route is found
 	 */
 	public boolean supportsRequestPath(String[] requestPath) {
+		// Resolve the route, without any request type filtering
+		RouteResolution route = resolveRoute(null, requestPath);
+		
 		// Quick validation for path map, or api path map
-		if (pathMap.findValidKeys(requestPath).size() > 0
-			|| apiMap.findValidKeys(requestPath).size() > 0) {
+		if (route.api != null || route.path != null) {
 			return true;
 		}
-		// Get list a reroute path
-		List<String> pathList = rerouteFieldMap.findValidKeys(requestPath);
 		
-		// Return false (if no endpoint found)
-		if (pathList == null || pathList.size() <= 0) {
-			return false;
+		// And finally check if the reroute class can support the endpoint
+		return route.fieldReroute != null && route.fieldRerouteSupported;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// route resolution caching
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Maximum number of resolved routes to cache, per BasePageClassMap */
+	public static final int ROUTE_CACHE_SIZE = 2048;
+	
+	/** Cache of resolved routes, by request type and path */
+	protected final RouteCache<RouteResolution> routeCache = new RouteCache<>(ROUTE_CACHE_SIZE);
+	
+	/**
+	 * Get the route cache key, for the given request type and path
+	 *
+	 * @param  reqType of the request (or null, for any type)
+	 * @param  requestPath to route path using
+	 *
+	 * @return route cache key
+	 */
+	protected String routeCacheKey(HttpRequestType reqType, String[] requestPath) {
+		StringBuilder key = new StringBuilder();
+		key.append((reqType == null) ? "*" : reqType.name()).append(':');
+		for (int i = 0; i < requestPath.length; ++i) {
+			if (i > 0) {
+				key.append('/');
+			}
+			key.append(requestPath[i]);
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Resolve the routing decision for a request type and path, 
+	 * and cache it for subsequent requests.
+	 *
+	 * @param  reqType of the request (or null, for any type)
+	 * @param  requestPath to route path using
+	 *
+	 * @return resolved route
+	 */
+	public RouteResolution resolveRoute(HttpRequestType reqType, String[] requestPath) {
+		// Get the cached result if possible
+		String cacheKey = routeCacheKey(reqType, requestPath);
+		RouteResolution ret = routeCache.get(cacheKey);
+		if (ret != null) {
+			return ret;
 		}
 		
-		// Get a possibly valid endpoint reroute class
-		String endpoint = pathList.get(0);
-		Field fieldObj = rerouteFieldMap.get(endpoint);
-		Class<?> routeClass = getRerouteClass(fieldObj);
+		// Resolve the route, in the order used by `handleRequest`
+		RouteResolution.Target<Method> api = resolveTarget(apiMap, apiMap.findValidKeys(requestPath));
+		RouteResolution.Target<Method> path = null;
+		if (api == null) {
+			path = resolveTarget(pathMap, pathMap.findValidKeys(requestPath, reqType));
+		}
+		RouteResolution.Target<Method> methodReroute = null;
+		RouteResolution.Target<Field> fieldReroute = null;
+		boolean fieldRerouteSupported = false;
+		if (api == null && path == null) {
+			methodReroute = resolveTarget(rerouteMethodMap, rerouteMethodMap.findValidKeys(requestPath));
+			fieldReroute = resolveTarget(rerouteFieldMap, rerouteFieldMap.findValidKeys(requestPath));
+			
+			// Check if the reroute class supports the rerouted path
+			if (fieldReroute != null) {
+				Class<?> routeClass = getRerouteClass(fieldReroute.target);
+				BasePageClassMap routeClassMap = BasePageClassMap.setupAndCache(routeClass);
+				fieldRerouteSupported = routeClassMap.supportsRequestPath(reroutePath(requestPath,
+					fieldReroute.endpoint));
+			}
+		}
 		
-		// Lets get the routeClass BasePageClassMap
-		BasePageClassMap routeClassMap = BasePageClassMap.setupAndCache(routeClass);
+		// RequestBefore / RequestAfter filters
+		ret = new RouteResolution(api, path, methodReroute, fieldReroute, fieldRerouteSupported,
+			beforeMap.findValidKeys(requestPath), afterMap.findValidKeys(requestPath));
+		
+		// Cache and return the result
+		routeCache.put(cacheKey, ret);
+		return ret;
+	}
+	
+	/**
+	 * Get the first (most exact) endpoint as a route target
+	 *
+	 * @param  endpointMap to get the target object from
+	 * @param  pathList of valid endpoints, sorted in order of precedence
+	 *
+	 * @return route target, null if no endpoint found
+	 */
+	protected <V> RouteResolution.Target<V> resolveTarget(EndpointMap<V> endpointMap,
+		List<String> pathList) {
+		// Return null (if no endpoint found)
+		if (pathList == null || pathList.size() <= 0) {
+			return null;
+		}
 		
-		// And finally check if the route class can support the endpoint
-		return routeClassMap.supportsRequestPath(reroutePath(requestPath, endpoint));
+		// Return the target associated with a valid endpoint
+		String endpoint = pathList.get(0);
+		return new RouteResolution.Target<>(endpoint, endpointMap.splitUriString(endpoint),
+			endpointMap.get(endpoint));
 	}
 	
 	///////////////////////////////////////////////////////
@@ -409,17 +565,20 @@ public class BasePageClassMap {
 	 * @param  routePath to route path using
 	 */
 	public void handleRequest(BasePage page, String[] routePath) {
+		// Get the resolved (cached) route
+		RouteResolution route = resolveRoute(page.requestType(), routePath);
+		
 		// Try to use the various routing options
-		if (request_api(page, routePath)) {
+		if (request_api(page, routePath, route)) {
 			return;
 		}
-		if (request_path(page, routePath)) {
+		if (request_path(page, routePath, route)) {
 			return;
 		}
-		if (request_methodReroute(page, routePath)) {
+		if (request_methodReroute(page, routePath, route)) {
 			return;
 		}
-		if (request_fieldReroute(page, routePath)) {
+		if (request_fieldReroute(page, routePath, route)) {
 			return;
 		}
 		
@@ -436,42 +595,49 @@ public class BasePageClassMap {
 	 * @return true if valid execution occurs
 	 */
 	protected boolean request_api(BasePage page, String[] requestPath) {
+		return request_api(page, requestPath, resolveRoute(page.requestType(), requestPath));
+	}
+	
+	/**
+	 * Attempts to route a request with a valid ApiPath if found.
+	 *
+	 * @param  page to execute from
+	 * @param  routePath to route path using
+	 * @param  route resolved for the request path
+	 *
+	 * @return true if valid execution occurs
+	 */
+	protected boolean request_api(BasePage page, String[] requestPath, RouteResolution route) {
+		// Return false (if no endpoint found)
+		if (route.api == null) {
+			return false;
+		}
+		
 		try {
-			// Get list of valid paths
-			List<String> pathList = apiMap.findValidKeys(requestPath);
-			
-			// Return false (if no endpoint found)
-			if (pathList == null || pathList.size() <= 0) {
-				return false;
-			}
-			
-			// Return the Method associated with a valid endpoint
-			String annotationPath = pathList.get(0);
-			Method toExecute = apiMap.get(annotationPath);
-			
 			// RequestBefore execution
-			executeMethodMap(beforeMap, page, requestPath);
+			executeMethodMap(beforeMap, page, requestPath, route.beforeEndpoints);
 			
 			// Execute the method
-			executeMethod(page, toExecute, apiMap.splitUriString(annotationPath), requestPath);
+			executeMethod(page, route.api, requestPath);
 			
-			// RequestAfter execution
-			executeMethodMap(afterMap, page, requestPath);
-		} catch (ApiException ae) {
-			throw ae;
-		} catch (Exception e) {
-			// Any exception will be thrown back to BasePage for handling
-			Throwable cause = e;
-			if (e.getCause() != null) {
-				cause = e.getCause();
-			}
-			
-			if (cause instanceof HaltException) {
-				HaltException he = (HaltException) cause;
-				throw he;
+			// RequestAfter execution, once the async result completes (if deferred)
+			if (page.isRequestDeferred()) {
+				page.thenDeferred((value, error) -> {
+					try {
+						if (error != null) {
+							throw DeferredRequest.asException(error);
+						}
+						executeMethodMap(afterMap, page, requestPath, route.afterEndpoints);
+					} catch (Exception e) {
+						throw apiRequestException(e);
+					}
+					return value;
+				});
+				return true;
 			}
-			
-			throw new ApiException(e);
+			executeMethodMap(afterMap, page, requestPath, route.afterEndpoints);
+		} catch (Exception e) {
+			throw apiRequestException(e);
 		}
 		
 		// Assume valid execution
@@ -479,7 +645,33 @@ public class BasePageClassMap {
 	}
 	
 	/**
-	 * Attempts to route a request with a valid ApiPath if found.
+	 * Get the exception to throw back to BasePage for handling, for an api request exception
+	 *
+	 * @param  e exception of the api request
+	 *
+	 * @return the ApiException, or HaltException to throw
+	 */
+	protected RuntimeException apiRequestException(Exception e) {
+		if (e instanceof ApiException) {
+			return (ApiException) e;
+		}
+		
+		// Any exception will be thrown back to BasePage for handling
+		Throwable cause = e;
+		if (e.getCause() != null) {
+			cause = e.getCause();
+		}
+		
+		if (cause instanceof HaltException) {
+			HaltException he = (HaltException) cause;
+			return he;
+		}
+		
+		return new ApiException(e);
+	}
+	
+	/**
+	 * Attempts to route a request with a valid RequestPath if found.
 	 *
 	 * @param  page to execute from
 	 * @param  routePath to route path using
@@ -487,33 +679,49 @@ public class BasePageClassMap {
 	 * @return true if valid execution occurs
 	 */
 	protected boolean request_path(BasePage page, String[] requestPath) {
-		// Get list of valid paths
-		List<String> pathList = pathMap.findValidKeys(requestPath, page.requestType());
-		
+		return request_path(page, requestPath, resolveRoute(page.requestType(), requestPath));
+	}
+	
+	/**
+	 * Attempts to route a request with a valid RequestPath if found.
+	 *
+	 * @param  page to execute from
+	 * @param  routePath to route path using
+	 * @param  route resolved for the request path
+	 *
+	 * @return true if valid execution occurs
+	 */
+	protected boolean request_path(BasePage page, String[] requestPath, RouteResolution route) {
 		// Return false (if no endpoint found)
-		if (pathList == null || pathList.size() <= 0) {
+		if (route.path == null) {
 			return false;
 		}
 		
-		// Return the Method associated with a valid endpoint
-		String annotationPath = pathList.get(0);
-		Method toExecute = pathMap.get(annotationPath);
-		
 		// RequestBefore execution
-		executeMethodMap(beforeMap, page, requestPath);
+		executeMethodMap(beforeMap, page, requestPath, route.beforeEndpoints);
 		
 		// Execute the method
-		executeMethod(page, toExecute, pathMap.splitUriString(annotationPath), requestPath);
+		executeMethod(page, route.path, requestPath);
 		
-		// RequestAfter execution
-		executeMethodMap(afterMap, page, requestPath);
+		// RequestAfter execution, once the async result completes (if deferred)
+		if (page.isRequestDeferred()) {
+			page.thenDeferred((value, error) -> {
+				if (error != null) {
+					throw error;
+				}
+				executeMethodMap(afterMap, page, requestPath, route.afterEndpoints);
+				return value;
+			});
+			return true;
+		}
+		executeMethodMap(afterMap, page, requestPath, route.afterEndpoints);
 		
 		// Assume valid execution
 		return true;
 	}
 	
 	/**
-	 * Attempts to route a request with a valid ApiPath if found.
+	 * Attempts to route a request with a valid field reroute if found.
 	 *
 	 * @param  page to execute from
 	 * @param  requestPath to route path using
@@ -521,16 +729,27 @@ public class BasePageClassMap {
 	 * @return true if valid execution occurs
 	 */
 	protected boolean request_fieldReroute(BasePage page, String[] requestPath) {
-		// Get list of valid paths
-		List<String> pathList = rerouteFieldMap.findValidKeys(requestPath);
-		
+		return request_fieldReroute(page, requestPath, resolveRoute(page.requestType(), requestPath));
+	}
+	
+	/**
+	 * Attempts to route a request with a valid field reroute if found.
+	 *
+	 * @param  page to execute from
+	 * @param  requestPath to route path using
+	 * @param  route resolved for the request path
+	 *
+	 * @return true if valid execution occurs
+	 */
+	protected boolean request_fieldReroute(BasePage page, String[] requestPath,
+		RouteResolution route) {
 		// Return false (if no endpoint found)
-		if (pathList == null || pathList.size() <= 0) {
+		if (route.fieldReroute == null) {
 			return false;
 		}
 		
 		// Get the valid endpoint
-		String endpoint = pathList.get(0);
+		String endpoint = route.fieldReroute.endpoint;
 		
 		// Validate reroute endpoint ends with /*
 		if (!endpoint.endsWith("/*")) {
@@ -538,39 +757,46 @@ public class BasePageClassMap {
 		}
 		
 		// Return the Field associated with a valid endpoint
-		Field rerouteField = rerouteFieldMap.get(endpoint);
+		Field rerouteField = route.fieldReroute.target;
 		
 		// Get the reroute target
 		Class<?> routeClass = getRerouteClass(rerouteField);
 		BasePageClassMap routeClassMap = BasePageClassMap.setupAndCache(routeClass);
 		
 		// To process the name parameters before it is removed
-		processNameParameters(page.requestParameterMap(), apiMap.splitUriString(endpoint),
-			requestPath);
+		route.fieldReroute.applyNameParameters(page.requestParameterMap(), requestPath);
 		
 		// Check if it supports rerouting
-		String[] reroutePathArr = reroutePath(requestPath, endpoint);
-		if (!routeClassMap.supportsRequestPath(reroutePathArr)) {
+		if (!route.fieldRerouteSupported) {
 			return false;
 		}
+		String[] reroutePathArr = reroutePath(requestPath, endpoint);
 		
 		// RequestBefore execution
-		executeMethodMap(beforeMap, page, requestPath);
+		executeMethodMap(beforeMap, page, requestPath, route.beforeEndpoints);
 		
 		// Execute the reroute, with the routing class
 		// @TODO: handle name parameters in routePath (e.g. :user)
 		BasePage routeClassObj = setupRerouteClassInstance(routeClass, page, rerouteField);
-		routeClassMap.handleRequest(routeClassObj, reroutePathArr);
-		
-		// RequestAfter execution
-		executeMethodMap(afterMap, routeClassObj, requestPath);
+		try {
+			routeClassMap.handleRequest(routeClassObj, reroutePathArr);
+			
+			// RequestAfter execution
+			executeMethodMap(afterMap, routeClassObj, requestPath, route.afterEndpoints);
+		} finally {
+			// Recycle the reroute instance (if applicable)
+			PagePool pool = PagePool.forClass(routeClass);
+			if (pool != null) {
+				pool.recycle(routeClassObj);
+			}
+		}
 		
 		// Assume valid execution
 		return true;
 	}
 	
 	/**
-	 * Attempts to route a request with a valid ApiPath if found.
+	 * Attempts to route a request with a valid method reroute if found.
 	 *
 	 * @param  page to execute from
 	 * @param  requestPath to route path using
@@ -578,16 +804,27 @@ public class BasePageClassMap {
 	 * @return true if valid execution occurs
 	 */
 	protected boolean request_methodReroute(BasePage page, String[] requestPath) {
-		// Get list of valid paths
-		List<String> pathList = rerouteMethodMap.findValidKeys(requestPath);
-		
+		return request_methodReroute(page, requestPath, resolveRoute(page.requestType(), requestPath));
+	}
+	
+	/**
+	 * Attempts to route a request with a valid method reroute if found.
+	 *
+	 * @param  page to execute from
+	 * @param  requestPath to route path using
+	 * @param  route resolved for the request path
+	 *
+	 * @return true if valid execution occurs
+	 */
+	protected boolean request_methodReroute(BasePage page, String[] requestPath,
+		RouteResolution route) {
 		// Return false (if no endpoint found)
-		if (pathList == null || pathList.size() <= 0) {
+		if (route.methodReroute == null) {
 			return false;
 		}
 		
 		// Get the valid endpoint
-		String endpoint = pathList.get(0);
+		String endpoint = route.methodReroute.endpoint;
 		
 		// Validate reroute endpoint ends with /*
 		if (!endpoint.endsWith("/*")) {
@@ -595,13 +832,13 @@ public class BasePageClassMap {
 		}
 		
 		// Return the method associated with a valid endpoint
-		Method rerouteMethod = rerouteMethodMap.get(endpoint);
+		Method rerouteMethod = route.methodReroute.target;
 		if (rerouteMethod == null) {
 			return false;
 		}
 		
 		// RequestBefore execution
-		executeMethodMap(beforeMap, page, requestPath);
+		executeMethodMap(beforeMap, page, requestPath, route.beforeEndpoints);
 		
 		//
 		// I should instead, execute the method, get its expected object
@@ -638,7 +875,7 @@ public class BasePageClassMap {
 				nextPage.transferParams(page);
 				routeClassMap.handleRequest(nextPage, reroutePathArr);
 				
-				executeMethodMap(afterMap, page, requestPath);
+				executeMethodMap(afterMap, page, requestPath, route.afterEndpoints);
 				
 			} else {
 				page.handleMissingRouteFailure();
@@ -685,9 +922,19 @@ public class BasePageClassMap {
 	 * @param  routePath to route path using
 	 */
 	protected void executeMethodMap(EndpointMap<Method> methodMap, BasePage page, String[] routePath) {
-		// Get list of valid paths
-		List<String> pathList = methodMap.findValidKeys(routePath);
-		
+		executeMethodMap(methodMap, page, routePath, methodMap.findValidKeys(routePath));
+	}
+	
+	/**
+	 * Execute the request methods for the given list of (previously resolved) endpoints
+	 *
+	 * @param  methodMap to execute from
+	 * @param  page to execute from
+	 * @param  routePath to route path using
+	 * @param  pathList of valid endpoints, in order of execution
+	 */
+	protected void executeMethodMap(EndpointMap<Method> methodMap, BasePage page,
+		String[] routePath, List<String> pathList) {
 		// and execute all its relevent method
 		for (String annotationPath : pathList) {
 			Method toExecute = methodMap.get(annotationPath);
@@ -695,6 +942,20 @@ public class BasePageClassMap {
 		}
 	}
 	
+	/**
+	 * @param  annotationPath of the endpoint
+	 *
+	 * @return true, if the annotationPath has any name parameters (that contains ":")
+	 */
+	protected static boolean hasNameParameters(String[] annotationPath) {
+		for (String subpath : annotationPath) {
+			if (subpath.startsWith(":")) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * From the annotationPath, extract any name parameters that contains ":" and grab the exact value from
 	 * requestPath and put them into the paramMap with parameter as key and the requestPath's value as value
@@ -725,6 +986,7 @@ public class BasePageClassMap {
 	 * File - binary file output
 	 * byte[] - binary output
 	 * void - does nothing
+	 * CompletionStage (eg. CompletableFuture) - any of the above, once completed (see below)
 	 *
 	 * Similarly, it passes in the following values, according to the parameter type
 	 *
@@ -746,54 +1008,67 @@ public class BasePageClassMap {
 	 * }
 	 * ```
 	 *
+	 * For the ApiPath / RequestPath endpoint method, a CompletionStage result defers
+	 * the rest of the request (RequestAfter filters, output, and teardown) until it completes,
+	 * releasing the request thread in the meantime (see `BasePage.deferRequest`).
+	 * For RequestBefore / RequestAfter filters (or if the request cannot be deferred),
+	 * the result is waited on instead, up to `BasePage.asyncResponseTimeout`.
+	 * Either way, a result which takes longer fails the request with a 503 error.
+	 *
 	 * @param  page to execute from
 	 * @param  toExecute method to execute
 	 */
 	protected void executeMethod(BasePage page, Method toExecute, String[] annotationPath,
 		String[] requestPath) {
+		// Process name parameters in annotationPath (if any), the request parameter map is
+		// otherwise left untouched, so that the request body can still be read as a stream
+		if (hasNameParameters(annotationPath)) {
+			processNameParameters(page.requestParameterMap(), annotationPath, requestPath);
+		}
 		
-		// Using the list of parameters that the method requires, detect the appropriate
-		// variables to pass to the method
-		Class<?>[] parameterTypes = toExecute.getParameterTypes();
-		List<Object> arguments = new ArrayList<>();
+		// Execute the method
+		executeResolvedMethod(page, toExecute, false);
+	}
+	
+	/**
+	 * Execute the given resolved route target, see `executeMethod` for the
+	 * supported parameter and return types.
+	 *
+	 * @param  page to execute from
+	 * @param  target route target to execute
+	 * @param  requestPath to extract the name parameters from
+	 */
+	protected void executeMethod(BasePage page, RouteResolution.Target<Method> target,
+		String[] requestPath) {
+		// Process name parameters (if any), with the precomputed positions
+		if (target.hasNameParameters()) {
+			target.applyNameParameters(page.requestParameterMap(), requestPath);
+		}
 		
-		// Process name parameters in annotationPath
-		processNameParameters(page.requestParameterMap(), annotationPath, requestPath);
+		// Execute the method (as the endpoint, which can be deferred)
+		executeResolvedMethod(page, target.target, true);
+	}
+	
+	/**
+	 * Execute the given method, after its name parameters has been processed.
+	 * See `executeMethod` for the supported parameter and return types.
+	 *
+	 * @param  page to execute from
+	 * @param  toExecute method to execute
+	 * @param  allowDeferred if an async result can defer the rest of the request
+	 */
+	protected void executeResolvedMethod(BasePage page, Method toExecute, boolean allowDeferred) {
+		// Get the precomputed invoker of the method
+		MethodInvoker invoker = methodInvoker(toExecute);
 		
 		//
 		// Input handling
 		//
 		
+		Object[] arguments = null;
 		try {
-			for (Class<?> type : parameterTypes) {
-				// How isAssignableFrom works:
-				// Map.class.isAssignableFrom(ServletRequestMap) translate to
-				// Map<String, Object> map = new ServletRequestMap(page.getHttpServletRequest());
-				// Map is the parent class and ServletRequestMap is the child class
-				
-				if (PrintWriter.class.isAssignableFrom(type)) {
-					arguments.add(page.getPrintWriter());
-					
-				} else if (ServletRequestMap.class.isAssignableFrom(type)) {
-					arguments.add(page.requestParameterMap());
-					
-				} else if (ApiResponseMap.class.isAssignableFrom(type)) {
-					arguments.add(page.getApiResponseMap());
-					
-				} else if (Map.class.isAssignableFrom(type)) {
-					arguments.add(page.requestParameterMap());
-					
-				} else if (HttpServletRequest.class.isAssignableFrom(type)) {
-					arguments.add(page.getHttpServletRequest());
-					
-				} else if (StringBuilder.class.isAssignableFrom(type)) {
-					arguments.add(page.getResponseStringBuilder());
-					
-				} else {
-					throw new RuntimeException("Unsupported type in method " + toExecute.getName()
-						+ " for parameter type " + type.getSimpleName());
-				}
-			}
+			invoker.validateParameters();
+			arguments = invoker.resolveArguments(page);
 		} catch (RuntimeException e) {
 			ApiException ae = new ApiException(e);
 			page.handleApiException(ae);
@@ -803,25 +1078,7 @@ public class BasePageClassMap {
 		//
 		// Page type safety handling
 		//
-		Class<?> pageClass = toExecute.getDeclaringClass();
-		if (!pageClass.isInstance(page)) {
-			/*
-			// Get the original page
-			BasePage oriPage = page;
-
-			// Initialize the replacement page
-			// @TODO - to potentially cache this instance
-			try {
-				Constructor<?> constructor = pageClass.getConstructor();
-				page = (BasePage)(constructor.newInstance());
-			} catch(Exception e) {
-				throw new RuntimeException(e);
-			}
-
-			// Perform the transfer of params
-			page.transferParams(oriPage);
-			 */
-			
+		if (!invoker.declaringClass.isInstance(page)) {
 			// @TODO - resolve doAfter issue for multiple nested classes
 			return;
 		}
@@ -833,40 +1090,117 @@ public class BasePageClassMap {
 		Object executionResponse = null;
 		try {
 			// Invoke the method
-			executionResponse = toExecute.invoke(page, arguments.toArray());
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException(e);
-		} catch (InvocationTargetException e) {
+			executionResponse = invoker.invoke(page, arguments);
+		} catch (ApiException ae) {
 			// Any exception will be thrown back to BasePage for handling
-			Throwable cause = e;
-			if (e.getCause() != null) {
-				cause = e.getCause();
-			}
-			if (cause instanceof ApiException) {
-				ApiException ae = (ApiException) cause;
-				throw ae;
-			}
+			throw ae;
+		} catch (HaltException he) {
+			// Throw the HaltException upwards
+			// Main idea is that as long as one of the methods throw a HaltException
+			// it will just stop processing
+			throw he;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+		
+		//
+		// Async result handling
+		//
+		
+		if (executionResponse instanceof CompletionStage) {
+			CompletionStage<?> stage = (CompletionStage<?>) executionResponse;
+			boolean done = (stage instanceof CompletableFuture)
+				&& ((CompletableFuture<?>) stage).isDone();
 			
-			if (cause instanceof HaltException) {
-				HaltException he = (HaltException) cause;
-				// Throw the HaltException upwards
-				// Main idea is that as long as one of the methods throw a HaltException
-				// it will just stop processing
-				throw he;
+			// Defer the output handling (and the rest of the request), until it completes
+			if (allowDeferred && !done && page.canDeferRequest()) {
+				page.deferRequest(stage, page.asyncResponseTimeout());
+				page.thenDeferred((value, error) -> {
+					if (error != null) {
+						throw executionException(error);
+					}
+					processExecutionResponse(page, Object.class, value);
+					return value;
+				});
+				return;
 			}
 			
-			throw new RuntimeException(cause);
+			// Wait for the result instead (up to the same timeout)
+			executionResponse = awaitExecutionResponse(page, stage);
+			processExecutionResponse(page, Object.class, executionResponse);
+			return;
 		}
 		
 		//
 		// Output handling
 		//
 		
-		// Get the return type
-		Class<?> returnType = toExecute.getReturnType();
-		
+		processExecutionResponse(page, invoker.returnType, executionResponse);
+	}
+	
+	/**
+	 * Wait for the async result of the method execution, up to `BasePage.asyncResponseTimeout`.
+	 * If it takes longer, a 503 error is sent (as per a deferred request timeout),
+	 * and the request is halted.
+	 *
+	 * @param  page to execute from
+	 * @param  stage of the async result
+	 *
+	 * @return the async result value
+	 */
+	protected Object awaitExecutionResponse(BasePage page, CompletionStage<?> stage) {
+		long timeout = page.asyncResponseTimeout();
+		try {
+			if (timeout > 0) {
+				return stage.toCompletableFuture().get(timeout, TimeUnit.MILLISECONDS);
+			}
+			return stage.toCompletableFuture().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw executionException(e.getCause());
+		} catch (TimeoutException e) {
+			HttpServletResponse response = page.getHttpServletResponse();
+			if (!response.isCommitted()) {
+				try {
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				} catch (IOException | IllegalStateException ie) {
+					// Response is no longer usable, nothing else can be done
+				}
+			}
+			throw new HaltException("Async result timed out after " + timeout + "ms");
+		}
+	}
+	
+	/**
+	 * Get the exception to throw, for an error of the method execution (or its async result)
+	 *
+	 * @param  error of the execution
+	 *
+	 * @return the error as it is if its a RuntimeException (eg. ApiException / HaltException),
+	 *         else wrapped as one
+	 */
+	protected RuntimeException executionException(Throwable error) {
+		error = DeferredRequest.unwrap(error);
+		if (error instanceof RuntimeException) {
+			return (RuntimeException) error;
+		}
+		return new RuntimeException(error);
+	}
+	
+	/**
+	 * Does the relevent output processing based on the execution response type,
+	 * see `executeMethod` for the supported types.
+	 *
+	 * @param  page to execute from
+	 * @param  returnType of the executed method
+	 * @param  executionResponse of the executed method
+	 */
+	protected void processExecutionResponse(BasePage page, Class<?> returnType,
+		Object executionResponse) {
 		// Does File based processing
-		if (returnType == File.class) {
+		if (returnType == File.class || executionResponse instanceof File) {
 			if (executionResponse != null) {
 				// This will handle multipart handling
 				page.sendFile((File) executionResponse);
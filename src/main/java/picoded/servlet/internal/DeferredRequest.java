@@ -0,0 +1,207 @@
+package picoded.servlet.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Internal utility class, used to defer the rest of a request (RequestAfter filters, output,
+ * and teardown) until the async result (CompletionStage) of its endpoint completes.
+ * With the request thread released back to the container in the meantime (via its async context).
+ *
+ * Each request processing layer appends its remaining work as a step, with `then(step)`
+ * for steps which writes to the response, or `thenAlways(step)` for steps which must always run
+ * (eg. teardown, and recycling). Steps are executed in order, on the thread which completes
+ * the result (or the current thread, if it has already completed). Errors (including from
+ * the result itself) are passed along to the following steps, until a step handles it.
+ *
+ * Once all the steps are done, the async context is completed, see `finish()`.
+ * If the async context times out first, a 503 error is sent instead (see AsyncRequestGuard),
+ * and any remaining `then` steps are skipped (without writing to the response).
+ * As the `then` steps are executed while holding the guard, the timeout never interleaves
+ * with a step in progress.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class DeferredRequest {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Deferred step
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Remaining request processing step, executed once the previous step completes
+	 */
+	@FunctionalInterface
+	public interface Step {
+		/**
+		 * @param  value of the async result
+		 * @param  error of the async result (or previous steps), null if there is no error
+		 *
+		 * @return  value passed to the next step
+		 *
+		 * @throws Throwable error passed to the next step
+		 */
+		Object apply(Object value, Throwable error) throws Throwable;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Guard of the request async context, shared with its timeout handling */
+	protected final AsyncRequestGuard guard;
+	
+	/** Last step of the request processing */
+	protected CompletableFuture<Object> future = new CompletableFuture<>();
+	
+	/**
+	 * Setup the deferred request, for the given async result
+	 *
+	 * @param  guard of the request async context
+	 * @param  stage of the async result
+	 */
+	public DeferredRequest(AsyncRequestGuard guard, CompletionStage<?> stage) {
+		this.guard = guard;
+		
+		// Relay the async result (without assuming the stage supports toCompletableFuture)
+		CompletableFuture<Object> result = future;
+		stage.whenComplete((value, error) -> {
+			if (error != null) {
+				result.completeExceptionally(error);
+			} else {
+				result.complete(value);
+			}
+		});
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Step handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Append a step which writes to the response, this is skipped once the request
+	 * is finished (eg. timed out)
+	 *
+	 * @param  step to append
+	 */
+	public synchronized void then(Step step) {
+		future = future.handle((value, error) -> {
+			synchronized (guard) {
+				// Skip the step, once the request has timed out
+				if (guard.isFinished()) {
+					if (error != null) {
+						throw wrap(error);
+					}
+					return value;
+				}
+				return applyStep(step, value, error);
+			}
+		});
+	}
+	
+	/**
+	 * Append a step which must always run, even if the request is finished (eg. timed out).
+	 * Such steps should not write to the response.
+	 *
+	 * @param  step to append
+	 */
+	public synchronized void thenAlways(Step step) {
+		future = future.handle((value, error) -> applyStep(step, value, error));
+	}
+	
+	/**
+	 * Apply the step, with the error unwrapped
+	 *
+	 * @param  step to apply
+	 * @param  value of the previous step
+	 * @param  error of the previous step
+	 *
+	 * @return value of the step
+	 */
+	private static Object applyStep(Step step, Object value, Throwable error) {
+		try {
+			return step.apply(value, unwrap(error));
+		} catch (Throwable e) {
+			throw wrap(e);
+		}
+	}
+	
+	/**
+	 * Complete the async context once all the (currently appended) steps are done.
+	 * Any remaining error is logged, and sent as a 500 error (if the response is not yet committed).
+	 */
+	public synchronized void finish() {
+		future.whenComplete((value, error) -> {
+			synchronized (guard) {
+				if (guard.isFinished()) {
+					return;
+				}
+				if (error != null) {
+					guard.asyncContext.getRequest().getServletContext().log(
+						"Deferred request failed", unwrap(error));
+					guard.complete(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				} else {
+					guard.complete(0);
+				}
+			}
+		});
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Error utilities
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Unwrap the async (CompletionException / ExecutionException) wrappers of an error
+	 *
+	 * @param  error to unwrap (can be null)
+	 *
+	 * @return  the actual error
+	 */
+	public static Throwable unwrap(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof ExecutionException)
+			&& error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error;
+	}
+	
+	/**
+	 * Get the error as an exception to rethrow, errors (eg. OutOfMemoryError) are thrown as it is.
+	 *
+	 * @param  error to rethrow
+	 *
+	 * @return  the error as an exception
+	 */
+	public static Exception asException(Throwable error) {
+		if (error instanceof Error) {
+			throw (Error) error;
+		}
+		if (error instanceof Exception) {
+			return (Exception) error;
+		}
+		return new RuntimeException(error);
+	}
+	
+	/**
+	 * @param  error to pass to the next step
+	 *
+	 * @return  completion exception wrapping the error
+	 */
+	private static CompletionException wrap(Throwable error) {
+		return (error instanceof CompletionException) ? (CompletionException) error
+			: new CompletionException(error);
+	}
+}
@@ -67,6 +67,179 @@ public class EndpointMap<V> extends ConcurrentHashMap<String, V> {
 		return res;
 	}
 	
+	///////////////////////////////////////////////////////
+	//
+	// Compiled endpoint trie handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Compiled endpoint trie, null if it needs to be (re)compiled */
+	protected volatile EndpointTrie _endpointTrie = null;
+	
+	/** Lock used for compiling and invalidating the endpoint trie */
+	protected final Object _endpointTrieLock = new Object();
+	
+	/**
+	 * Get the compiled endpoint trie, compiling it if needed.
+	 *
+	 * This is compiled once after the endpoints are registered,
+	 * and is invalidated on any subsequent changes to the registered endpoints.
+	 *
+	 * @return  compiled endpoint trie
+	 */
+	public EndpointTrie endpointTrie() {
+		// Return the compiled trie if possible, without locking
+		EndpointTrie ret = _endpointTrie;
+		if (ret != null) {
+			return ret;
+		}
+		
+		// Compile the trie (if it was not done by another thread)
+		synchronized (_endpointTrieLock) {
+			if (_endpointTrie == null) {
+				_endpointTrie = new EndpointTrie(this);
+			}
+			return _endpointTrie;
+		}
+	}
+	
+	/**
+	 * Invalidate the compiled endpoint trie, called on endpoint changes.
+	 */
+	protected void invalidateEndpointTrie() {
+		synchronized (_endpointTrieLock) {
+			_endpointTrie = null;
+		}
+	}
+	
+	@Override
+	public V put(String key, V value) {
+		V ret = super.put(key, value);
+		_requestTypeMask.remove(key);
+		invalidateEndpointTrie();
+		return ret;
+	}
+	
+	@Override
+	public V putIfAbsent(String key, V value) {
+		V ret = super.putIfAbsent(key, value);
+		invalidateEndpointTrie();
+		return ret;
+	}
+	
+	@Override
+	public void putAll(Map<? extends String, ? extends V> m) {
+		super.putAll(m);
+		for (String key : m.keySet()) {
+			_requestTypeMask.remove(key);
+		}
+		invalidateEndpointTrie();
+	}
+	
+	@Override
+	public V remove(Object key) {
+		V ret = super.remove(key);
+		_requestTypeMask.remove(key);
+		invalidateEndpointTrie();
+		return ret;
+	}
+	
+	@Override
+	public void clear() {
+		super.clear();
+		_requestTypeMask.clear();
+		invalidateEndpointTrie();
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Request type mask handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Request type mask, used for endpoints without any `@RequestType` (all types allowed) */
+	public static final long ALL_REQUEST_TYPES = -1L;
+	
+	/** Memoizer for requestTypeMask */
+	protected ConcurrentHashMap<String, Long> _requestTypeMask = new ConcurrentHashMap<>();
+	
+	/**
+	 * Get the request type bit, used to test against an endpoint request type mask
+	 *
+	 * @param  requestType of the request (or null, for any type)
+	 *
+	 * @return  request type bit, or ALL_REQUEST_TYPES if requestType is null
+	 */
+	public static long requestTypeBit(HttpRequestType requestType) {
+		if (requestType == null) {
+			return ALL_REQUEST_TYPES;
+		}
+		return 1L << requestType.ordinal();
+	}
+	
+	/**
+	 * Get the request type mask of a registered endpoint, from its `@RequestType` annotations.
+	 *
+	 * This is computed once when the endpoint is registered, so that the annotations
+	 * does not need to be read again on each request.
+	 *
+	 * @param  endpointName of the registered endpoint
+	 *
+	 * @return  request type mask, ALL_REQUEST_TYPES if it does not specify any RequestType
+	 */
+	public long requestTypeMask(String endpointName) {
+		// Get and return the cached result
+		Long res = _requestTypeMask.get(endpointName);
+		if (res != null) {
+			return res;
+		}
+		
+		// Compute the mask, and cache the result
+		long mask = computeRequestTypeMask(this.get(endpointName));
+		_requestTypeMask.put(endpointName, mask);
+		
+		// And return it
+		return mask;
+	}
+	
+	/**
+	 * With the endpoint object, it checks whether does the endpoint is a Method class,
+	 * followed by grabbing the endpoint's RequestTypes to compute its request type mask.
+	 * 
+	 * By default, the endpoint allows all request types if it does not specify the RequestType
+	 * 
+	 * @param endpoint The method to be checked
+	 * 
+	 * @return request type mask of the endpoint
+	 */
+	protected static long computeRequestTypeMask(Object endpoint) {
+		// If the endpoint is not a method, treats as valid
+		if (!(endpoint instanceof Method)) {
+			return ALL_REQUEST_TYPES;
+		}
+		
+		// Check through the RequestType annotation of the endpoint. 
+		// If the endpoint does not have any RequestType set, treat as allowed
+		Method endpointImplementation = (Method) endpoint;
+		RequestType[] endpointRequestTypes = endpointImplementation
+			.getAnnotationsByType(RequestType.class);
+		if (endpointRequestTypes == null || endpointRequestTypes.length == 0) {
+			return ALL_REQUEST_TYPES;
+		}
+		
+		// Set the bit of each request type contained in it
+		long mask = 0L;
+		for (RequestType endpointRequestType : endpointRequestTypes) {
+			String[] types = endpointRequestType.value();
+			for (HttpRequestType requestType : HttpRequestType.values()) {
+				if (ArrayConv.containsIgnoreCase(types, requestType.toString())) {
+					mask |= requestTypeBit(requestType);
+				}
+			}
+		}
+		return mask;
+	}
+	
 	///////////////////////////////////////////////////////
 	//
 	// Path handling / lookup
@@ -83,6 +256,9 @@ public class EndpointMap<V> extends ConcurrentHashMap<String, V> {
 		// And register the endpoint & cache its split path
 		splitUriString(path);
 		this.put(path, obj);
+		
+		// Precompute its request type mask
+		requestTypeMask(path);
 	}
 	
 	/**
@@ -310,83 +486,18 @@ public class EndpointMap<V> extends ConcurrentHashMap<String, V> {
 	 * Given an endpoint path, search and find all relevent
 	 * endpoint paths and return its list of relevent "keys"
 	 * 
-	 * @TODO : annotatation type varient (when needed)
+	 * This uses the compiled `endpointTrie()`, and does not
+	 * need to iterate and sort all the registered keys.
 	 *
 	 * @param  requestPathArr of the method endpoint
+	 * @param  reqType of the request, to filter by `@RequestType` (if not null)
 	 * 
-	 * @return  list for valid keys found, null if no keys found
+	 * @return  list for valid keys found, empty list if no keys found
 	 */
 	public List<String> findValidKeys(String[] requestPathArr, HttpRequestType reqType) {
-		// Return list of results
-		List<String> ret = new ArrayList<>();
-		
-		// Lets iterate each key and array
-		for (String endpoint : this.keySet()) {
-			// Get the key array from the cache
-			String[] endpointPathArr = splitUriString(endpoint);
-			// Find the valid endpoints
-			if (isValidEndpoint(endpointPathArr, requestPathArr)
-				&& validateRequestType(endpoint, reqType)) {
-				ret.add(endpoint);
-			}
-		}
-		
-		// no valid key found check, skip and return empty list
-		if (ret.size() <= 0) {
-			return ret;
-		}
-		
-		// Sort the result
-		sortEndpointList(ret);
-		
-		// Return found result
-		return ret;
-	}
-	
-	/**
-	 * With the requestType of the request, it checks whether does the endpoint is a Method class,
-	 * followed by grabbing the endpoint's RequestTypes to check that the requestType is defined in it.
-	 * 
-	 * By default, the function will pass it as true if the endpoint does not specify the RequestType
-	 * 
-	 * @param endpointName The method to be checked
-	 * @param requestType  The method of the request (POST/GET/DELETE/etc)
-	 * 
-	 * @return true if it is allowed to execute, false otherwise
-	 * 
-	 */
-	private boolean validateRequestType(String endpointName, HttpRequestType requestType) {
-		
-		// No specific method is give, treat as allowed
-		if (requestType == null) {
-			return true;
-		}
-		
-		// If the endpoint is not a method, treats as valid
-		Object endpoint = this.get(endpointName);
-		if (!(endpoint instanceof Method)) {
-			return true;
-		}
-		
-		// Check through the RequestType annotation of the endpoint and validates if the requestType
-		// is contained in it. If the endpoint does not have any RequestType set, treat as allowed
-		Method endpointImplementation = (Method) endpoint;
-		RequestType[] endpointRequestTypes = endpointImplementation
-			.getAnnotationsByType(RequestType.class);
-		if (endpointRequestTypes == null || endpointRequestTypes.length == 0) {
-			return true;
-		}
-		
-		for (RequestType endpointRequestType : endpointRequestTypes) {
-			String[] types = endpointRequestType.value();
-			if (ArrayConv.containsIgnoreCase(types, requestType.toString())) {
-				return true;
-			}
-		}
-		
-		// At this point, the method of the request does not match any of the endpoint's RequestType
-		// treat as false
-		return false;
+		// Get the valid keys from the compiled trie, which is already
+		// in the same order as `sortEndpointList`, filtered by the request type mask
+		return endpointTrie().findValidKeys(requestPathArr, requestTypeBit(reqType));
 	}
 	
 	/**
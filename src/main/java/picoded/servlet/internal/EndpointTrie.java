@@ -0,0 +1,283 @@
+package picoded.servlet.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Internal utility class, used by EndpointMap to precompile its registered
+ * endpoint paths into a segment trie, for request path lookups.
+ *
+ * Each trie node represents a single path segment, which may have
+ *
+ * + literal children (matched case insensitively)
+ * + a single ":param" child (shared by all param names)
+ * + a single "*" wildcard child (which trailing wildcard endpoints terminates on)
+ *
+ * Lookups walk the trie children in the order of literal, ":param", then "*".
+ * Which is the same precedence order as `EndpointMap.sortEndpointList`,
+ * so the list of matched endpoints does not need to be sorted per request.
+ *
+ * Each endpoint also stores its `@RequestType` bitmask (see `EndpointMap.requestTypeMask`),
+ * with each node storing the combined mask of its subtree. So that lookups filtered by
+ * request type skip any endpoints (or subtrees) which does not support it.
+ *
+ * For example with the request path "job/testrunset/list", the trie walk returns
+ *
+ * ```
+ * job/testrunset/list
+ * job/testrunset/*
+ * job/:jobId/*
+ * job/*
+ * :projectId/testrunset/list
+ * ```
+ *
+ * Note that the trie is not modified after its construction, and is designed
+ * for concurrent access by multiple threads.
+ **/
+public class EndpointTrie {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Trie node
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Empty endpoint array, used by nodes without any endpoint terminating on it */
+	protected static final String[] NO_ENDPOINTS = new String[0];
+	
+	/** Empty request type mask array, used together with NO_ENDPOINTS */
+	protected static final long[] NO_MASKS = new long[0];
+	
+	/**
+	 * Trie node, representing a single path segment
+	 */
+	protected static class Node {
+		/** Literal segment children, matched case insensitively */
+		protected Map<String, Node> literalChildren = null;
+		
+		/** ":param" segment child */
+		protected Node paramChild = null;
+		
+		/** "*" wildcard segment child */
+		protected Node wildcardChild = null;
+		
+		/** Endpoints terminating on this node, sorted in order of precedence */
+		protected String[] endpoints = NO_ENDPOINTS;
+		
+		/** Request type mask of each endpoint, in the same order as endpoints */
+		protected long[] endpointMasks = NO_MASKS;
+		
+		/** Combined request type mask of all endpoints in this node subtree */
+		protected long subtreeMask = 0L;
+		
+		/** Endpoint list used only during trie construction */
+		protected List<String> endpointList = null;
+	}
+	
+	/** Root node of the trie */
+	protected final Node root = new Node();
+	
+	///////////////////////////////////////////////////////
+	//
+	// Consturctor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Compile the trie from the registered endpoints of an EndpointMap
+	 *
+	 * @param  endpointMap to compile from
+	 */
+	public EndpointTrie(EndpointMap<?> endpointMap) {
+		// Insert every registered endpoint
+		for (String endpoint : endpointMap.keySet()) {
+			insertEndpoint(endpoint, endpointMap.splitUriString(endpoint));
+		}
+		
+		// Sort the endpoints terminating on each node, and finalize them as arrays
+		finalizeNode(root, endpointMap);
+	}
+	
+	/**
+	 * Insert an endpoint into the trie, segment by segment
+	 *
+	 * @param  endpoint path, as registered in the EndpointMap
+	 * @param  endpointPathArr split endpoint path
+	 */
+	protected void insertEndpoint(String endpoint, String[] endpointPathArr) {
+		Node node = root;
+		for (String part : endpointPathArr) {
+			if (part.equals("*")) {
+				if (node.wildcardChild == null) {
+					node.wildcardChild = new Node();
+				}
+				node = node.wildcardChild;
+			} else if (part.startsWith(":")) {
+				if (node.paramChild == null) {
+					node.paramChild = new Node();
+				}
+				node = node.paramChild;
+			} else {
+				if (node.literalChildren == null) {
+					node.literalChildren = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+				}
+				Node child = node.literalChildren.get(part);
+				if (child == null) {
+					child = new Node();
+					node.literalChildren.put(part, child);
+				}
+				node = child;
+			}
+		}
+		
+		// Register the endpoint on the final node
+		if (node.endpointList == null) {
+			node.endpointList = new ArrayList<>();
+		}
+		node.endpointList.add(endpoint);
+	}
+	
+	/**
+	 * Recursively sort the endpoints of each node, and convert them into arrays.
+	 * Along with their request type masks, and the combined subtree mask.
+	 *
+	 * Endpoints terminating on the same node share the same segment types and length,
+	 * so sorting them with `sortEndpointList` only applies its raw string comparision.
+	 *
+	 * @param  node to finalize
+	 * @param  endpointMap used for sorting, and the request type masks
+	 *
+	 * @return  subtree request type mask of the node
+	 */
+	protected long finalizeNode(Node node, EndpointMap<?> endpointMap) {
+		long mask = 0L;
+		if (node.endpointList != null) {
+			endpointMap.sortEndpointList(node.endpointList);
+			node.endpoints = node.endpointList.toArray(new String[node.endpointList.size()]);
+			node.endpointMasks = new long[node.endpoints.length];
+			for (int i = 0; i < node.endpoints.length; ++i) {
+				node.endpointMasks[i] = endpointMap.requestTypeMask(node.endpoints[i]);
+				mask |= node.endpointMasks[i];
+			}
+			node.endpointList = null;
+		}
+		if (node.literalChildren != null) {
+			for (Node child : node.literalChildren.values()) {
+				mask |= finalizeNode(child, endpointMap);
+			}
+		}
+		if (node.paramChild != null) {
+			mask |= finalizeNode(node.paramChild, endpointMap);
+		}
+		if (node.wildcardChild != null) {
+			mask |= finalizeNode(node.wildcardChild, endpointMap);
+		}
+		node.subtreeMask = mask;
+		return mask;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Path lookup
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Given a request path, find all relevent endpoint paths,
+	 * in the same order as `EndpointMap.sortEndpointList`
+	 *
+	 * @param  requestPathArr of the request
+	 *
+	 * @return  list of valid endpoints found, empty list if none is found
+	 */
+	public List<String> findValidKeys(String[] requestPathArr) {
+		return findValidKeys(requestPathArr, EndpointMap.ALL_REQUEST_TYPES);
+	}
+	
+	/**
+	 * Given a request path, find all relevent endpoint paths which supports
+	 * the given request type mask, in the same order as `EndpointMap.sortEndpointList`
+	 *
+	 * @param  requestPathArr of the request
+	 * @param  typeMask of the request, see `EndpointMap.requestTypeBit`
+	 *
+	 * @return  list of valid endpoints found, empty list if none is found
+	 */
+	public List<String> findValidKeys(String[] requestPathArr, long typeMask) {
+		List<String> ret = new ArrayList<>();
+		collectValidKeys(root, requestPathArr, 0, typeMask, ret);
+		return ret;
+	}
+	
+	/**
+	 * Walk the trie recursively, collecting the valid endpoints in order of precedence.
+	 *
+	 * Literal children are visited first, followed by the ":param" child, and finally
+	 * the "*" wildcard child. Longer endpoints (deeper in the trie) are collected before
+	 * the trailing wildcard endpoints terminating on the "*" node itself.
+	 *
+	 * @param  node currently being visited
+	 * @param  requestPathArr of the request
+	 * @param  depth of the current node, which is also the request segment index to match
+	 * @param  typeMask of the request, to filter the endpoints with
+	 * @param  ret list to collect the endpoints into
+	 */
+	protected void collectValidKeys(Node node, String[] requestPathArr, int depth, long typeMask,
+		List<String> ret) {
+		// Skip the subtree, if none of its endpoints supports the request type
+		if ((node.subtreeMask & typeMask) == 0L) {
+			return;
+		}
+		
+		// Request path has been fully matched, endpoints terminating here are valid
+		if (depth >= requestPathArr.length) {
+			addEndpoints(node, typeMask, ret);
+			return;
+		}
+		
+		// Exact segment match
+		if (node.literalChildren != null) {
+			Node child = node.literalChildren.get(requestPathArr[depth]);
+			if (child != null) {
+				collectValidKeys(child, requestPathArr, depth + 1, typeMask, ret);
+			}
+		}
+		
+		// Variable segment match
+		if (node.paramChild != null) {
+			collectValidKeys(node.paramChild, requestPathArr, depth + 1, typeMask, ret);
+		}
+		
+		// Wildcard segment match
+		if (node.wildcardChild != null) {
+			Node wildcard = node.wildcardChild;
+			collectValidKeys(wildcard, requestPathArr, depth + 1, typeMask, ret);
+			
+			// Trailing wildcard, matching the remaining request segments
+			// (the exact segment count case, is handled by the call above)
+			if (depth + 1 < requestPathArr.length) {
+				addEndpoints(wildcard, typeMask, ret);
+			}
+		}
+	}
+	
+	/**
+	 * Add the endpoints terminating on the node into the result list,
+	 * which supports the given request type mask
+	 *
+	 * @param  node to add the endpoints from
+	 * @param  typeMask of the request, to filter the endpoints with
+	 * @param  ret list to add into
+	 */
+	protected void addEndpoints(Node node, long typeMask, List<String> ret) {
+		String[] endpoints = node.endpoints;
+		long[] masks = node.endpointMasks;
+		for (int i = 0; i < endpoints.length; ++i) {
+			if ((masks[i] & typeMask) != 0L) {
+				ret.add(endpoints[i]);
+			}
+		}
+	}
+}
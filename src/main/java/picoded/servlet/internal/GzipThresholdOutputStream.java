@@ -0,0 +1,144 @@
+package picoded.servlet.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Response output stream wrapper, which gzip compress the output only once it exceeds
+ * the minimum size. So that small responses are sent as it is, without the gzip overhead.
+ *
+ * Output below the minimum size is buffered (and flush calls are deferred), until either
+ *
+ * + the minimum size is exceeded : the "Content-Encoding: gzip" header is set, and the
+ *   output is streamed through gzip from then on (with flush support)
+ * + `finish()` is called : the buffered output is written out as it is
+ *
+ * Note that `finish()` must be called once the output is completed, and that the underlying
+ * response output stream is never closed by this class.
+ */
+public class GzipThresholdOutputStream extends OutputStream {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Response to set the headers on */
+	protected final HttpServletResponse response;
+	
+	/** Underlying response output stream */
+	protected final OutputStream output;
+	
+	/** Buffer of the output, before the minimum size is exceeded (null once decided) */
+	protected byte[] buffer;
+	
+	/** Number of bytes in the buffer */
+	protected int count = 0;
+	
+	/** Gzip output stream, once the minimum size is exceeded */
+	protected GZIPOutputStream gzip = null;
+	
+	/** Indicates if the output was finished */
+	protected boolean finished = false;
+	
+	/**
+	 * Setup the output stream wrapper
+	 *
+	 * @param  response to set the headers on
+	 * @param  output stream of the response
+	 * @param  minSize in bytes, before the output is compressed
+	 */
+	public GzipThresholdOutputStream(HttpServletResponse response, OutputStream output,
+		int minSize) {
+		this.response = response;
+		this.output = output;
+		this.buffer = new byte[Math.max(0, minSize)];
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Output stream implementation
+	//
+	///////////////////////////////////////////////////////
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (finished) {
+			throw new IOException("Output stream is already finished");
+		}
+		
+		// Already compressing
+		if (gzip != null) {
+			gzip.write(b, off, len);
+			return;
+		}
+		
+		// Buffer it, while within the minimum size
+		if (count + len <= buffer.length) {
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+			return;
+		}
+		
+		// Minimum size exceeded, switch over to gzip
+		response.setHeader("Content-Encoding", "gzip");
+		gzip = new GZIPOutputStream(output, 8192, true);
+		gzip.write(buffer, 0, count);
+		gzip.write(b, off, len);
+		buffer = null;
+		count = 0;
+	}
+	
+	/**
+	 * Flush the output, this is deferred while the output is within the minimum size
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (gzip != null) {
+			gzip.flush();
+		}
+	}
+	
+	/**
+	 * Finish the output (without closing the underlying output stream).
+	 * Writing out the buffered output as it is, or the remaining gzip output.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		
+		if (gzip != null) {
+			gzip.finish();
+			output.flush();
+		} else {
+			output.write(buffer, 0, count);
+			buffer = null;
+		}
+	}
+	
+	/**
+	 * Same as `finish()`, the underlying output stream is not closed
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+	
+	/**
+	 * @return  true, if the output is gzip compressed
+	 */
+	public boolean isCompressed() {
+		return gzip != null;
+	}
+}
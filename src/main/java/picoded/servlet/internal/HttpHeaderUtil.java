@@ -0,0 +1,421 @@
+package picoded.servlet.internal;
+
+import picoded.core.exception.ExceptionMessage;
+
+/**
+ * Allocation free HTTP request header parsing utils, used by the FileServlet
+ * for its Range, If-None-Match / If-Match, Accept-Encoding and Accept headers.
+ *
+ * These scan the header string in place (without split / regex / substring),
+ * as they are called on every static file request.
+ */
+public class HttpHeaderUtil {
+	
+	/**
+	 * Static class annotation exception
+	 */
+	HttpHeaderUtil() {
+		throw new RuntimeException(ExceptionMessage.staticClassConstructor);
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Basic scanning
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @param  c character to check
+	 *
+	 * @return  true if its an optional whitespace (space / tab)
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t';
+	}
+	
+	/**
+	 * @param  header string to scan
+	 * @param  pos to start from
+	 * @param  end of the scan (exclusive)
+	 *
+	 * @return  position of the first non whitespace character (or end)
+	 */
+	private static int skipWhitespace(String header, int pos, int end) {
+		while (pos < end && isWhitespace(header.charAt(pos))) {
+			++pos;
+		}
+		return pos;
+	}
+	
+	/**
+	 * @param  header string to scan
+	 * @param  start of the value
+	 * @param  end of the value (exclusive)
+	 *
+	 * @return  end of the value, without its trailing whitespaces
+	 */
+	private static int trimEnd(String header, int start, int end) {
+		while (end > start && isWhitespace(header.charAt(end - 1))) {
+			--end;
+		}
+		return end;
+	}
+	
+	/**
+	 * @param  header string to scan
+	 * @param  pos to start from
+	 * @param  c character to find
+	 *
+	 * @return  position of the character, or the header length if not found
+	 */
+	private static int indexOf(String header, int pos, char c) {
+		int ret = header.indexOf(c, pos);
+		return (ret < 0) ? header.length() : ret;
+	}
+	
+	/**
+	 * @param  header string to compare within
+	 * @param  start of the header value
+	 * @param  end of the header value (exclusive)
+	 * @param  value to compare with
+	 * @param  ignoreCase for the comparison
+	 *
+	 * @return  true if the header value matches exactly
+	 */
+	private static boolean valueEquals(String header, int start, int end, String value,
+		boolean ignoreCase) {
+		return (end - start) == value.length()
+			&& header.regionMatches(ignoreCase, start, value, 0, value.length());
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// ETag matching (If-None-Match / If-Match)
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Check if the ETag header (If-None-Match / If-Match) list matches
+	 * the given ETag, or is the "*" wildcard.
+	 *
+	 * @param  header value of the request
+	 * @param  eTag to match
+	 * @param  weakComparison allow weak "W/" prefixed ETags to match (used for If-None-Match)
+	 *
+	 * @return  true if there is a match
+	 */
+	public static boolean matchETag(String header, String eTag, boolean weakComparison) {
+		int len = header.length();
+		int pos = 0;
+		while (pos < len) {
+			// Get the value boundaries
+			int end = indexOf(header, pos, ',');
+			int start = skipWhitespace(header, pos, end);
+			int valueEnd = trimEnd(header, start, end);
+			pos = end + 1;
+			
+			// Wildcard
+			if (valueEnd - start == 1 && header.charAt(start) == '*') {
+				return true;
+			}
+			
+			// Weak ETags
+			if (valueEnd - start > 2 && header.startsWith("W/", start)) {
+				if (!weakComparison) {
+					continue;
+				}
+				start += 2;
+			}
+			
+			if (valueEquals(header, start, valueEnd, eTag, false)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Accept-Encoding / Accept matching
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Check if the quality value parameters (eg. ";q=0.5") of an header entry
+	 * indicates that its not acceptable (";q=0")
+	 *
+	 * @param  header string to scan
+	 * @param  pos of the parameters (after the value)
+	 * @param  end of the header entry (exclusive)
+	 *
+	 * @return  true if the quality value is zero
+	 */
+	private static boolean isZeroQuality(String header, int pos, int end) {
+		while (pos < end) {
+			// Get the parameter boundaries
+			int paramEnd = header.indexOf(';', pos + 1);
+			if (paramEnd < 0 || paramEnd > end) {
+				paramEnd = end;
+			}
+			int start = skipWhitespace(header, pos + 1, paramEnd);
+			pos = paramEnd;
+			
+			// Check for a "q=0", "q=0.0", "q=0.00" or "q=0.000" parameter
+			if (paramEnd - start >= 3 && (header.charAt(start) == 'q' || header.charAt(start) == 'Q')
+				&& header.charAt(start + 1) == '=') {
+				int valueEnd = trimEnd(header, start + 2, paramEnd);
+				for (int i = start + 2; i < valueEnd; ++i) {
+					char c = header.charAt(i);
+					if (c != '0' && c != '.') {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Check if the Accept-Encoding header accepts the given encoding
+	 * (or the "*" wildcard), without a zero quality value.
+	 *
+	 * @param  header value of the request
+	 * @param  encoding to check (eg. "gzip")
+	 *
+	 * @return  true if its accepted
+	 */
+	public static boolean acceptsEncoding(String header, String encoding) {
+		int len = header.length();
+		int pos = 0;
+		while (pos < len) {
+			// Get the entry and value boundaries
+			int end = indexOf(header, pos, ',');
+			int paramStart = header.indexOf(';', pos);
+			if (paramStart < 0 || paramStart > end) {
+				paramStart = end;
+			}
+			int start = skipWhitespace(header, pos, paramStart);
+			int valueEnd = trimEnd(header, start, paramStart);
+			pos = end + 1;
+			
+			// Match the value
+			if (valueEquals(header, start, valueEnd, encoding, true)
+				|| (valueEnd - start == 1 && header.charAt(start) == '*')) {
+				if (!isZeroQuality(header, paramStart, end)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Check if the Accept header accepts the given media type, either exactly
+	 * or by its "type/*" or "*&#47;*" wildcards, without a zero quality value.
+	 *
+	 * @param  header value of the request
+	 * @param  mediaType to check (eg. "application/pdf"), without parameters
+	 *
+	 * @return  true if its accepted
+	 */
+	public static boolean acceptsMediaType(String header, String mediaType) {
+		int slash = mediaType.indexOf('/');
+		int len = header.length();
+		int pos = 0;
+		while (pos < len) {
+			// Get the entry and value boundaries
+			int end = indexOf(header, pos, ',');
+			int paramStart = header.indexOf(';', pos);
+			if (paramStart < 0 || paramStart > end) {
+				paramStart = end;
+			}
+			int start = skipWhitespace(header, pos, paramStart);
+			int valueEnd = trimEnd(header, start, paramStart);
+			pos = end + 1;
+			
+			// Match the value, or its wildcards
+			boolean match = valueEquals(header, start, valueEnd, mediaType, true);
+			if (!match && valueEnd - start >= 3 && header.charAt(valueEnd - 1) == '*'
+				&& header.charAt(valueEnd - 2) == '/') {
+				int typeLen = valueEnd - 2 - start;
+				match = (typeLen == 1 && header.charAt(start) == '*')
+					|| (typeLen == slash && header.regionMatches(true, start, mediaType, 0, slash));
+			}
+			if (match && !isZeroQuality(header, paramStart, end)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Range parsing
+	//
+	///////////////////////////////////////////////////////
+	
+	/** parseRange result, for a syntactically invalid or unsatisfiable range header */
+	public static final int RANGE_NOT_SATISFIABLE = -1;
+	
+	/** parseRange result, for a range header which should be ignored (too many ranges) */
+	public static final int RANGE_IGNORED = 0;
+	
+	/**
+	 * Parse a "bytes=start-end,start-end,-suffix" Range header, into the given output array
+	 * of inclusive [start, end] pairs. Unsatisfiable ranges (starting beyond the content length)
+	 * are skipped, and overlapping or adjacent ranges are coalesced in ascending order.
+	 *
+	 * The output array size limits the number of ranges (before coalescing), so that
+	 * a request cannot amplify the response with a large number of (overlapping) ranges.
+	 *
+	 * @param  header value of the request
+	 * @param  length of the content
+	 * @param  out array of [start, end] pairs, of size (2 * maximum number of ranges)
+	 *
+	 * @return  number of ranges in the output array, RANGE_NOT_SATISFIABLE (416),
+	 *          or RANGE_IGNORED if there are too many ranges (full content should be sent)
+	 */
+	public static int parseRange(String header, long length, long[] out) {
+		int len = header.length();
+		int pos = skipWhitespace(header, 0, len);
+		
+		// Validate the "bytes=" unit prefix
+		if (!header.regionMatches(true, pos, "bytes", 0, 5)) {
+			return RANGE_NOT_SATISFIABLE;
+		}
+		pos = skipWhitespace(header, pos + 5, len);
+		if (pos >= len || header.charAt(pos) != '=') {
+			return RANGE_NOT_SATISFIABLE;
+		}
+		++pos;
+		
+		// Parse each range
+		int count = 0;
+		boolean hasRange = false;
+		while (pos < len) {
+			int end = indexOf(header, pos, ',');
+			int start = skipWhitespace(header, pos, end);
+			int valueEnd = trimEnd(header, start, end);
+			pos = end + 1;
+			
+			// Skip empty list elements
+			if (start >= valueEnd) {
+				continue;
+			}
+			hasRange = true;
+			
+			// Parse the "first-last" positions
+			int dash = header.indexOf('-', start);
+			if (dash < 0 || dash >= valueEnd) {
+				return RANGE_NOT_SATISFIABLE;
+			}
+			long first = parsePosition(header, start, trimEnd(header, start, dash));
+			long last = parsePosition(header, skipWhitespace(header, dash + 1, valueEnd), valueEnd);
+			if (first == -2 || last == -2 || (first == -1 && last == -1)) {
+				return RANGE_NOT_SATISFIABLE;
+			}
+			
+			// Resolve the range, against the content length
+			if (first == -1) {
+				// Suffix range, of the last N bytes
+				if (last == 0) {
+					continue;
+				}
+				first = Math.max(0, length - last);
+				last = length - 1;
+			} else {
+				if (last != -1 && last < first) {
+					return RANGE_NOT_SATISFIABLE;
+				}
+				if (last == -1 || last > length - 1) {
+					last = length - 1;
+				}
+			}
+			
+			// Skip unsatisfiable range
+			if (first >= length) {
+				continue;
+			}
+			
+			// Too many ranges, ignore the range header
+			if (count * 2 >= out.length) {
+				return RANGE_IGNORED;
+			}
+			out[count * 2] = first;
+			out[count * 2 + 1] = last;
+			++count;
+		}
+		
+		// No satisfiable range
+		if (!hasRange || count == 0) {
+			return RANGE_NOT_SATISFIABLE;
+		}
+		return coalesceRanges(out, count);
+	}
+	
+	/**
+	 * Parse a range position number
+	 *
+	 * @param  header string to parse
+	 * @param  start of the number
+	 * @param  end of the number (exclusive)
+	 *
+	 * @return  parsed number, -1 if empty, -2 if invalid (capped at Long.MAX_VALUE)
+	 */
+	private static long parsePosition(String header, int start, int end) {
+		if (start >= end) {
+			return -1;
+		}
+		long ret = 0;
+		for (int i = start; i < end; ++i) {
+			char c = header.charAt(i);
+			if (c < '0' || c > '9') {
+				return -2;
+			}
+			if (ret > (Long.MAX_VALUE - 9) / 10) {
+				ret = Long.MAX_VALUE;
+			} else {
+				ret = ret * 10 + (c - '0');
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Sort the [start, end] range pairs, and coalesce overlapping or adjacent ranges
+	 *
+	 * @param  ranges array of [start, end] pairs
+	 * @param  count of ranges
+	 *
+	 * @return  number of ranges after coalescing
+	 */
+	private static int coalesceRanges(long[] ranges, int count) {
+		// Insertion sort by start (the range count is small)
+		for (int i = 1; i < count; ++i) {
+			long start = ranges[i * 2];
+			long end = ranges[i * 2 + 1];
+			int j = i - 1;
+			while (j >= 0 && ranges[j * 2] > start) {
+				ranges[(j + 1) * 2] = ranges[j * 2];
+				ranges[(j + 1) * 2 + 1] = ranges[j * 2 + 1];
+				--j;
+			}
+			ranges[(j + 1) * 2] = start;
+			ranges[(j + 1) * 2 + 1] = end;
+		}
+		
+		// Merge overlapping / adjacent ranges
+		int ret = 0;
+		for (int i = 1; i < count; ++i) {
+			if (ranges[i * 2] <= ranges[ret * 2 + 1] + 1) {
+				ranges[ret * 2 + 1] = Math.max(ranges[ret * 2 + 1], ranges[i * 2 + 1]);
+			} else {
+				++ret;
+				ranges[ret * 2] = ranges[i * 2];
+				ranges[ret * 2 + 1] = ranges[i * 2 + 1];
+			}
+		}
+		return ret + 1;
+	}
+}
@@ -0,0 +1,192 @@
+package picoded.servlet.internal;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import picoded.core.exception.ExceptionMessage;
+
+/**
+ * Internal utility class, used to create precompiled no-arg constructor
+ * factories for page classes, used when spawning page instances.
+ *
+ * The factory is generated once per class, using (in order of preference)
+ *
+ * + LambdaMetafactory generated Supplier, which is a direct constructor call
+ * + MethodHandle to the no-arg constructor
+ * + Reflection based `Constructor.newInstance` (if the above fails, eg. due to access restrictions)
+ *
+ * So that the deprecated `Class.newInstance()` is not used for each request.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class InstanceFactory {
+	
+	/**
+	 * Static class annotation exception
+	 */
+	InstanceFactory() {
+		throw new RuntimeException(ExceptionMessage.staticClassConstructor);
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Static caching of factories by class
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Factories of each class */
+	private static final Map<Class<?>, Supplier<?>> factoryCache = new ConcurrentHashMap<>();
+	
+	/**
+	 * Get the no-arg constructor factory of the given class, and set it up if needed
+	 *
+	 * @param  classObj  class to construct
+	 *
+	 * @return  instance factory of the class
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Supplier<T> forClass(Class<T> classObj) {
+		// Get from the cache first if possible
+		Supplier<?> ret = factoryCache.get(classObj);
+		if (ret != null) {
+			return (Supplier<T>) ret;
+		}
+		
+		// Cache not found, lets recreate this
+		ret = setupFactory(classObj);
+		
+		// And store in cache, + return it
+		factoryCache.put(classObj, ret);
+		return (Supplier<T>) ret;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Factory setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Setup the no-arg constructor factory of the given class
+	 *
+	 * @param  classObj  class to construct
+	 *
+	 * @return  instance factory of the class
+	 */
+	protected static <T> Supplier<T> setupFactory(Class<T> classObj) {
+		Supplier<T> ret = lambdaFactory(classObj);
+		if (ret == null) {
+			ret = methodHandleFactory(classObj);
+		}
+		if (ret == null) {
+			ret = reflectionFactory(classObj);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Generate a Supplier which directly calls the no-arg constructor
+	 *
+	 * This is only done for classes visible to this class loader, as the generated lambda
+	 * would otherwise fail when first used (NoClassDefFoundError). Or worse, construct
+	 * another class of the same name (from this class loader) instead.
+	 *
+	 * @param  classObj  class to construct
+	 *
+	 * @return  instance factory, null if it failed
+	 */
+	@SuppressWarnings("unchecked")
+	protected static <T> Supplier<T> lambdaFactory(Class<T> classObj) {
+		if (!isVisibleClass(classObj)) {
+			return null;
+		}
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle constructor = lookup.findConstructor(classObj,
+				MethodType.methodType(void.class));
+			CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+				MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+				constructor, MethodType.methodType(classObj));
+			return (Supplier<T>) site.getTarget().invoke();
+		} catch (Throwable e) {
+			// Constructor not accessible, or other lambda generation failure
+			return null;
+		}
+	}
+	
+	/**
+	 * @param  classObj  class to check
+	 *
+	 * @return  true, if the class is the same class resolved by name from this class loader
+	 */
+	protected static boolean isVisibleClass(Class<?> classObj) {
+		try {
+			return Class.forName(classObj.getName(), false, InstanceFactory.class.getClassLoader())
+				== classObj;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Get the no-arg constructor MethodHandle, as a Supplier
+	 *
+	 * @param  classObj  class to construct
+	 *
+	 * @return  instance factory, null if it failed
+	 */
+	protected static <T> Supplier<T> methodHandleFactory(Class<T> classObj) {
+		final MethodHandle constructor;
+		try {
+			constructor = MethodHandles.lookup()
+				.findConstructor(classObj, MethodType.methodType(void.class))
+				.asType(MethodType.methodType(Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+		return () -> {
+			try {
+				return classObj.cast((Object) constructor.invokeExact());
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		};
+	}
+	
+	/**
+	 * Reflection based factory, used as the final fallback
+	 *
+	 * The constructor is looked up once, its lookup failure (if any) is thrown on use
+	 *
+	 * @param  classObj  class to construct
+	 *
+	 * @return  instance factory
+	 */
+	protected static <T> Supplier<T> reflectionFactory(Class<T> classObj) {
+		final Constructor<T> constructor;
+		try {
+			constructor = classObj.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (Exception e) {
+			return () -> {
+				throw new RuntimeException(e);
+			};
+		}
+		return () -> {
+			try {
+				return constructor.newInstance();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		};
+	}
+}
@@ -0,0 +1,410 @@
+package picoded.servlet.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Internal utility class, used to parse a JSON request body directly from
+ * its input stream, without first reading it into a byte[] and String.
+ *
+ * Only a small fixed size character buffer is used while parsing, so the
+ * memory used is proportional to the parsed result, and not the raw payload.
+ * Nesting of objects / arrays is limited to `MAX_DEPTH`, as the parser is recursive.
+ *
+ * The parsed values follows the same types as `ConvertJSON.toMap`, where
+ *
+ * + JSON objects are parsed as LinkedHashMap
+ * + JSON arrays are parsed as ArrayList
+ * + Integer values as Integer / Long / BigInteger (depending on its size)
+ * + Decimal values as Double
+ *
+ * Note that each instance is only used for a single request body, and is not thread safe
+ **/
+public class JsonStreamParser {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Consturctor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Read buffer size, in number of characters */
+	protected static final int BUFFER_SIZE = 8192;
+	
+	/** Maximum nesting depth of objects / arrays */
+	protected static final int MAX_DEPTH = 512;
+	
+	/** Input reader */
+	protected final Reader reader;
+	
+	/** Read buffer */
+	protected final char[] buffer = new char[BUFFER_SIZE];
+	
+	/** Current buffer position */
+	protected int pos = 0;
+	
+	/** Number of valid characters in the buffer */
+	protected int limit = 0;
+	
+	/** Reusable string builder, for string and number tokens */
+	protected final StringBuilder token = new StringBuilder();
+	
+	/** Current nesting depth of objects / arrays */
+	protected int depth = 0;
+	
+	/**
+	 * Setup the parser, with the input stream and its encoding
+	 *
+	 * @param  input stream to parse
+	 * @param  charset of the input stream
+	 */
+	public JsonStreamParser(InputStream input, Charset charset) {
+		this.reader = new InputStreamReader(input, charset);
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Parsing
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Parse the input stream, as a top level JSON object
+	 *
+	 * @return  parsed map
+	 *
+	 * @throws IOException if the input stream failed
+	 * @throws IllegalArgumentException on invalid JSON, or if its not an object
+	 */
+	public Map<String, Object> parseMap() throws IOException {
+		// Empty body, is treated as an empty map
+		int c = nextNonWhitespace();
+		if (c < 0) {
+			return new LinkedHashMap<String, Object>();
+		}
+		
+		// Currently we only support top level maps
+		if (c != '{') {
+			throw error("Expected a JSON object");
+		}
+		Map<String, Object> ret = parseObject();
+		
+		// Ensure there is no trailing content
+		if (nextNonWhitespace() >= 0) {
+			throw error("Unexpected trailing content");
+		}
+		return ret;
+	}
+	
+	/**
+	 * Parse a single JSON value, starting with the given character
+	 *
+	 * @param  c first character of the value
+	 *
+	 * @return  parsed value
+	 */
+	protected Object parseValue(int c) throws IOException {
+		switch (c) {
+			case '{':
+			case '[':
+				if (++depth > MAX_DEPTH) {
+					throw error("Nesting too deep");
+				}
+				Object ret = (c == '{') ? parseObject() : parseArray();
+				--depth;
+				return ret;
+			case '"':
+				return parseString();
+			case 't':
+				expectLiteral("rue");
+				return Boolean.TRUE;
+			case 'f':
+				expectLiteral("alse");
+				return Boolean.FALSE;
+			case 'n':
+				expectLiteral("ull");
+				return null;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return parseNumber(c);
+				}
+				throw error("Unexpected character");
+		}
+	}
+	
+	/**
+	 * Parse a JSON object, after its opening '{'
+	 *
+	 * @return  parsed map
+	 */
+	protected Map<String, Object> parseObject() throws IOException {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		
+		// Empty object
+		int c = nextNonWhitespace();
+		if (c == '}') {
+			return ret;
+		}
+		
+		while (true) {
+			// Key
+			if (c != '"') {
+				throw error("Expected an object key");
+			}
+			String key = parseString();
+			
+			// Key value seperator
+			if (nextNonWhitespace() != ':') {
+				throw error("Expected ':'");
+			}
+			
+			// Value
+			ret.put(key, parseValue(nextNonWhitespace()));
+			
+			// Next entry, or end of object
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return ret;
+			}
+			if (c != ',') {
+				throw error("Expected ',' or '}'");
+			}
+			c = nextNonWhitespace();
+		}
+	}
+	
+	/**
+	 * Parse a JSON array, after its opening '['
+	 *
+	 * @return  parsed list
+	 */
+	protected List<Object> parseArray() throws IOException {
+		List<Object> ret = new ArrayList<Object>();
+		
+		// Empty array
+		int c = nextNonWhitespace();
+		if (c == ']') {
+			return ret;
+		}
+		
+		while (true) {
+			// Value
+			ret.add(parseValue(c));
+			
+			// Next value, or end of array
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return ret;
+			}
+			if (c != ',') {
+				throw error("Expected ',' or ']'");
+			}
+			c = nextNonWhitespace();
+		}
+	}
+	
+	/**
+	 * Parse a JSON string, after its opening quote
+	 *
+	 * @return  parsed string
+	 */
+	protected String parseString() throws IOException {
+		token.setLength(0);
+		while (true) {
+			// Copy the unescaped segment within the buffer directly
+			int start = pos;
+			while (pos < limit) {
+				char ch = buffer[pos];
+				if (ch == '"' || ch == '\\') {
+					break;
+				}
+				++pos;
+			}
+			token.append(buffer, start, pos - start);
+			
+			// Refill the buffer, and continue
+			int c = read();
+			if (c < 0) {
+				throw error("Unterminated string");
+			}
+			if (c == '"') {
+				return token.toString();
+			}
+			if (c == '\\') {
+				token.append(parseEscape());
+			} else {
+				token.append((char) c);
+			}
+		}
+	}
+	
+	/**
+	 * Parse a string escape sequence, after its '\'
+	 *
+	 * @return  escaped character
+	 */
+	protected char parseEscape() throws IOException {
+		int c = read();
+		switch (c) {
+			case '"':
+			case '\\':
+			case '/':
+				return (char) c;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; ++i) {
+					int digit = Character.digit(read(), 16);
+					if (digit < 0) {
+						throw error("Invalid unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			default:
+				throw error("Invalid escape character");
+		}
+	}
+	
+	/**
+	 * Parse a JSON number, starting with the given character
+	 *
+	 * @param  c first character of the number
+	 *
+	 * @return  parsed number
+	 */
+	protected Number parseNumber(int c) throws IOException {
+		token.setLength(0);
+		token.append((char) c);
+		
+		// Collect the number characters
+		boolean decimal = false;
+		while (true) {
+			int next = peek();
+			if ((next >= '0' && next <= '9') || next == '-' || next == '+') {
+				token.append((char) read());
+			} else if (next == '.' || next == 'e' || next == 'E') {
+				decimal = true;
+				token.append((char) read());
+			} else {
+				break;
+			}
+		}
+		
+		// Convert the number
+		String num = token.toString();
+		try {
+			if (decimal) {
+				return Double.valueOf(num);
+			}
+			if (num.length() <= 9) {
+				return Integer.valueOf(num);
+			}
+			BigInteger big = new BigInteger(num);
+			if (big.bitLength() < 32) {
+				return big.intValue();
+			}
+			if (big.bitLength() < 64) {
+				return big.longValue();
+			}
+			return big;
+		} catch (NumberFormatException e) {
+			throw error("Invalid number");
+		}
+	}
+	
+	/**
+	 * Validate the remaining characters of a true / false / null literal
+	 *
+	 * @param  remaining characters expected
+	 */
+	protected void expectLiteral(String remaining) throws IOException {
+		for (int i = 0; i < remaining.length(); ++i) {
+			if (read() != remaining.charAt(i)) {
+				throw error("Invalid literal");
+			}
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Buffered reading
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Fill the buffer, if it has been fully consumed
+	 *
+	 * @return  false if the end of stream is reached
+	 */
+	protected boolean fill() throws IOException {
+		if (pos < limit) {
+			return true;
+		}
+		int len = reader.read(buffer, 0, buffer.length);
+		while (len == 0) {
+			len = reader.read(buffer, 0, buffer.length);
+		}
+		pos = 0;
+		limit = Math.max(len, 0);
+		return len > 0;
+	}
+	
+	/**
+	 * @return  next character, or -1 at the end of stream
+	 */
+	protected int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[pos++];
+	}
+	
+	/**
+	 * @return  next character without consuming it, or -1 at the end of stream
+	 */
+	protected int peek() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[pos];
+	}
+	
+	/**
+	 * @return  next non whitespace character, or -1 at the end of stream
+	 */
+	protected int nextNonWhitespace() throws IOException {
+		while (true) {
+			int c = read();
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return c;
+			}
+		}
+	}
+	
+	/**
+	 * @param  message of the parsing error
+	 *
+	 * @return  exception to throw
+	 */
+	protected IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("Invalid JSON request body : " + message);
+	}
+}
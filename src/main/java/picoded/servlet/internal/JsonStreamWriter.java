@@ -0,0 +1,385 @@
+package picoded.servlet.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import picoded.core.conv.ConvertJSON;
+
+/**
+ * Internal utility class, used to write an API response map as JSON directly
+ * to the response output, without first building the full JSON string in memory.
+ *
+ * Only a small fixed size character buffer is used while writing, so output
+ * starts as soon as the buffer fills up, and the memory used is independent
+ * of the size of the response.
+ *
+ * Values are written as the following
+ *
+ * + Map as JSON objects
+ * + Collection / Iterable / Iterator / Stream / arrays as JSON arrays,
+ *   where Iterator and Stream values are consumed lazily while writing
+ * + Number / Boolean as it is (with NaN / Infinity written as strings)
+ * + String / Character / Enum as JSON strings
+ * + Any other object type, is converted using `ConvertJSON.fromObject`
+ *
+ * Pretty printing follows the same format as `ConvertJSON.fromObject(obj, true)`,
+ * with tab indented objects, and single line arrays.
+ *
+ * Note that each instance is only used for a single response, and is not thread safe
+ **/
+public class JsonStreamWriter {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Static write utility
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Write the given value as JSON to the output stream, followed by a line separator.
+	 * This is the streaming equivalent of `writer.println(ConvertJSON.fromObject(value, pretty))`
+	 *
+	 * @param  output stream to write to
+	 * @param  charset to encode the output with
+	 * @param  value to write
+	 * @param  pretty print the output
+	 *
+	 * @throws IOException if the output stream failed
+	 */
+	public static void writeTo(OutputStream output, Charset charset, Object value, boolean pretty)
+		throws IOException {
+		writeTo(new OutputStreamWriter(output, charset), value, pretty);
+	}
+	
+	/**
+	 * Write the given value as JSON to the writer, followed by a line separator.
+	 * This is the streaming equivalent of `writer.println(ConvertJSON.fromObject(value, pretty))`
+	 *
+	 * @param  output writer to write to
+	 * @param  value to write
+	 * @param  pretty print the output
+	 *
+	 * @throws IOException if the writer failed
+	 */
+	public static void writeTo(Writer output, Object value, boolean pretty) throws IOException {
+		JsonStreamWriter jsonWriter = new JsonStreamWriter(output, pretty);
+		jsonWriter.writeValue(value);
+		jsonWriter.writeRaw(System.lineSeparator());
+		jsonWriter.flush();
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Consturctor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Write buffer size, in number of characters */
+	protected static final int BUFFER_SIZE = 8192;
+	
+	/** Hex characters, used for unicode escapes */
+	protected static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+	
+	/** Output writer */
+	protected final Writer writer;
+	
+	/** Pretty print the output */
+	protected final boolean pretty;
+	
+	/** Write buffer */
+	protected final char[] buffer = new char[BUFFER_SIZE];
+	
+	/** Current buffer position */
+	protected int pos = 0;
+	
+	/** Current object nesting depth, used for pretty print indentation */
+	protected int depth = 0;
+	
+	/**
+	 * Setup the JSON writer
+	 *
+	 * @param  writer to write the JSON output to
+	 * @param  pretty print the output
+	 */
+	public JsonStreamWriter(Writer writer, boolean pretty) {
+		this.writer = writer;
+		this.pretty = pretty;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Value writing
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Write a single JSON value
+	 *
+	 * @param  value to write
+	 *
+	 * @throws IOException if the writer failed
+	 */
+	public void writeValue(Object value) throws IOException {
+		if (value == null) {
+			writeRaw("null");
+		} else if (value instanceof String) {
+			writeString((String) value);
+		} else if (value instanceof Number) {
+			writeNumber((Number) value);
+		} else if (value instanceof Boolean) {
+			writeRaw(value.toString());
+		} else if (value instanceof Map) {
+			writeMap((Map<?, ?>) value);
+		} else if (value instanceof Iterable) {
+			writeArray(((Iterable<?>) value).iterator());
+		} else if (value instanceof Iterator) {
+			writeArray((Iterator<?>) value);
+		} else if (value instanceof Stream) {
+			try (Stream<?> stream = (Stream<?>) value) {
+				writeArray(stream.iterator());
+			}
+		} else if (value instanceof Character || value instanceof CharSequence) {
+			writeString(value.toString());
+		} else if (value instanceof Enum) {
+			writeString(((Enum<?>) value).name());
+		} else if (value.getClass().isArray() && !(value instanceof byte[])) {
+			writeArray(new ArrayIterator(value));
+		} else {
+			// Unknown types (including byte[]), is converted using ConvertJSON
+			writeRaw(ConvertJSON.fromObject(value));
+		}
+	}
+	
+	/**
+	 * Write a map as a JSON object
+	 *
+	 * @param  map to write
+	 */
+	protected void writeMap(Map<?, ?> map) throws IOException {
+		// Empty object
+		if (map.isEmpty()) {
+			writeRaw(pretty ? "{ }" : "{}");
+			return;
+		}
+		
+		write('{');
+		++depth;
+		boolean first = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			// Entry seperator
+			if (!first) {
+				write(',');
+			}
+			first = false;
+			writeIndentation();
+			
+			// Key and value
+			writeString(String.valueOf(entry.getKey()));
+			writeRaw(pretty ? " : " : ":");
+			writeValue(entry.getValue());
+		}
+		--depth;
+		writeIndentation();
+		write('}');
+	}
+	
+	/**
+	 * Write the iterator values as a JSON array, consuming it lazily
+	 *
+	 * @param  iterator of values to write
+	 */
+	protected void writeArray(Iterator<?> iterator) throws IOException {
+		// Empty array
+		if (!iterator.hasNext()) {
+			writeRaw(pretty ? "[ ]" : "[]");
+			return;
+		}
+		
+		write('[');
+		if (pretty) {
+			write(' ');
+		}
+		writeValue(iterator.next());
+		while (iterator.hasNext()) {
+			writeRaw(pretty ? ", " : ",");
+			writeValue(iterator.next());
+		}
+		if (pretty) {
+			write(' ');
+		}
+		write(']');
+	}
+	
+	/**
+	 * Write a number, with non finite values written as strings
+	 *
+	 * @param  num to write
+	 */
+	protected void writeNumber(Number num) throws IOException {
+		if ((num instanceof Double && !Double.isFinite(num.doubleValue()))
+			|| (num instanceof Float && !Float.isFinite(num.floatValue()))) {
+			writeString(num.toString());
+			return;
+		}
+		writeRaw(num.toString());
+	}
+	
+	/**
+	 * Write a string as a quoted and escaped JSON string
+	 *
+	 * @param  str to write
+	 */
+	protected void writeString(String str) throws IOException {
+		write('"');
+		int len = str.length();
+		for (int i = 0; i < len; ++i) {
+			char c = str.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				write(c);
+				continue;
+			}
+			
+			// Characters which needs to be escaped
+			write('\\');
+			switch (c) {
+				case '"':
+				case '\\':
+					write(c);
+					break;
+				case '\n':
+					write('n');
+					break;
+				case '\r':
+					write('r');
+					break;
+				case '\t':
+					write('t');
+					break;
+				case '\b':
+					write('b');
+					break;
+				case '\f':
+					write('f');
+					break;
+				default:
+					write('u');
+					write('0');
+					write('0');
+					write(HEX_CHARS[c >> 4]);
+					write(HEX_CHARS[c & 0xF]);
+			}
+		}
+		write('"');
+	}
+	
+	/**
+	 * Write a new line, with the current depth indentation (only if pretty printing)
+	 */
+	protected void writeIndentation() throws IOException {
+		if (!pretty) {
+			return;
+		}
+		write('\n');
+		for (int i = 0; i < depth; ++i) {
+			write('\t');
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Buffered writing
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @param  c character to write
+	 */
+	protected void write(char c) throws IOException {
+		if (pos >= buffer.length) {
+			flushBuffer();
+		}
+		buffer[pos++] = c;
+	}
+	
+	/**
+	 * @param  str to write as it is, without escaping
+	 */
+	protected void writeRaw(String str) throws IOException {
+		int offset = 0;
+		int len = str.length();
+		while (offset < len) {
+			if (pos >= buffer.length) {
+				flushBuffer();
+			}
+			int count = Math.min(len - offset, buffer.length - pos);
+			str.getChars(offset, offset + count, buffer, pos);
+			pos += count;
+			offset += count;
+		}
+	}
+	
+	/**
+	 * Write out the buffered characters to the writer
+	 */
+	protected void flushBuffer() throws IOException {
+		if (pos > 0) {
+			writer.write(buffer, 0, pos);
+			pos = 0;
+		}
+	}
+	
+	/**
+	 * Write out the buffered characters, and flush the writer
+	 *
+	 * @throws IOException if the writer failed
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		writer.flush();
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Array iteration
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Iterator over an object or primitive array, without boxing the whole array upfront
+	 */
+	protected static class ArrayIterator implements Iterator<Object> {
+		/** Array to iterate */
+		protected final Object arr;
+		
+		/** Array length */
+		protected final int length;
+		
+		/** Current index */
+		protected int index = 0;
+		
+		/**
+		 * @param  arr object or primitive array to iterate
+		 */
+		protected ArrayIterator(Object arr) {
+			this.arr = arr;
+			this.length = Array.getLength(arr);
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return index < length;
+		}
+		
+		@Override
+		public Object next() {
+			return Array.get(arr, index++);
+		}
+	}
+}
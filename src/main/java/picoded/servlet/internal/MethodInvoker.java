@@ -0,0 +1,267 @@
+package picoded.servlet.internal;
+
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import picoded.servlet.*;
+
+/**
+ * Internal utility class, representing a precomputed invoker for a single
+ * request method (ApiPath / RequestPath / RequestBefore / RequestAfter).
+ *
+ * This is built once when the method is registered by the BasePageClassMap, and
+ * consist of a MethodHandle (adapted to a generic Object signature) along with a
+ * fixed array of argument resolvers, one for each method parameter.
+ *
+ * So that on each request, the method is invoked without any reflection lookups,
+ * argument list allocation, or argument array spreading (for up to 4 parameters).
+ *
+ * The arguments are resolved first (see `resolveArguments`), before invoking the method.
+ * So that argument resolution failures can be handled separately, from the method failures.
+ *
+ * If the MethodHandle cannot be created (eg. due to access restrictions, for methods
+ * of non-public page classes), this falls back to the reflection based `Method.invoke`.
+ * With the method made accessible, if permitted.
+ *
+ * Note that this is not modified after being built, and is shared across threads
+ **/
+public class MethodInvoker {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Argument resolvers
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Resolves a single method argument from the current page
+	 */
+	public interface ArgumentResolver {
+		/**
+		 * @param  page to resolve the argument from
+		 *
+		 * @return  argument value
+		 */
+		Object resolve(BasePage page);
+	}
+	
+	/**
+	 * Get the argument resolver for the given parameter type.
+	 *
+	 * This follows the same order of precedence, as the original
+	 * `isAssignableFrom` checks used in `BasePageClassMap.executeMethod`
+	 *
+	 * @param  type of the parameter
+	 *
+	 * @return  argument resolver, null if the type is not supported
+	 */
+	protected static ArgumentResolver argumentResolver(Class<?> type) {
+		// How isAssignableFrom works:
+		// Map.class.isAssignableFrom(ServletRequestMap) translate to
+		// Map<String, Object> map = new ServletRequestMap(page.getHttpServletRequest());
+		// Map is the parent class and ServletRequestMap is the child class
+		
+		if (PrintWriter.class.isAssignableFrom(type)) {
+			return BasePage::getPrintWriter;
+		} else if (ServletRequestMap.class.isAssignableFrom(type)) {
+			return BasePage::requestParameterMap;
+		} else if (ApiResponseMap.class.isAssignableFrom(type)) {
+			return BasePage::getApiResponseMap;
+		} else if (Map.class.isAssignableFrom(type)) {
+			return BasePage::requestParameterMap;
+		} else if (HttpServletRequest.class.isAssignableFrom(type)) {
+			return BasePage::getHttpServletRequest;
+		} else if (StringBuilder.class.isAssignableFrom(type)) {
+			return BasePage::getResponseStringBuilder;
+		}
+		return null;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Consturctor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Method to invoke */
+	public final Method method;
+	
+	/** Class which declared the method, used for page type safety checks */
+	public final Class<?> declaringClass;
+	
+	/** Return type of the method */
+	public final Class<?> returnType;
+	
+	/** Argument resolvers, one for each method parameter */
+	protected final ArgumentResolver[] resolvers;
+	
+	/** Unsupported parameter type error message, null if all parameters are supported */
+	protected final String unsupportedParameter;
+	
+	/**
+	 * Method handle with the signature (Object, Object ...) Object,
+	 * null if the reflection fallback is used
+	 */
+	protected final MethodHandle handle;
+	
+	/**
+	 * Build the invoker for the given method
+	 *
+	 * @param  method to invoke
+	 */
+	public MethodInvoker(Method method) {
+		this.method = method;
+		this.declaringClass = method.getDeclaringClass();
+		this.returnType = method.getReturnType();
+		
+		// Setup the argument resolvers
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		resolvers = new ArgumentResolver[parameterTypes.length];
+		String unsupported = null;
+		for (int i = 0; i < parameterTypes.length; ++i) {
+			resolvers[i] = argumentResolver(parameterTypes[i]);
+			if (resolvers[i] == null && unsupported == null) {
+				unsupported = "Unsupported type in method " + method.getName()
+					+ " for parameter type " + parameterTypes[i].getSimpleName();
+			}
+		}
+		unsupportedParameter = unsupported;
+		
+		// Setup the method handle
+		handle = setupMethodHandle(method, parameterTypes.length);
+		
+		// Reflection fallback, which needs to bypass the same access restrictions
+		if (handle == null) {
+			try {
+				method.setAccessible(true);
+			} catch (RuntimeException e) {
+				// Not permitted, the method is invoked as it is (and fails accordingly)
+			}
+		}
+	}
+	
+	/**
+	 * Setup the method handle, adapted to the (Object, Object ...) Object signature
+	 *
+	 * @param  method to unreflect
+	 * @param  arity number of method parameters
+	 *
+	 * @return  method handle, or null if it failed (in which reflection is used instead)
+	 */
+	protected static MethodHandle setupMethodHandle(Method method, int arity) {
+		try {
+			MethodHandle ret = MethodHandles.lookup().unreflect(method);
+			ret = ret.asType(MethodType.genericMethodType(1 + arity));
+			if (arity > 4) {
+				ret = ret.asSpreader(Object[].class, arity);
+			}
+			return ret;
+		} catch (IllegalAccessException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Invocation
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Validate that all the method parameter types are supported
+	 *
+	 * @throws RuntimeException if any parameter type is unsupported
+	 */
+	public void validateParameters() {
+		if (unsupportedParameter != null) {
+			throw new RuntimeException(unsupportedParameter);
+		}
+	}
+	
+	/** Resolved arguments, of methods without parameters */
+	protected static final Object[] NO_ARGUMENTS = new Object[0];
+	
+	/**
+	 * Resolve the method arguments from the given page
+	 *
+	 * @param  page to resolve the arguments from
+	 *
+	 * @return  array of resolved arguments
+	 *
+	 * @throws RuntimeException if any argument failed to resolve
+	 */
+	public Object[] resolveArguments(BasePage page) {
+		if (resolvers.length == 0) {
+			return NO_ARGUMENTS;
+		}
+		Object[] ret = new Object[resolvers.length];
+		for (int i = 0; i < resolvers.length; ++i) {
+			ret[i] = resolvers[i].resolve(page);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Invoke the method on the given page, with its resolved arguments.
+	 *
+	 * Any exception thrown by the method itself is thrown as it is,
+	 * without being wrapped as an InvocationTargetException.
+	 *
+	 * @param  page to invoke the method on
+	 * @param  args resolved arguments, from `resolveArguments(page)`
+	 *
+	 * @return  method return value (null for void methods)
+	 *
+	 * @throws Throwable thrown by the method
+	 */
+	public Object invoke(BasePage page, Object[] args) throws Throwable {
+		// Reflection fallback
+		if (handle == null) {
+			return invokeReflection(page, args);
+		}
+		
+		// Invoke with the resolved arguments, without spreading the argument array
+		switch (args.length) {
+			case 0:
+				return (Object) handle.invokeExact((Object) page);
+			case 1:
+				return (Object) handle.invokeExact((Object) page, args[0]);
+			case 2:
+				return (Object) handle.invokeExact((Object) page, args[0], args[1]);
+			case 3:
+				return (Object) handle.invokeExact((Object) page, args[0], args[1], args[2]);
+			case 4:
+				return (Object) handle.invokeExact((Object) page, args[0], args[1], args[2], args[3]);
+			default:
+				return (Object) handle.invokeExact((Object) page, args);
+		}
+	}
+	
+	/**
+	 * Invoke the method using reflection
+	 *
+	 * @param  page to invoke the method on
+	 * @param  args resolved arguments
+	 *
+	 * @return  method return value (null for void methods)
+	 *
+	 * @throws Throwable thrown by the method
+	 */
+	protected Object invokeReflection(BasePage page, Object[] args) throws Throwable {
+		try {
+			return method.invoke(page, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() != null) {
+				throw e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package picoded.servlet.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import picoded.servlet.*;
+import picoded.servlet.annotation.*;
+
+/**
+ * Internal utility class, used to recycle page instances for classes
+ * annotated with `@PooledPage`.
+ *
+ * The pool is striped by thread, to reduce lock contention between request threads,
+ * where each stripe holds a small fixed size stack of idle instances. When a stripe
+ * is empty (or full), the caller simply creates a new instance (or discards the instance).
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class PagePool {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Static caching of pools by class
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Placeholder pool, used to cache classes which does not support pooling */
+	protected static final PagePool NO_POOL = new PagePool(0);
+	
+	/** Pools of each page class */
+	private static final Map<Class<?>, PagePool> poolCache = new ConcurrentHashMap<>();
+	
+	/**
+	 * Get the pool for the given page class, and set it up if needed
+	 *
+	 * @param  classObj  page class
+	 *
+	 * @return  pool of the class, null if the class is not annotated with `@PooledPage`
+	 */
+	public static PagePool forClass(Class<?> classObj) {
+		// Get from the cache first if possible
+		PagePool ret = poolCache.get(classObj);
+		if (ret == null) {
+			// Cache not found, lets recreate this
+			PooledPage annotation = classObj.getAnnotation(PooledPage.class);
+			ret = (annotation == null || annotation.value() <= 0) ? NO_POOL : new PagePool(
+				annotation.value());
+			
+			// And store in cache
+			poolCache.put(classObj, ret);
+		}
+		return (ret == NO_POOL) ? null : ret;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Consturctor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Single stripe of the pool, with its stack of idle instances
+	 */
+	protected static class Stripe {
+		/** Idle instances */
+		protected final CorePage[] idle;
+		
+		/** Number of idle instances */
+		protected int count = 0;
+		
+		/**
+		 * @param  capacity of the stripe
+		 */
+		protected Stripe(int capacity) {
+			idle = new CorePage[capacity];
+		}
+	}
+	
+	/** Pool stripes */
+	protected final Stripe[] stripes;
+	
+	/** Stripe index mask, the number of stripes is a power of 2 */
+	protected final int stripeMask;
+	
+	/**
+	 * Setup the pool with its maximum number of idle instances
+	 *
+	 * @param  maxSize of the pool
+	 */
+	public PagePool(int maxSize) {
+		// Number of stripes, a power of 2 near the number of processors (limited by maxSize)
+		int stripeCount = 1;
+		int target = Math.min(Math.max(1, maxSize), Runtime.getRuntime().availableProcessors());
+		while (stripeCount < target) {
+			stripeCount <<= 1;
+		}
+		
+		// Setup the stripes
+		int capacity = Math.max(1, maxSize / stripeCount);
+		stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; ++i) {
+			stripes[i] = new Stripe(capacity);
+		}
+		stripeMask = stripeCount - 1;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Pool borrow / recycle
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @return the stripe used by the current thread
+	 */
+	protected Stripe currentStripe() {
+		return stripes[(int) Thread.currentThread().getId() & stripeMask];
+	}
+	
+	/**
+	 * Borrow an idle instance from the pool
+	 *
+	 * @return  idle instance, null if the pool is empty
+	 */
+	public CorePage borrow() {
+		Stripe stripe = currentStripe();
+		synchronized (stripe) {
+			if (stripe.count <= 0) {
+				return null;
+			}
+			CorePage ret = stripe.idle[--stripe.count];
+			stripe.idle[stripe.count] = null;
+			return ret;
+		}
+	}
+	
+	/**
+	 * Reset the instance, and return it to the pool
+	 *
+	 * @param  page instance to recycle
+	 *
+	 * @return true if the instance was added to the pool, false if the pool is full
+	 */
+	public boolean recycle(CorePage page) {
+		// Clear the request scoped fields (outside of the lock)
+		page.resetInstance();
+		
+		// And return it to the pool, if there is space
+		Stripe stripe = currentStripe();
+		synchronized (stripe) {
+			if (stripe.count >= stripe.idle.length) {
+				return false;
+			}
+			stripe.idle[stripe.count++] = page;
+			return true;
+		}
+	}
+}
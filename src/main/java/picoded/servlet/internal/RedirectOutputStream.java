@@ -0,0 +1,83 @@
+package picoded.servlet.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream wrapper, used underneath the page PrintWriter. Which can temporarily redirect
+ * the output into another stream (eg. a GzipThresholdOutputStream), see `redirect(target)`.
+ *
+ * This allows any output still buffered within the PrintWriter to be flushed into that stream,
+ * without flushing (and committing) the underlying response output stream.
+ *
+ * Note that flush calls are not passed to the redirected stream, as they are meant for
+ * the response output stream.
+ */
+public class RedirectOutputStream extends OutputStream {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Underlying response output stream */
+	protected final OutputStream output;
+	
+	/** Current output stream to write to */
+	protected OutputStream target;
+	
+	/**
+	 * Setup the output stream wrapper
+	 *
+	 * @param  output stream of the response
+	 */
+	public RedirectOutputStream(OutputStream output) {
+		this.output = output;
+		this.target = output;
+	}
+	
+	/**
+	 * Redirect the output into the given stream, until `restore()` is called
+	 *
+	 * @param  redirectTarget to write to
+	 */
+	public void redirect(OutputStream redirectTarget) {
+		target = redirectTarget;
+	}
+	
+	/**
+	 * Restore the output to the underlying response output stream
+	 */
+	public void restore() {
+		target = output;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Output stream implementation
+	//
+	///////////////////////////////////////////////////////
+	
+	@Override
+	public void write(int b) throws IOException {
+		target.write(b);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		target.write(b, off, len);
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		if (target == output) {
+			output.flush();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,173 @@
+package picoded.servlet.internal;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import picoded.servlet.annotation.*;
+
+/**
+ * Internal utility class, used to execute the requests of page classes
+ * annotated with `@AsyncPage`, off the container thread.
+ *
+ * Virtual threads are used when supported by the JDK (looked up via reflection,
+ * as this is compiled for older JDKs). With a bounded thread pool as the fallback,
+ * which rejects requests once both its threads and queue are full.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class RequestExecutor {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Static caching of executors by class
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Placeholder executor, used to cache classes which are not async */
+	protected static final RequestExecutor NO_EXECUTOR = new RequestExecutor(null, 0);
+	
+	/** Executors of each page class */
+	private static final Map<Class<?>, RequestExecutor> executorCache = new ConcurrentHashMap<>();
+	
+	/**
+	 * Get the executor for the given page class, and set it up if needed
+	 *
+	 * @param  classObj  page class
+	 *
+	 * @return  executor of the class, null if the class is not annotated with `@AsyncPage`
+	 */
+	public static RequestExecutor forClass(Class<?> classObj) {
+		// Get from the cache first if possible
+		RequestExecutor ret = executorCache.get(classObj);
+		if (ret == null) {
+			// Cache not found, lets recreate this
+			AsyncPage annotation = classObj.getAnnotation(AsyncPage.class);
+			ret = (annotation == null) ? NO_EXECUTOR : fromAnnotation(classObj, annotation);
+			
+			// And store in cache (keeping the first, if setup concurrently)
+			RequestExecutor existing = executorCache.putIfAbsent(classObj, ret);
+			if (existing != null) {
+				ret = existing;
+			}
+		}
+		return (ret == NO_EXECUTOR) ? null : ret;
+	}
+	
+	/**
+	 * Setup the executor for the given annotation settings
+	 */
+	private static RequestExecutor fromAnnotation(Class<?> classObj, AsyncPage annotation) {
+		Executor virtual = annotation.virtualThreads() ? virtualThreadExecutor() : null;
+		if (virtual != null) {
+			return new RequestExecutor(virtual, annotation.timeout());
+		}
+		return new RequestExecutor(boundedExecutor(classObj.getSimpleName(),
+			annotation.maxThreads(), annotation.queueSize()), annotation.timeout());
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Executor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Shared virtual thread executor, null if not supported */
+	private static Executor virtualExecutor = null;
+	
+	/** Indicates if virtual thread support was checked */
+	private static boolean virtualChecked = false;
+	
+	/**
+	 * Get the shared virtual thread per task executor, if supported by the JDK
+	 *
+	 * @return  virtual thread executor, null if not supported
+	 */
+	public static synchronized Executor virtualThreadExecutor() {
+		if (!virtualChecked) {
+			virtualChecked = true;
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				virtualExecutor = (Executor) factory.invoke(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// Not supported (or not enabled), for the current JDK
+				virtualExecutor = null;
+			}
+		}
+		return virtualExecutor;
+	}
+	
+	/**
+	 * Setup a bounded thread pool, with daemon threads which time out when idle
+	 *
+	 * @param  name prefix of the threads
+	 * @param  maxThreads of the pool
+	 * @param  queueSize of the pool, 0 for no queue
+	 *
+	 * @return  thread pool executor
+	 */
+	public static ThreadPoolExecutor boundedExecutor(String name, int maxThreads, int queueSize) {
+		int threads = Math.max(1, maxThreads);
+		BlockingQueue<Runnable> queue = (queueSize > 0) ? new LinkedBlockingQueue<>(queueSize)
+			: new SynchronousQueue<>();
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadFactory factory = (runnable) -> {
+			Thread thread = new Thread(runnable, name + "-request-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			queue, factory);
+		ret.allowCoreThreadTimeOut(true);
+		return ret;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Executor used for the requests */
+	public final Executor executor;
+	
+	/** Async request timeout in milliseconds, 0 for no timeout */
+	public final long timeout;
+	
+	/**
+	 * @param  executor used for the requests
+	 * @param  timeout of the async request
+	 */
+	public RequestExecutor(Executor executor, long timeout) {
+		this.executor = executor;
+		this.timeout = Math.max(0, timeout);
+	}
+	
+	/**
+	 * Execute the request
+	 *
+	 * @param  request to run
+	 *
+	 * @throws RejectedExecutionException if the executor is full
+	 */
+	public void execute(Runnable request) {
+		executor.execute(request);
+	}
+	
+	/**
+	 * @return  true, if the requests are executed on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return executor != null && executor == virtualExecutor;
+	}
+}
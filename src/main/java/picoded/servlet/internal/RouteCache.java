@@ -0,0 +1,205 @@
+package picoded.servlet.internal;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Internal utility class, used to memoize route resolution results by request path.
+ *
+ * As request paths may contain unbounded path parameter values (eg. "user/:id"),
+ * the cache is bounded in size, with an approximate least recently used eviction.
+ *
+ * Lookups are lock free, and does not write to any shared state, unless the entry
+ * was not accessed since the last insertion. Eviction is done by a single thread at
+ * a time (the thread which inserted beyond the size limit), while other threads
+ * continue to use the cache normally.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class RouteCache<V> {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Consturctor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Cache entry, with its last access tick
+	 */
+	protected static class Entry<V> {
+		/** Cached value */
+		protected final V value;
+		
+		/** Insertion tick, when the entry was last accessed */
+		protected volatile long lastAccess;
+		
+		/**
+		 * @param  value to cache
+		 * @param  tick of the entry insertion
+		 */
+		protected Entry(V value, long tick) {
+			this.value = value;
+			this.lastAccess = tick;
+		}
+	}
+	
+	/**
+	 * Eviction candidate, with a snapshot of its access tick (as it may change while sorting)
+	 */
+	protected static class Candidate<V> {
+		/** Cache key */
+		protected final String key;
+		
+		/** Cache entry */
+		protected final Entry<V> entry;
+		
+		/** Access tick snapshot */
+		protected final long tick;
+		
+		/**
+		 * @param  key of the entry
+		 * @param  entry to evict
+		 */
+		protected Candidate(String key, Entry<V> entry) {
+			this.key = key;
+			this.entry = entry;
+			this.tick = entry.lastAccess;
+		}
+	}
+	
+	/** Cached entries */
+	protected final ConcurrentHashMap<String, Entry<V>> cacheMap = new ConcurrentHashMap<>();
+	
+	/** Maximum number of entries to cache */
+	protected final int maxSize;
+	
+	/** Insertion counter, used as the access clock */
+	protected final AtomicLong insertTick = new AtomicLong();
+	
+	/** Eviction in progress flag */
+	protected final AtomicBoolean evicting = new AtomicBoolean(false);
+	
+	/**
+	 * Setup the cache with a maximum size
+	 *
+	 * @param  maxSize of the cache, 0 or less disables caching
+	 */
+	public RouteCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Cache get / put
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Get the cached value
+	 *
+	 * @param  key to lookup
+	 *
+	 * @return  cached value, null if not found
+	 */
+	public V get(String key) {
+		Entry<V> entry = cacheMap.get(key);
+		if (entry == null) {
+			return null;
+		}
+		
+		// Update the access tick, only if it changed (to avoid needless writes)
+		long tick = insertTick.get();
+		if (entry.lastAccess != tick) {
+			entry.lastAccess = tick;
+		}
+		return entry.value;
+	}
+	
+	/**
+	 * Store the value into the cache, evicting older entries if the cache is full
+	 *
+	 * @param  key to store with
+	 * @param  value to store
+	 */
+	public void put(String key, V value) {
+		// Caching is disabled
+		if (maxSize <= 0) {
+			return;
+		}
+		
+		// Store the entry
+		cacheMap.put(key, new Entry<>(value, insertTick.incrementAndGet()));
+		
+		// Evict older entries, if its over the limit
+		if (cacheMap.size() > maxSize) {
+			evictLeastRecentlyUsed();
+		}
+	}
+	
+	/**
+	 * @return  number of entries currently cached
+	 */
+	public int size() {
+		return cacheMap.size();
+	}
+	
+	/**
+	 * Remove all cached entries
+	 */
+	public void clear() {
+		cacheMap.clear();
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Eviction handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Evict the least recently used quarter of the cache (or more, if needed to be within
+	 * the size limit). As multiple entries may share the same access tick, exactly that
+	 * number of entries is evicted, in order of their access tick.
+	 *
+	 * Evicting in batches, ensures the sorting cost is amortized across multiple
+	 * insertions. If another thread is already evicting, this does nothing.
+	 */
+	protected void evictLeastRecentlyUsed() {
+		// Only one thread does the eviction at a time
+		if (!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		
+		try {
+			// Get the current entries, with their access ticks
+			@SuppressWarnings("unchecked")
+			Candidate<V>[] candidates = new Candidate[cacheMap.size()];
+			int count = 0;
+			for (Map.Entry<String, Entry<V>> entry : cacheMap.entrySet()) {
+				if (count >= candidates.length) {
+					break;
+				}
+				candidates[count++] = new Candidate<>(entry.getKey(), entry.getValue());
+			}
+			
+			// Number of entries to evict
+			int evictCount = Math.min(count, Math.max(count / 4, count - maxSize));
+			if (evictCount <= 0) {
+				return;
+			}
+			
+			// Remove the oldest entries
+			Arrays.sort(candidates, 0, count, Comparator.comparingLong((Candidate<V> c) -> c.tick));
+			for (int i = 0; i < evictCount; ++i) {
+				cacheMap.remove(candidates[i].key, candidates[i].entry);
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+}
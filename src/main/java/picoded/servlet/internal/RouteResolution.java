@@ -0,0 +1,146 @@
+package picoded.servlet.internal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import picoded.servlet.*;
+
+/**
+ * Internal utility class, representing the memoized routing decision
+ * of a BasePageClassMap for a given request type and path.
+ *
+ * This is resolved once, and cached by the BasePageClassMap, so that subsequent
+ * requests for the same path does not need to perform any endpoint lookups.
+ *
+ * Note that this is not modified after being resolved, and is shared across threads
+ **/
+public class RouteResolution {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Route target
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * A single resolved endpoint, with its Method / Field
+	 * and the position of its name parameters (eg. ":user")
+	 */
+	public static class Target<T> {
+		/** Endpoint path, as registered in the EndpointMap */
+		public final String endpoint;
+		
+		/** Split endpoint path */
+		public final String[] endpointPathArr;
+		
+		/** Method / Field registered with the endpoint */
+		public final T target;
+		
+		/** Index of the name parameters in the endpoint path */
+		protected final int[] nameParamIndex;
+		
+		/** Name of the name parameters (without the ":" prefix) */
+		protected final String[] nameParamKey;
+		
+		/**
+		 * Setup the target, and extract its name parameters positions
+		 *
+		 * @param  endpoint path
+		 * @param  endpointPathArr split endpoint path
+		 * @param  target Method / Field
+		 */
+		public Target(String endpoint, String[] endpointPathArr, T target) {
+			this.endpoint = endpoint;
+			this.endpointPathArr = endpointPathArr;
+			this.target = target;
+			
+			// Extract the name parameters positions
+			List<Integer> indexList = new ArrayList<>();
+			for (int index = 0; index < endpointPathArr.length; ++index) {
+				if (endpointPathArr[index].startsWith(":")) {
+					indexList.add(index);
+				}
+			}
+			nameParamIndex = new int[indexList.size()];
+			nameParamKey = new String[indexList.size()];
+			for (int i = 0; i < nameParamIndex.length; ++i) {
+				nameParamIndex[i] = indexList.get(i);
+				nameParamKey[i] = endpointPathArr[nameParamIndex[i]].substring(1);
+			}
+		}
+		
+		/**
+		 * Put the name parameters values from the request path into the paramMap.
+		 *
+		 * This is equivalent to `BasePageClassMap.processNameParameters`,
+		 * without rescanning the endpoint path.
+		 *
+		 * @param  paramMap to put the name parameters into
+		 * @param  requestPath of the request
+		 */
+		public void applyNameParameters(ServletRequestMap paramMap, String[] requestPath) {
+			for (int i = 0; i < nameParamIndex.length; ++i) {
+				paramMap.put(nameParamKey[i], requestPath[nameParamIndex[i]]);
+			}
+		}
+		
+		/**
+		 * @return true, if the endpoint path has any name parameters
+		 */
+		public boolean hasNameParameters() {
+			return nameParamIndex.length > 0;
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Resolved routes
+	//
+	///////////////////////////////////////////////////////
+	
+	/** ApiPath endpoint, null if not found */
+	public final Target<Method> api;
+	
+	/** RequestPath endpoint (filtered by request type), null if not found */
+	public final Target<Method> path;
+	
+	/** Method reroute endpoint, null if not found (or if api/path was found) */
+	public final Target<Method> methodReroute;
+	
+	/** Field reroute endpoint, null if not found (or if api/path was found) */
+	public final Target<Field> fieldReroute;
+	
+	/** Indicates if the field reroute class supports the rerouted path */
+	public final boolean fieldRerouteSupported;
+	
+	/** RequestBefore endpoints, in order of execution */
+	public final List<String> beforeEndpoints;
+	
+	/** RequestAfter endpoints, in order of execution */
+	public final List<String> afterEndpoints;
+	
+	/**
+	 * Setup the resolved routes
+	 *
+	 * @param  api endpoint
+	 * @param  path endpoint
+	 * @param  methodReroute endpoint
+	 * @param  fieldReroute endpoint
+	 * @param  fieldRerouteSupported by the field reroute class
+	 * @param  beforeEndpoints RequestBefore endpoints
+	 * @param  afterEndpoints RequestAfter endpoints
+	 */
+	public RouteResolution(Target<Method> api, Target<Method> path, Target<Method> methodReroute,
+		Target<Field> fieldReroute, boolean fieldRerouteSupported, List<String> beforeEndpoints,
+		List<String> afterEndpoints) {
+		this.api = api;
+		this.path = path;
+		this.methodReroute = methodReroute;
+		this.fieldReroute = fieldReroute;
+		this.fieldRerouteSupported = fieldRerouteSupported;
+		this.beforeEndpoints = beforeEndpoints;
+		this.afterEndpoints = afterEndpoints;
+	}
+}
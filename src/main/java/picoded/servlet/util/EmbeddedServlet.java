@@ -10,6 +10,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
@@ -26,6 +27,11 @@ import org.apache.catalina.webresources.DirResourceSet;
 import org.apache.catalina.webresources.StandardRoot;
 import org.apache.catalina.core.StandardServer;
 import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.http11.Http11Nio2Protocol;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.catalina.startup.ContextConfig;
 import org.apache.tomcat.util.scan.StandardJarScanner;
 import org.apache.catalina.LifecycleEvent;
@@ -76,6 +82,11 @@ public class EmbeddedServlet implements Closeable {
 	Path tempBaseDir = null;
 	Path tempContextDir = null;
 	
+	/**
+	 * Connector and thread pool tuning used, null for the tomcat defaults
+	 **/
+	EmbeddedServletConfig config = null;
+	
 	///////////////////////////////////////////////////////
 	//
 	// Constructor, and basic server setup+start
@@ -102,7 +113,20 @@ public class EmbeddedServlet implements Closeable {
 	 * @param   File representing either the folder, or the war file to deploy
 	 **/
 	public EmbeddedServlet(int port, String contextName, File webappPath) {
-		initTomcatInstance("", port);
+		this(port, contextName, webappPath, null);
+	}
+	
+	/**
+	 * Deploy the web application folder, with the given connector and thread pool tuning
+	 *
+	 * @param   Port to run the embedded servlet on, -1 defaults to 8080
+	 * @param   String representing the context name and path, without "/", like "ROOT"
+	 * @param   File representing either the folder, or the war file to deploy
+	 * @param   Connector and thread pool config, null for the tomcat defaults
+	 **/
+	public EmbeddedServlet(int port, String contextName, File webappPath,
+		EmbeddedServletConfig config) {
+		initTomcatInstance("", port, config);
 		addWebapp(contextName, webappPath);
 		startup();
 	}
@@ -142,7 +166,22 @@ public class EmbeddedServlet implements Closeable {
 	 * @param   Servlet path to assign class to, null defaults to "/*"
 	 **/
 	public EmbeddedServlet(int port, String contextName, Servlet servletClass, String servletPath) {
-		initTomcatInstance("", port);
+		this(port, contextName, servletClass, servletPath, null);
+	}
+	
+	/**
+	 * Implement just one class as a servlet for the whole context,
+	 * with the given connector and thread pool tuning
+	 *
+	 * @param   Port to run the embedded servlet on, -1 defaults to 8080
+	 * @param   String representing the context name and path, without "/", like "ROOT"
+	 * @param   Servlet class to use
+	 * @param   Servlet path to assign class to, null defaults to "/*"
+	 * @param   Connector and thread pool config, null for the tomcat defaults
+	 **/
+	public EmbeddedServlet(int port, String contextName, Servlet servletClass, String servletPath,
+		EmbeddedServletConfig config) {
+		initTomcatInstance("", port, config);
 		addServlet(contextName, servletClass, servletPath);
 		startup();
 	}
@@ -225,6 +264,17 @@ public class EmbeddedServlet implements Closeable {
 	 * @param  Port number to use
 	 **/
 	protected void initTomcatInstance(String tempPath, int port) {
+		initTomcatInstance(tempPath, port, null);
+	}
+	
+	/**
+	 * Does the basic default tomcat instance setup, with the connector and thread pool tuning
+	 *
+	 * @param  Temp base directory to use
+	 * @param  Port number to use
+	 * @param  Connector and thread pool config, null for the tomcat defaults
+	 **/
+	protected void initTomcatInstance(String tempPath, int port, EmbeddedServletConfig inConfig) {
 		try {
 			// Setup tomcat instance
 			tomcat = new Tomcat();
@@ -255,6 +305,11 @@ public class EmbeddedServlet implements Closeable {
 			}
 			tomcat.setBaseDir(tempPath);
 			
+			// Connector setup, if configured (else tomcat lazily setup its default)
+			if (inConfig != null) {
+				initConnector(port > 0 ? port : 8080, inConfig);
+			}
+			
 			// Possible things that may change in the future
 			//--------------------------------------------------------------------------
 			//tomcat.getHost().setAppBase(mWorkingDir);
@@ -289,6 +344,95 @@ public class EmbeddedServlet implements Closeable {
 		}
 	}
 	
+	/**
+	 * Setup the connector (and its shared thread pool) for the given config.
+	 * This must be called before tomcat sets up its default connector
+	 *
+	 * @param  Port number to use
+	 * @param  Connector and thread pool config
+	 **/
+	protected void initConnector(int port, EmbeddedServletConfig inConfig) {
+		config = inConfig;
+		
+		// Connector with the configured protocol
+		Connector connector = new Connector(inConfig.protocolClassName());
+		connector.setPort(port);
+		if (connector.getProtocolHandlerClassName().contains("Apr")) {
+			tomcat.getServer().addLifecycleListener(new AprLifecycleListener());
+		}
+		
+		// NIO2 needs exclusive access to its executor, so it uses the connector internal
+		// thread pool instead of the shared thread pool (without the queue size limit)
+		if (inConfig.useExecutor() && connector.getProtocolHandler() instanceof Http11Nio2Protocol) {
+			if (inConfig.minThreads > 0) {
+				connector.setProperty("minSpareThreads", String.valueOf(inConfig.minThreads));
+			}
+			if (inConfig.maxThreads > 0) {
+				connector.setProperty("maxThreads", String.valueOf(inConfig.maxThreads));
+			}
+		} else if (inConfig.useExecutor()) {
+			// Shared thread pool, which is started (and stopped) by the service
+			StandardThreadExecutor executor = new StandardThreadExecutor();
+			executor.setName("embeddedServletThreadPool");
+			executor.setNamePrefix("embedded-exec-");
+			if (inConfig.minThreads > 0) {
+				executor.setMinSpareThreads(inConfig.minThreads);
+			}
+			if (inConfig.maxThreads > 0) {
+				executor.setMaxThreads(inConfig.maxThreads);
+			}
+			if (inConfig.maxQueueSize > 0) {
+				executor.setMaxQueueSize(inConfig.maxQueueSize);
+			}
+			if (inConfig.threadIdleTimeout > 0) {
+				executor.setMaxIdleTime(inConfig.threadIdleTimeout);
+			}
+			tomcat.getService().addExecutor(executor);
+			((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+		}
+		
+		// Connection handling, keep-alive, socket, and compression properties
+		for (Map.Entry<String, String> entry : inConfig.connectorPropertyMap().entrySet()) {
+			if (!connector.setProperty(entry.getKey(), entry.getValue())) {
+				throw new IllegalArgumentException("Unknown connector property : " + entry.getKey());
+			}
+		}
+		
+		// HTTP/2 upgrade protocol (h2c)
+		if (inConfig.http2) {
+			Http2Protocol http2 = new Http2Protocol();
+			if (inConfig.http2MaxConcurrentStreams > 0) {
+				http2.setMaxConcurrentStreams(inConfig.http2MaxConcurrentStreams);
+			}
+			if (inConfig.http2MaxConcurrentStreamExecution > 0) {
+				http2.setMaxConcurrentStreamExecution(inConfig.http2MaxConcurrentStreamExecution);
+			}
+			if (inConfig.compression != null && !inConfig.compression.isEmpty()) {
+				http2.setCompression(inConfig.compression);
+			}
+			if (inConfig.compressionMinSize > 0) {
+				http2.setCompressionMinSize(inConfig.compressionMinSize);
+			}
+			if (inConfig.compressibleMimeType != null && !inConfig.compressibleMimeType.isEmpty()) {
+				http2.setCompressibleMimeType(inConfig.compressibleMimeType);
+			}
+			connector.addUpgradeProtocol(http2);
+		}
+		
+		// Use it as the tomcat connector
+		tomcat.getService().addConnector(connector);
+		tomcat.setConnector(connector);
+	}
+	
+	/**
+	 * Get the connector used
+	 *
+	 * @return  the tomcat connector
+	 **/
+	public Connector getConnector() {
+		return tomcat.getConnector();
+	}
+	
 	/**
 	 * Normalize the context name, and provides its actual context path
 	 *
@@ -384,8 +528,9 @@ public class EmbeddedServlet implements Closeable {
 			// Setup context
 			context = tomcat.addContext(contextPath, tempContextDir.toString());
 			
-			// Setup servlet class
-			Tomcat.addServlet(context, "ServletApp", serverClass);
+			// Setup servlet class, with async support (used by async pages, and file output)
+			Wrapper wrapper = Tomcat.addServlet(context, "ServletApp", serverClass);
+			wrapper.setAsyncSupported(true);
 			
 			// And link the path
 			if (serverPath == null) {
@@ -425,6 +570,11 @@ public class EmbeddedServlet implements Closeable {
 	 * args[0] - servlet static (parent of WEB-INF) folder. Default ".."
 	 * args[1] - context name. Default "ROOT"
 	 * args[2] - port number. Default "8080"
+	 *
+	 * Along with optional connector and thread pool tuning flags, in the format of "--name=value",
+	 * using the EmbeddedServletConfig field names. For example
+	 *
+	 * `--protocol=nio2 --http2=true --maxThreads=400 --acceptCount=200 --compression=on`
 	 **/
 	public static void main(String[] args) {
 		
@@ -432,21 +582,39 @@ public class EmbeddedServlet implements Closeable {
 		String servletFolder = "..";
 		String contextName = "ROOT";
 		String portNumber = "8080";
+		EmbeddedServletConfig config = null;
+		
+		// Split out the "--name=value" flags, from the positional arguments
+		List<String> positional = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				int eq = arg.indexOf('=');
+				if (eq < 0) {
+					throw new IllegalArgumentException("Expected a '--name=value' flag : " + arg);
+				}
+				if (config == null) {
+					config = new EmbeddedServletConfig();
+				}
+				config.set(arg.substring(2, eq), arg.substring(eq + 1));
+			} else {
+				positional.add(arg);
+			}
+		}
 		
 		// Arguments passing
-		if (args.length > 0) {
-			servletFolder = args[0];
+		if (positional.size() > 0) {
+			servletFolder = positional.get(0);
 		}
-		if (args.length > 1) {
-			contextName = args[1];
+		if (positional.size() > 1) {
+			contextName = positional.get(1);
 		}
-		if (args.length > 2) {
-			portNumber = args[2];
+		if (positional.size() > 2) {
+			portNumber = positional.get(2);
 		}
 		
 		// Run the servlet
 		EmbeddedServlet servlet = new EmbeddedServlet(GenericConvert.toInt(portNumber), contextName,
-			new File(servletFolder));
+			new File(servletFolder), config);
 		
 		// Wait and continue
 		servlet.await();
@@ -0,0 +1,381 @@
+package picoded.servlet.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import picoded.core.conv.GenericConvert;
+
+/**
+ * Connector, and thread pool tuning for EmbeddedServlet.
+ *
+ * By default (without a config), EmbeddedServlet uses whatever tomcat defaults to.
+ * For any of the numeric settings below, 0 (default) leaves it to the tomcat default.
+ *
+ * ```
+ * EmbeddedServletConfig config = new EmbeddedServletConfig() //
+ * 	.protocol("nio2").threads(10, 400).maxQueueSize(1000) //
+ * 	.maxConnections(10000).acceptCount(200);
+ * EmbeddedServlet servlet = new EmbeddedServlet(8080, "ROOT", webappFolder, config);
+ * ```
+ *
+ * The same settings can be passed as `--name=value` flags to `EmbeddedServlet.main`, see `set(name, value)`
+ **/
+public class EmbeddedServletConfig {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Protocol
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Connector protocol to use, either "nio", "nio2", "apr", or the protocol handler class name.
+	 * Null (default) uses the tomcat default "HTTP/1.1" (which is NIO, unless APR is available)
+	 *
+	 * Note that "apr" requires the tomcat native library to be installed
+	 **/
+	public String protocol = null;
+	
+	/**
+	 * Enable HTTP/2 on the connector, via the h2c (cleartext) upgrade, or prior knowledge.
+	 * Requests are multiplexed over a single connection, with header compression.
+	 *
+	 * Note that for HTTP/2 over TLS (h2), the connector needs to be setup with TLS and ALPN,
+	 * which is out of scope for EmbeddedServlet.
+	 **/
+	public boolean http2 = false;
+	
+	/** Maximum number of concurrent streams per HTTP/2 connection */
+	public int http2MaxConcurrentStreams = 0;
+	
+	/** Maximum number of concurrently executing streams per HTTP/2 connection */
+	public int http2MaxConcurrentStreamExecution = 0;
+	
+	///////////////////////////////////////////////////////
+	//
+	// Shared thread pool (executor)
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Minimum number of threads kept alive in the thread pool.
+	 *
+	 * Note that a shared StandardThreadExecutor is used (instead of the connector
+	 * internal thread pool), only if any of the thread pool settings is configured.
+	 * Except for NIO2, which needs exclusive access to its thread pool, and hence only
+	 * supports the min / max threads setting
+	 **/
+	public int minThreads = 0;
+	
+	/** Maximum number of threads in the thread pool */
+	public int maxThreads = 0;
+	
+	/** Maximum number of queued requests, when all the threads are busy */
+	public int maxQueueSize = 0;
+	
+	/** Time (in ms) an idle thread is kept alive, above the minimum number of threads */
+	public int threadIdleTimeout = 0;
+	
+	///////////////////////////////////////////////////////
+	//
+	// Connection handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Maximum number of connections accepted and processed at any given time, -1 for unlimited */
+	public int maxConnections = 0;
+	
+	/** Maximum number of queued incoming connections, when maxConnections is reached */
+	public int acceptCount = 0;
+	
+	/** Time (in ms) to wait for the request line, after the connection is accepted */
+	public int connectionTimeout = 0;
+	
+	/** Time (in ms) to wait for the next request on a keep-alive connection */
+	public int keepAliveTimeout = 0;
+	
+	/** Maximum number of requests per keep-alive connection, -1 for unlimited, 1 to disable keep-alive */
+	public int maxKeepAliveRequests = 0;
+	
+	/** Socket receive buffer size, in bytes */
+	public int socketReceiveBufferSize = 0;
+	
+	/** Socket send buffer size, in bytes */
+	public int socketSendBufferSize = 0;
+	
+	///////////////////////////////////////////////////////
+	//
+	// Response compression
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Connector response compression, either "off", "on", or "force".
+	 * Null (default) uses the tomcat default (which is "off").
+	 *
+	 * This also applies to HTTP/2 (if enabled)
+	 **/
+	public String compression = null;
+	
+	/** Minimum response size (in bytes) before it is compressed */
+	public int compressionMinSize = 0;
+	
+	/** Comma separated list of compressible MIME types, null for the tomcat default */
+	public String compressibleMimeType = null;
+	
+	/**
+	 * Any additional connector (or protocol handler) properties, applied as it is.
+	 * For example "socket.tcpNoDelay", or "maxHttpHeaderSize"
+	 **/
+	public Map<String, String> connectorProperties = new LinkedHashMap<>();
+	
+	///////////////////////////////////////////////////////
+	//
+	// Builder style setters
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @param  protocol to use, either "nio", "nio2", "apr", or the protocol handler class name
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig protocol(String protocol) {
+		this.protocol = protocol;
+		return this;
+	}
+	
+	/**
+	 * @param  enable HTTP/2 (h2c) on the connector
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig http2(boolean enable) {
+		this.http2 = enable;
+		return this;
+	}
+	
+	/**
+	 * @param  minThreads to keep alive in the thread pool
+	 * @param  maxThreads in the thread pool
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig threads(int minThreads, int maxThreads) {
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		return this;
+	}
+	
+	/**
+	 * @param  maxQueueSize of requests waiting for a thread
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig maxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+		return this;
+	}
+	
+	/**
+	 * @param  maxConnections accepted and processed at any given time
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig maxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		return this;
+	}
+	
+	/**
+	 * @param  acceptCount of queued incoming connections
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig acceptCount(int acceptCount) {
+		this.acceptCount = acceptCount;
+		return this;
+	}
+	
+	/**
+	 * @param  keepAliveTimeout in ms
+	 * @param  maxKeepAliveRequests per connection
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig keepAlive(int keepAliveTimeout, int maxKeepAliveRequests) {
+		this.keepAliveTimeout = keepAliveTimeout;
+		this.maxKeepAliveRequests = maxKeepAliveRequests;
+		return this;
+	}
+	
+	/**
+	 * @param  receiveBufferSize of the socket, in bytes
+	 * @param  sendBufferSize of the socket, in bytes
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig socketBufferSize(int receiveBufferSize, int sendBufferSize) {
+		this.socketReceiveBufferSize = receiveBufferSize;
+		this.socketSendBufferSize = sendBufferSize;
+		return this;
+	}
+	
+	/**
+	 * @param  enable response compression on the connector
+	 * @param  minSize of the response (in bytes) before it is compressed, 0 for the tomcat default
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig compression(boolean enable, int minSize) {
+		this.compression = enable ? "on" : "off";
+		this.compressionMinSize = minSize;
+		return this;
+	}
+	
+	/**
+	 * Set a setting by its name (as used by the CLI flags), the name is the field name
+	 * of this class (eg. "maxThreads"). Unknown names are treated as connector properties.
+	 *
+	 * @param  name of the setting
+	 * @param  value of the setting
+	 *
+	 * @return  self
+	 */
+	public EmbeddedServletConfig set(String name, String value) {
+		switch (name) {
+		case "protocol":
+			protocol = value;
+			break;
+		case "http2":
+			http2 = GenericConvert.toBoolean(value, false);
+			break;
+		case "http2MaxConcurrentStreams":
+			http2MaxConcurrentStreams = GenericConvert.toInt(value, 0);
+			break;
+		case "http2MaxConcurrentStreamExecution":
+			http2MaxConcurrentStreamExecution = GenericConvert.toInt(value, 0);
+			break;
+		case "minThreads":
+			minThreads = GenericConvert.toInt(value, 0);
+			break;
+		case "maxThreads":
+			maxThreads = GenericConvert.toInt(value, 0);
+			break;
+		case "maxQueueSize":
+			maxQueueSize = GenericConvert.toInt(value, 0);
+			break;
+		case "threadIdleTimeout":
+			threadIdleTimeout = GenericConvert.toInt(value, 0);
+			break;
+		case "maxConnections":
+			maxConnections = GenericConvert.toInt(value, 0);
+			break;
+		case "acceptCount":
+			acceptCount = GenericConvert.toInt(value, 0);
+			break;
+		case "connectionTimeout":
+			connectionTimeout = GenericConvert.toInt(value, 0);
+			break;
+		case "keepAliveTimeout":
+			keepAliveTimeout = GenericConvert.toInt(value, 0);
+			break;
+		case "maxKeepAliveRequests":
+			maxKeepAliveRequests = GenericConvert.toInt(value, 0);
+			break;
+		case "socketReceiveBufferSize":
+			socketReceiveBufferSize = GenericConvert.toInt(value, 0);
+			break;
+		case "socketSendBufferSize":
+			socketSendBufferSize = GenericConvert.toInt(value, 0);
+			break;
+		case "compression":
+			compression = value;
+			break;
+		case "compressionMinSize":
+			compressionMinSize = GenericConvert.toInt(value, 0);
+			break;
+		case "compressibleMimeType":
+			compressibleMimeType = value;
+			break;
+		default:
+			connectorProperties.put(name, value);
+		}
+		return this;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Derived values
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @return  the protocol handler class name (or tomcat protocol name) to use
+	 */
+	public String protocolClassName() {
+		if (protocol == null || protocol.isEmpty()) {
+			return "HTTP/1.1";
+		}
+		switch (protocol.toLowerCase()) {
+		case "nio":
+			return "org.apache.coyote.http11.Http11NioProtocol";
+		case "nio2":
+			return "org.apache.coyote.http11.Http11Nio2Protocol";
+		case "apr":
+			return "org.apache.coyote.http11.Http11AprProtocol";
+		default:
+			return protocol;
+		}
+	}
+	
+	/**
+	 * @return  true if a shared thread pool executor should be used
+	 */
+	public boolean useExecutor() {
+		return minThreads > 0 || maxThreads > 0 || maxQueueSize > 0 || threadIdleTimeout > 0;
+	}
+	
+	/**
+	 * @return  connector properties to apply, for the configured settings
+	 */
+	public Map<String, String> connectorPropertyMap() {
+		Map<String, String> ret = new LinkedHashMap<>();
+		putIfSet(ret, "maxConnections", maxConnections);
+		putIfSet(ret, "acceptCount", acceptCount);
+		putIfSet(ret, "connectionTimeout", connectionTimeout);
+		putIfSet(ret, "keepAliveTimeout", keepAliveTimeout);
+		putIfSet(ret, "maxKeepAliveRequests", maxKeepAliveRequests);
+		putIfSet(ret, "socket.rxBufSize", socketReceiveBufferSize);
+		putIfSet(ret, "socket.txBufSize", socketSendBufferSize);
+		ret.putAll(compressionPropertyMap());
+		if (connectorProperties != null) {
+			ret.putAll(connectorProperties);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return  compression properties to apply (to the connector, and HTTP/2), for the configured settings
+	 */
+	public Map<String, String> compressionPropertyMap() {
+		Map<String, String> ret = new LinkedHashMap<>();
+		if (compression != null && !compression.isEmpty()) {
+			ret.put("compression", compression);
+		}
+		putIfSet(ret, "compressionMinSize", compressionMinSize);
+		if (compressibleMimeType != null && !compressibleMimeType.isEmpty()) {
+			ret.put("compressibleMimeType", compressibleMimeType);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Put the value if its configured (non zero)
+	 */
+	private static void putIfSet(Map<String, String> map, String name, int value) {
+		if (value != 0) {
+			map.put(name, String.valueOf(value));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package picoded.servlet.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Non blocking file range writer, used by FileServlet in its async output mode.
+ *
+ * This writes the file range in chunks, only when the servlet output stream is ready,
+ * so that the request thread is released back to the container while the download
+ * is in progress. The async context is completed once the full range is written.
+ *
+ * The file channel is closed when the async request completes (including on errors,
+ * or timeouts), as this is also registered as its AsyncListener.
+ **/
+public class FileAsyncWriter implements WriteListener, AsyncListener {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Async context of the request */
+	protected final AsyncContext asyncContext;
+	
+	/** Output stream to write to */
+	protected final ServletOutputStream output;
+	
+	/** File to read from */
+	protected final FileChannel input;
+	
+	/** Chunk buffer */
+	protected final ByteBuffer buffer;
+	
+	/** Current file position */
+	protected long position;
+	
+	/** Remaining bytes to write */
+	protected long remaining;
+	
+	/**
+	 * Setup the writer, for the given file range
+	 *
+	 * @param  asyncContext of the request
+	 * @param  output stream to write to
+	 * @param  input file to read from
+	 * @param  start of the byte range
+	 * @param  length of the byte range
+	 * @param  chunkSize of each write
+	 */
+	public FileAsyncWriter(AsyncContext asyncContext, ServletOutputStream output,
+		FileChannel input, long start, long length, int chunkSize) {
+		this.asyncContext = asyncContext;
+		this.output = output;
+		this.input = input;
+		this.position = start;
+		this.remaining = length;
+		this.buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(chunkSize, length)));
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// WriteListener implementation
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Write the file chunks, until the output stream is not ready (or the range is written)
+	 */
+	@Override
+	public void onWritePossible() throws IOException {
+		while (output.isReady()) {
+			// Range fully written
+			if (remaining <= 0) {
+				asyncContext.complete();
+				return;
+			}
+			
+			// Read the next chunk
+			buffer.clear();
+			if (buffer.remaining() > remaining) {
+				buffer.limit((int) remaining);
+			}
+			int read = input.read(buffer, position);
+			if (read < 0) {
+				// File was truncated while being written
+				asyncContext.complete();
+				return;
+			}
+			
+			// And write it
+			output.write(buffer.array(), 0, read);
+			position += read;
+			remaining -= read;
+		}
+	}
+	
+	/**
+	 * Output failed (eg. client disconnected), complete the request
+	 */
+	@Override
+	public void onError(Throwable t) {
+		closeInput();
+		try {
+			asyncContext.complete();
+		} catch (IllegalStateException e) {
+			// Already completed
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// AsyncListener implementation
+	//
+	///////////////////////////////////////////////////////
+	
+	@Override
+	public void onComplete(AsyncEvent event) {
+		closeInput();
+	}
+	
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		closeInput();
+	}
+	
+	@Override
+	public void onError(AsyncEvent event) {
+		closeInput();
+	}
+	
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+		// Does nothing
+	}
+	
+	/**
+	 * Close the file input (ignoring any errors)
+	 */
+	protected void closeInput() {
+		try {
+			input.close();
+		} catch (IOException e) {
+			// Ignore, as there is nothing else to do
+		}
+	}
+}
@@ -3,27 +3,39 @@ package picoded.servlet.util;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponseWrapper;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import picoded.servlet.*;
+import picoded.servlet.internal.HttpHeaderUtil;
 
 /**
  * Just a simple implmentation of a file server in java, which supports the following
  *
  * + Client side file Caching
- * + GZIP of data
+ * + GZIP of data (compressed once and cached, or precompressed gzip / brotli files)
+ * + Zero-copy file transfer (via tomcat sendfile, or FileChannel.transferTo)
+ * + In-memory caching of frequently used small files
+ * + Non blocking output of large files (optional, via Servlet 3.1 async WriteListener)
  *
  * # If used directly in WEB.xml
  *
@@ -59,6 +71,14 @@ public class FileServlet extends HttpServlet {
 	
 	private static final String MULTIPART_BYTERANGES = "MULTIPART_BYTERANGES";
 	
+	/**
+	 * Tomcat sendfile request attributes, see `org.apache.catalina.Globals`
+	 **/
+	private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+	
 	///////////////////////////////////////////////////////
 	//
 	// Instance variables
@@ -76,6 +96,12 @@ public class FileServlet extends HttpServlet {
 	 **/
 	public File baseFolder = null;
 	
+	/**
+	 * The archive (zip / jar) to serve the files from, instead of the base folder.
+	 * See `FileServletArchive`, and `fromClasspath`
+	 **/
+	public FileServletArchive archive = null;
+	
 	/**
 	 * The default expire time (disabled)
 	 **/
@@ -91,6 +117,112 @@ public class FileServlet extends HttpServlet {
 	 **/
 	public int gzipBufferSize = 10240;
 	
+	/**
+	 * Use the servlet container sendfile support (if avaliable), for uncompressed
+	 * full / single range responses, so that the file is sent by the kernel directly
+	 * without being copied through the JVM heap.
+	 *
+	 * This is currently supported by tomcat NIO / NIO2 / APR connectors.
+	 **/
+	public boolean useSendfile = true;
+	
+	/**
+	 * Minimum file range size to use sendfile for, as smaller files
+	 * are more efficently written directly (same as tomcat default of 48KB)
+	 **/
+	public long sendfileMinSize = 48 * 1024L;
+	
+	/**
+	 * Serve small to medium sized files from an in-memory cache (see FileServletCache),
+	 * instead of reopening and rereading the file on every request
+	 **/
+	public boolean useMemoryCache = true;
+	
+	/**
+	 * Maximum size of a single file to keep in the memory cache
+	 **/
+	public long memoryCacheMaxFileSize = 1024 * 1024L;
+	
+	/**
+	 * Maximum total size of all files in the memory cache
+	 **/
+	public long memoryCacheMaxTotalSize = 64 * 1024 * 1024L;
+	
+	/**
+	 * Serve precompressed sidecar files (eg. "app.js.br" / "app.js.gz") if present,
+	 * and accepted by the client (with Content-Encoding "br" / "gzip")
+	 **/
+	public boolean usePrecompressedFiles = true;
+	
+	/**
+	 * Compress files once, and keep the gzip content in the memory cache,
+	 * for files within the memory cache size limit (instead of compressing on every request)
+	 **/
+	public boolean useCompressedCache = true;
+	
+	/**
+	 * Use a strong content hash ETag, for files within the memory cache size limit.
+	 * So that the ETag only changes when the content does (and not its timestamp)
+	 **/
+	public boolean useContentHashETag = true;
+	
+	/**
+	 * Write large files asynchronously, via a non blocking WriteListener (see FileAsyncWriter),
+	 * releasing the request thread while the file is being downloaded.
+	 *
+	 * This is only used if the request supports async processing, and the file is not sent
+	 * via sendfile (which already does not block the request thread).
+	 **/
+	public boolean useAsyncOutput = false;
+	
+	/**
+	 * Minimum file range size to use async output for
+	 **/
+	public long asyncMinSize = 1024 * 1024L;
+	
+	/**
+	 * Size of each chunk written in async output mode
+	 **/
+	public int asyncChunkSize = 64 * 1024;
+	
+	/**
+	 * Async output timeout in milliseconds, 0 (default) for no timeout
+	 **/
+	public long asyncTimeout = 0;
+	
+	/**
+	 * Maximum number of ranges in a single Range request, requests with more ranges
+	 * are served the full file instead (to prevent response amplification)
+	 **/
+	public int maxRangeCount = 16;
+	
+	/**
+	 * The memory cache, initialized on first use
+	 **/
+	protected volatile FileServletCache _memoryCache = null;
+	
+	/**
+	 * Cache the file metadata (existence, size, timestamp, MIME type and ETag) and request path
+	 * resolution for a short time, so that repeated requests (especially 304 revalidations)
+	 * do not need any filesystem lookups. File changes are picked up after the TTL.
+	 **/
+	public boolean useStatCache = true;
+	
+	/**
+	 * Time to live of the stat cache entries, in milliseconds
+	 **/
+	public long statCacheTTL = 2000L;
+	
+	/**
+	 * Maximum number of stat cache entries
+	 **/
+	public int statCacheMaxEntries = 10000;
+	
+	/**
+	 * The stat cache, initialized on first use
+	 **/
+	protected volatile FileServletStatCache _statCache = null;
+	
 	///////////////////////////////////////////////////////
 	//
 	// Constructor
@@ -126,6 +258,46 @@ public class FileServlet extends HttpServlet {
 		validateBasePath();
 	}
 	
+	/**
+	 * Custom constructor with an indexed archive (zip / jar)
+	 **/
+	public FileServlet(FileServletArchive inArchive) {
+		super();
+		// Setup
+		archive = inArchive;
+	}
+	
+	/**
+	 * Setup a FileServlet for the given classpath resource folder. This serves the files directly
+	 * from its jar archive (without extracting it), or from its directory for exploded classpaths.
+	 *
+	 * @param  Classpath resource folder to serve (eg. "static")
+	 *
+	 * @return FileServlet of the resource folder
+	 *
+	 * @throws IOException if the resource folder is not found, or cannot be read
+	 **/
+	public static FileServlet fromClasspath(String resourcePath) throws IOException {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = FileServlet.class.getClassLoader();
+		}
+		
+		// Jar archive
+		FileServletArchive classpathArchive = FileServletArchive.fromClasspath(classLoader,
+			resourcePath);
+		if (classpathArchive != null) {
+			return new FileServlet(classpathArchive);
+		}
+		
+		// Exploded classpath directory
+		try {
+			return new FileServlet(new File(classLoader.getResource(resourcePath).toURI()));
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Unsupported classpath resource : " + resourcePath, e);
+		}
+	}
+	
 	///////////////////////////////////////////////////////
 	//
 	// Core functions
@@ -177,39 +349,95 @@ public class FileServlet extends HttpServlet {
 			return;
 		}
 		
+		// Serve from the archive index, if configured
+		if (archive != null) {
+			processArchiveRequest(servletRequest, servletResponse, headersOnly, requestPath);
+			return;
+		}
+		
+		// Resolve the file (or use its cached metadata), and validate it
+		FileServletStatCache.Stat stat = resolveRequestPath(requestPath);
+		if (!stat.isFile()) {
+			// 404 error if file not found
+			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		// Output the file
+		processRequest(servletRequest, servletResponse, headersOnly, stat);
+	}
+	
+	/**
+	 * Resolve the request path to its file metadata, from the stat cache if possible.
+	 * Invalid or protected paths resolves to a not found entry.
+	 *
+	 * @param  Request file path
+	 *
+	 * @return  the resolved file metadata
+	 **/
+	protected FileServletStatCache.Stat resolveRequestPath(String requestPath) throws IOException {
+		// Get the cached resolution, if possible
+		FileServletStatCache cache = useStatCache ? statCache() : null;
+		FileServletStatCache.Stat ret = (cache != null) ? cache.getResolved(requestPath) : null;
+		if (ret != null) {
+			return ret;
+		}
+		
+		// Resolve the file, and its index.html for directories
+		File file = resolveRequestFile(requestPath);
+		ret = fileStat(file);
+		if (ret.directory) {
+			ret = fileStat(new File(file, "index.html"));
+		}
+		
+		// And cache it
+		if (cache != null) {
+			cache.putResolved(requestPath, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Resolve the request path to its file, without checking if it exists
+	 *
+	 * @param  Request file path
+	 *
+	 * @return  the file, or null if the path is invalid (or protected)
+	 **/
+	protected File resolveRequestFile(String requestPath) throws IOException {
+		requestPath = validateRequestPath(requestPath);
+		return (requestPath != null) ? new File(basePath, requestPath) : null;
+	}
+	
+	/**
+	 * URL decode and validate the request path
+	 *
+	 * @param  Request file path
+	 *
+	 * @return  the decoded request path, or null if the path is invalid (or protected)
+	 **/
+	protected String validateRequestPath(String requestPath) throws IOException {
+		
 		// URL Decode the requestPath
 		requestPath = URLDecoder.decode(requestPath, "UTF-8");
 		
 		// Does some path cleanup (for what???)
 		// requestedFile.replaceAll("\/\.\/", "/").replaceAll("\/\/","\/");
 		
-		// 404 error if directory traversal / esclation as a security measure
+		// null (404 error) if directory traversal / esclation as a security measure
 		// Also blocks ".private" file access
 		if (requestPath.contains("/.") || requestPath.contains("..")) {
-			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
-			return;
+			return null;
 		}
 		
-		// 404 error if accessing possible java servlet protected files
+		// null (404 error) if accessing possible java servlet protected files
 		String requestPath_lowerCase = requestPath.toLowerCase();
 		if (requestPath_lowerCase.contains("/web-inf/")
 			|| requestPath_lowerCase.contains("/meta-inf/")) {
-			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
-			return;
-		}
-		
-		// Fetch THE file, and validate
-		//-------------------------------------------
-		File file = new File(basePath, requestPath);
-		
-		// Index.html support for directory request
-		//-------------------------------------------
-		if (file.isDirectory()) {
-			file = new File(file, "index.html");
+			return null;
 		}
 		
-		// Validate the file and output it
-		processRequest(servletRequest, servletResponse, headersOnly, file);
+		return requestPath;
 	}
 	
 	/**
@@ -225,65 +453,107 @@ public class FileServlet extends HttpServlet {
 		HttpServletResponse servletResponse, //
 		boolean headersOnly, //
 		File file) throws IOException {
+		processRequest(servletRequest, servletResponse, headersOnly, fileStat(file));
+	}
+	
+	/**
+	 * Process the full file fetch request
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  Indicates if data should be return (HEAD) request (instead of GET)
+	 * @param  Request file metadata
+	 **/
+	protected void processRequest( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		boolean headersOnly, //
+		FileServletStatCache.Stat stat) throws IOException {
 		
 		// Validate the file
 		//-------------------------------------------
 		
 		// Check if file exists, or is a directory
-		if (file == null || !file.exists() || file.isDirectory()) {
+		if (!stat.isFile()) {
 			// 404 error if file not found
 			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
 		
-		// Cache Headers handling and validation
-		//-------------------------------------------
-		
-		// Prepare some variables. The ETag is an unique identifier of the file.
+		// Prepare some variables.
+		File file = stat.file;
 		String fileName = file.getName();
-		long length = file.length();
-		long lastModified = file.lastModified();
-		String eTag = fileName + "-" + length + "-" + lastModified;
+		long length = stat.length;
+		long lastModified = stat.lastModified;
 		long expires = (fileExpireTime > 0) ? (System.currentTimeMillis() + fileExpireTime) : 0;
 		
-		// If-None-Match header should contain "*" or ETag. If so, then return 304.
-		String ifNoneMatch = servletRequest.getHeader("If-None-Match");
-		if (ifNoneMatch != null && headerMatch(ifNoneMatch, eTag)) {
-			servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-			servletResponse.setHeader("ETag", eTag); // Required in 304.
-			if (expires > 0) {
-				servletResponse.setDateHeader("Expires", expires);
-			}
-			return;
+		// Download type check
+		//-------------------------------------------
+		
+		// Get content type by file name (once per file metadata)
+		String contentType = stat.contentType;
+		if (contentType == null) {
+			contentType = mimeType(servletRequest, fileName);
+			stat.contentType = contentType;
 		}
 		
-		// If-Modified-Since header should be greater than LastModified. If so, then return 304.
-		// This header is ignored if any If-None-Match header is specified.
-		long ifModifiedSince = servletRequest.getDateHeader("If-Modified-Since");
-		if (ifNoneMatch == null && ifModifiedSince != -1
-			&& ifModifiedSince + cacheNetworkJitterTolerance > lastModified) {
-			servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-			servletResponse.setHeader("ETag", eTag); // Required in 304.
-			if (expires > 0) {
-				servletResponse.setDateHeader("Expires", expires);
+		// Check for compression support and disposition, before the content type is expanded
+		boolean compressible = isCompressibleType(contentType);
+		String disposition = contentDisposition(servletRequest, contentType);
+		contentType = responseContentType(contentType);
+		
+		// Compressed content variant handling
+		//-------------------------------------------
+		
+		// Precompressed sidecar files (eg. "app.js.br" / "app.js.gz") if present
+		ContentVariant brotliVariant = precompressedVariant(file, "br", lastModified);
+		ContentVariant gzipVariant = precompressedVariant(file, "gzip", lastModified);
+		
+		// Indicates if the response varies by Accept-Encoding
+		boolean varyEncoding = compressible || brotliVariant != null || gzipVariant != null;
+		
+		// Select the compressed variant (if accepted by the client). This is not used
+		// for range requests, as the ranges apply to the uncompressed file.
+		ContentVariant variant = null;
+		String acceptEncoding = servletRequest.getHeader("Accept-Encoding");
+		if (acceptEncoding != null && servletRequest.getHeader("Range") == null) {
+			if (brotliVariant != null && HttpHeaderUtil.acceptsEncoding(acceptEncoding, "br")) {
+				variant = brotliVariant;
+			} else if (HttpHeaderUtil.acceptsEncoding(acceptEncoding, "gzip")) {
+				if (gzipVariant != null) {
+					variant = gzipVariant;
+				} else if (compressible) {
+					variant = gzipCompressedVariant(file, length, lastModified);
+				}
 			}
-			return;
 		}
 		
-		// Download resume validation
+		// Cache Headers handling and validation
 		//-------------------------------------------
 		
-		// If-Match header should contain "*" or ETag. If not, then return 412.
-		String ifMatch = servletRequest.getHeader("If-Match");
-		if (ifMatch != null && !headerMatch(ifMatch, eTag)) {
-			servletResponse.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
-			return;
+		// The ETag is an unique identifier of the file (and its compressed variant).
+		// Which is a strong content hash where avaliable, else its name, length and timestamp.
+		// This is computed once per file metadata (without its encoding).
+		String eTag = stat.eTag;
+		if (eTag == null) {
+			String contentHash = contentHash(file, length, lastModified);
+			eTag = (contentHash != null) ? "\"" + contentHash + "\"" : fileName + "-" + length + "-"
+				+ lastModified;
+			stat.eTag = eTag;
 		}
 		
-		// If-Unmodified-Since header should be greater than LastModified. If not, then return 412.
-		long ifUnmodifiedSince = servletRequest.getDateHeader("If-Unmodified-Since");
-		if (ifUnmodifiedSince != -1 && ifUnmodifiedSince + 1000 <= lastModified) {
-			servletResponse.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+		// Append the content encoding (within the quotes of a content hash ETag)
+		if (variant != null) {
+			if (eTag.endsWith("\"")) {
+				eTag = eTag.substring(0, eTag.length() - 1) + "-" + variant.encoding + "\"";
+			} else {
+				eTag = eTag + "-" + variant.encoding;
+			}
+		}
+		
+		// Validate the conditional (cache and download resume) headers, and return 304 / 412
+		if (handlePreconditions(servletRequest, servletResponse, eTag, lastModified, varyEncoding,
+			expires)) {
 			return;
 		}
 		
@@ -292,153 +562,67 @@ public class FileServlet extends HttpServlet {
 		
 		// Prepare some variables. The full Range represents the complete file.
 		Range full = new Range(0, length - 1, length);
-		List<Range> ranges = new ArrayList<Range>();
-		
-		// Validate and process Range and If-Range headers.
-		String range = servletRequest.getHeader("Range");
-		if (range != null) {
-			// Range header should match format "bytes=n-n,n-n,n-n...". If not, then return 416.
-			if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
-				servletResponse.setHeader("Content-Range", "bytes */" + length); // Required in 416.
-				servletResponse.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-				return;
-			}
-			
-			// If-Range header should either match ETag or be greater then LastModified. If not,
-			// then return full file.
-			String ifRange = servletRequest.getHeader("If-Range");
-			if (ifRange != null && !ifRange.equals(eTag)) {
-				try {
-					long ifRangeTime = servletRequest.getDateHeader("If-Range"); // Throws IAE if invalid.
-					if (ifRangeTime != -1 && ifRangeTime + 1000 < lastModified) {
-						ranges.add(full);
-					}
-				} catch (IllegalArgumentException ignore) {
-					ranges.add(full);
-				}
-			}
-			
-			// If any valid If-Range header, then process each part of byte range.
-			if (ranges.isEmpty()) {
-				for (String part : range.substring(6).split(",")) {
-					// Assuming a file with length of 100, the following examples returns bytes at:
-					// 50-80 (50 to 80), 40- (40 to length=100), -20 (length-20=80 to length=100).
-					long start = sublong(part, 0, part.indexOf("-"));
-					long end = sublong(part, part.indexOf("-") + 1, part.length());
-					
-					if (start == -1) {
-						start = length - end;
-						end = length - 1;
-					} else if (end == -1 || end > length - 1) {
-						end = length - 1;
-					}
-					
-					// Check if Range is syntactically valid. If not, then return 416.
-					if (start > end) {
-						servletResponse.setHeader("Content-Range", "bytes */" + length); // Required in 416.
-						servletResponse.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-						return;
-					}
-					
-					// Add range.
-					ranges.add(new Range(start, end, length));
-				}
-			}
+		List<Range> ranges = requestRanges(servletRequest, servletResponse, eTag, lastModified,
+			length);
+		if (ranges == null) {
+			return;
 		}
 		
-		// Download type and gzip support check
+		// Return headers
 		//-------------------------------------------
 		
-		// Get content type by file name and set default GZIP support and content disposition.
-		String contentType = servletRequest.getServletContext().getMimeType(fileName);
-		boolean acceptsGzip = false;
-		String disposition = "inline";
-		
-		// If content type is unknown, then set the default value.
-		// For all content types, see: http://www.w3schools.com/media/media_mimeref.asp
-		// To add new content types, add new mime-mapping entry in web.xml.
-		if (contentType == null) {
-			contentType = "application/octet-stream";
-		}
+		// Initialize servletResponse.
+		initResponseHeaders(servletResponse, disposition, fileName, eTag, lastModified, expires,
+			varyEncoding);
 		
-		if (contentType.startsWith("text")) {
-			//
-			// If content type is text, then determine whether GZIP content encoding is supported by
-			// the browser and expand content type with the one and right character encoding.
-			//
-			String acceptEncoding = servletRequest.getHeader("Accept-Encoding");
-			acceptsGzip = acceptEncoding != null && headerAccept(acceptEncoding, "gzip");
-			contentType += ";charset=UTF-8";
-		} else if (!contentType.startsWith("image")) {
-			//
-			// Else, expect for images, determine content disposition. If content type is supported by
-			// the browser, then set to inline, else attachment which will pop a 'save as' dialogue.
-			//
-			// If no disposition is set, defaults to inline for images
-			//
-			String accept = servletRequest.getHeader("Accept");
-			if (accept != null) {
-				disposition = headerAccept(accept, contentType) ? "inline" : "attachment";
-			} else {
-				disposition = "inline";
+		// Return compressed variant
+		//-------------------------------------------
+		if (variant != null) {
+			servletResponse.setContentType(contentType);
+			servletResponse.setHeader("Content-Encoding", variant.encoding);
+			if (variant.contentLength() >= 0) {
+				servletResponse.setHeader("Content-Length", String.valueOf(variant.contentLength()));
+			}
+			if (!headersOnly) {
+				outputContentVariant(servletRequest, servletResponse, variant);
 			}
+			return;
 		}
 		
-		// Return headers
+		// Return uncompressed file content
 		//-------------------------------------------
 		
-		// Initialize servletResponse.
-		servletResponse.reset();
-		//servletResponse.setBufferSize(10240);
-		servletResponse.setHeader("Content-Disposition", disposition + ";filename=\"" + fileName
-			+ "\"");
-		servletResponse.setHeader("Accept-Ranges", "bytes");
-		servletResponse.setHeader("ETag", eTag);
-		servletResponse.setDateHeader("Last-Modified", lastModified);
-		servletResponse.setDateHeader("Expires", expires);
+		// Get the in-memory cached file content (if applicable)
+		ByteBuffer cached = headersOnly ? null : cachedContent(file, length, lastModified);
 		
-		// Return headers
-		//-------------------------------------------
 		// Prepare streams.
-		RandomAccessFile input = null;
+		FileChannel input = null;
 		OutputStream output = null;
 		
 		try {
-			// Open streams.
-			input = new RandomAccessFile(file, "r");
-			output = servletResponse.getOutputStream();
-			
-			if (ranges.isEmpty() || ranges.get(0) == full) {
-				// Return full file.
-				Range r = full;
+			if (ranges.size() <= 1) {
+				// Return full file, or single part of file.
+				Range r = ranges.isEmpty() ? full : ranges.get(0);
 				servletResponse.setContentType(contentType);
 				servletResponse.setHeader("Content-Range", "bytes " + r.start + "-" + r.end + "/"
 					+ r.total);
+				servletResponse.setHeader("Content-Length", String.valueOf(r.length));
+				if (r != full) {
+					servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
+				}
 				
-				if (!headersOnly) {
-					if (acceptsGzip) {
-						// Use GZIP in response
-						servletResponse.setHeader("Content-Encoding", "gzip");
-						output = new GZIPOutputStream(output, gzipBufferSize);
-					} else {
-						// Direct raw ouput (length is predictable, while gzip it isnt)
-						servletResponse.setHeader("Content-Length", String.valueOf(r.length));
-					}
-					
-					// Copy full range.
-					copy(input, output, r.start, r.length);
+				if (headersOnly) {
+					return;
 				}
-			} else if (ranges.size() == 1) {
-				// Return single part of file.
-				Range r = ranges.get(0);
-				servletResponse.setContentType(contentType);
-				servletResponse.setHeader("Content-Range", "bytes " + r.start + "-" + r.end + "/"
-					+ r.total);
-				servletResponse.setHeader("Content-Length", String.valueOf(r.length));
-				servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
 				
-				if (!headersOnly) {
-					// Copy single part range.
+				// Copy the range, from the cached content or file (via sendfile if possible)
+				if (cached != null) {
+					output = servletResponse.getOutputStream();
+					copy(cached, output, r.start, r.length);
+				} else if (!trySendfile(servletRequest, servletResponse, file, r.start, r.length)
+					&& !tryAsyncOutput(servletRequest, servletResponse, file, r.start, r.length)) {
+					input = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					output = servletResponse.getOutputStream();
 					copy(input, output, r.start, r.length);
 				}
 			} else {
@@ -449,6 +633,12 @@ public class FileServlet extends HttpServlet {
 				servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
 				
 				if (!headersOnly) {
+					// Open streams (the file is not reopened, if its content is cached)
+					if (cached == null) {
+						input = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					}
+					output = servletResponse.getOutputStream();
+					
 					// Cast back to ServletOutputStream to get the easy println methods.
 					ServletOutputStream sos = (ServletOutputStream) output;
 					
@@ -461,7 +651,7 @@ public class FileServlet extends HttpServlet {
 						sos.println("Content-Range: bytes " + r.start + "-" + r.end + "/" + r.total);
 						
 						// Copy single part range of multi part range.
-						copy(input, output, r.start, r.length);
+						copy(input, cached, output, r.start, r.length);
 					}
 					
 					// End with multipart boundary.
@@ -477,90 +667,760 @@ public class FileServlet extends HttpServlet {
 	
 	///////////////////////////////////////////////////////
 	//
-	// Utility functions
+	// Archive (zip / jar) file serving
 	//
 	///////////////////////////////////////////////////////
 	
 	/**
-	 * Utility function called by init, or paramtirized startup. To validate basePath
+	 * Process the file fetch request, from the archive index
+	 *
+	 * Deflated entries are served with their compressed data wrapped as gzip (without
+	 * recompression) if accepted, else they are inflated on the fly. Stored entries are
+	 * served as a byte range of the archive file (via sendfile if possible).
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  Indicates if data should be return (HEAD) request (instead of GET)
+	 * @param  Request file path
 	 **/
-	public void validateBasePath() {
-		// Validate base path.
-		if (baseFolder == null) {
-			if (basePath == null) {
-				throw new RuntimeException("FileServlet init param 'basePath' is required.");
-			}
-			baseFolder = new File(basePath);
-		}
+	protected void processArchiveRequest( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		boolean headersOnly, //
+		String requestPath //
+	) throws IOException {
 		
-		if (!baseFolder.exists()) {
-			throw new RuntimeException("FileServlet init param 'basePath' (" + baseFolder.toString()
-				+ ") does actually not exist in file system.");
+		// Get the archive entry (404 error if not found)
+		String path = validateRequestPath(requestPath);
+		FileServletArchive.Entry entry = (path != null) ? archive.get(path) : null;
+		if (entry == null) {
+			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
 		}
 		
-		if (!baseFolder.isDirectory()) {
-			throw new RuntimeException("FileServlet init param 'basePath' value ("
-				+ baseFolder.toString() + ") is actually not a directory in file system.");
+		// Prepare some variables.
+		String fileName = entry.fileName();
+		long length = entry.size;
+		long lastModified = archive.lastModified;
+		long expires = (fileExpireTime > 0) ? (System.currentTimeMillis() + fileExpireTime) : 0;
+		
+		// Content type, and disposition
+		String contentType = mimeType(servletRequest, fileName);
+		String disposition = contentDisposition(servletRequest, contentType);
+		contentType = responseContentType(contentType);
+		
+		// Use the deflated data as gzip, if accepted (and not a range request)
+		boolean varyEncoding = entry.isDeflated();
+		String acceptEncoding = servletRequest.getHeader("Accept-Encoding");
+		boolean gzip = varyEncoding && acceptEncoding != null
+			&& servletRequest.getHeader("Range") == null
+			&& HttpHeaderUtil.acceptsEncoding(acceptEncoding, "gzip");
+		String eTag = gzip ? entry.gzipETag : entry.eTag;
+		
+		// Validate the conditional (cache and download resume) headers, and return 304 / 412
+		if (handlePreconditions(servletRequest, servletResponse, eTag, lastModified, varyEncoding,
+			expires)) {
+			return;
 		}
 		
-		if (!baseFolder.canRead()) {
-			throw new RuntimeException("FileServlet init param 'basePath' value ("
-				+ baseFolder.toString() + ") is actually not readable in file system.");
+		// Data range handling (download resume)
+		Range full = new Range(0, length - 1, length);
+		List<Range> ranges = requestRanges(servletRequest, servletResponse, eTag, lastModified,
+			length);
+		if (ranges == null) {
+			return;
 		}
 		
-		// Use provided file, to extract filepath
-		if (basePath == null) {
-			basePath = baseFolder.toString();
+		// Return headers
+		initResponseHeaders(servletResponse, disposition, fileName, eTag, lastModified, expires,
+			varyEncoding);
+		servletResponse.setContentType(contentType);
+		
+		// Return the gzip wrapped deflated data
+		//-------------------------------------------
+		if (gzip) {
+			servletResponse.setHeader("Content-Encoding", "gzip");
+			servletResponse.setHeader("Content-Length", String.valueOf(entry.gzipLength()));
+			if (!headersOnly) {
+				OutputStream output = servletResponse.getOutputStream();
+				try {
+					output.write(FileServletArchive.gzipHeader());
+					copy(archive.channel(), output, entry.dataOffset, entry.compressedSize);
+					output.write(FileServletArchive.gzipTrailer(entry));
+				} finally {
+					close(output);
+				}
+			}
+			return;
+		}
+		
+		// Return uncompressed content (full, or ranges)
+		//-------------------------------------------
+		if (ranges.size() <= 1) {
+			Range r = ranges.isEmpty() ? full : ranges.get(0);
+			servletResponse.setHeader("Content-Range", "bytes " + r.start + "-" + r.end + "/"
+				+ r.total);
+			servletResponse.setHeader("Content-Length", String.valueOf(r.length));
+			if (r != full) {
+				servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
+			}
+		} else {
+			servletResponse.setContentType("multipart/byteranges; boundary=" + MULTIPART_BYTERANGES);
+			servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
+		}
+		if (headersOnly) {
+			return;
+		}
+		
+		// Stored entry, single range : which is a range of the archive file
+		if (!entry.isDeflated() && ranges.size() <= 1) {
+			Range r = ranges.isEmpty() ? full : ranges.get(0);
+			long start = entry.dataOffset + r.start;
+			if (!trySendfile(servletRequest, servletResponse, archive.archiveFile, start, r.length)) {
+				OutputStream output = servletResponse.getOutputStream();
+				try {
+					copy(archive.channel(), output, start, r.length);
+				} finally {
+					close(output);
+				}
+			}
+			return;
+		}
+		
+		// Otherwise read through the (inflated) entry content, for each of the sorted ranges
+		InputStream input = archive.openStream(entry);
+		OutputStream output = servletResponse.getOutputStream();
+		try {
+			if (ranges.size() <= 1) {
+				Range r = ranges.isEmpty() ? full : ranges.get(0);
+				copy(input, output, r.start, r.length);
+			} else {
+				ServletOutputStream sos = (ServletOutputStream) output;
+				long position = 0;
+				for (Range r : ranges) {
+					// Add multipart boundary and header fields for every range.
+					sos.println();
+					sos.println("--" + MULTIPART_BYTERANGES);
+					sos.println("Content-Type: " + contentType);
+					sos.println("Content-Range: bytes " + r.start + "-" + r.end + "/" + r.total);
+					
+					// Copy single part range of multi part range.
+					copy(input, output, r.start - position, r.length);
+					position = r.end + 1;
+				}
+				
+				// End with multipart boundary.
+				sos.println();
+				sos.println("--" + MULTIPART_BYTERANGES + "--");
+			}
+		} finally {
+			close(output);
+			close(input);
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Request and response header handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Get the content type of the given file name, from the servlet context MIME mapping
+	 *
+	 * @param  HttpServletRequest to get the servlet context from
+	 * @param  File name
+	 *
+	 * @return the content type, or "application/octet-stream" if unknown
+	 **/
+	protected String mimeType(HttpServletRequest servletRequest, String fileName) {
+		String contentType = servletRequest.getServletContext().getMimeType(fileName);
+		
+		// If content type is unknown, then set the default value.
+		// For all content types, see: http://www.w3schools.com/media/media_mimeref.asp
+		// To add new content types, add new mime-mapping entry in web.xml.
+		if (contentType == null) {
+			contentType = "application/octet-stream";
+		}
+		return contentType;
+	}
+	
+	/**
+	 * Determine the content disposition. Text and images are always inline, for other
+	 * content types, if its supported by the browser, then set to inline, else attachment
+	 * which will pop a 'save as' dialogue.
+	 *
+	 * @param  HttpServletRequest to get the Accept header from
+	 * @param  Content type of the file
+	 *
+	 * @return "inline" or "attachment"
+	 **/
+	protected String contentDisposition(HttpServletRequest servletRequest, String contentType) {
+		if (contentType.startsWith("text") || contentType.startsWith("image")) {
+			return "inline";
+		}
+		String accept = servletRequest.getHeader("Accept");
+		if (accept != null) {
+			return HttpHeaderUtil.acceptsMediaType(accept, contentType) ? "inline" : "attachment";
+		}
+		return "inline";
+	}
+	
+	/**
+	 * @param  Content type of the file
+	 *
+	 * @return content type to respond with, expanded with the right character encoding for text
+	 **/
+	protected String responseContentType(String contentType) {
+		if (contentType.startsWith("text")) {
+			return contentType + ";charset=UTF-8";
+		}
+		return contentType;
+	}
+	
+	/**
+	 * Validate the conditional request headers (If-None-Match, If-Modified-Since,
+	 * If-Match and If-Unmodified-Since), and respond with 304 / 412 if applicable.
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  ETag of the content
+	 * @param  Last modified timestamp of the content
+	 * @param  Indicates if the response varies by Accept-Encoding
+	 * @param  Expires timestamp, 0 if disabled
+	 *
+	 * @return boolean true, if the response was sent (and no content should be sent)
+	 **/
+	protected boolean handlePreconditions( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		String eTag, long lastModified, boolean varyEncoding, long expires //
+	) throws IOException {
+		
+		// If-None-Match header should contain "*" or ETag. If so, then return 304.
+		String ifNoneMatch = servletRequest.getHeader("If-None-Match");
+		if (ifNoneMatch != null && HttpHeaderUtil.matchETag(ifNoneMatch, eTag, true)) {
+			sendNotModified(servletResponse, eTag, varyEncoding, expires);
+			return true;
+		}
+		
+		// If-Modified-Since header should be greater than LastModified. If so, then return 304.
+		// This header is ignored if any If-None-Match header is specified.
+		long ifModifiedSince = servletRequest.getDateHeader("If-Modified-Since");
+		if (ifNoneMatch == null && ifModifiedSince != -1
+			&& ifModifiedSince + cacheNetworkJitterTolerance > lastModified) {
+			sendNotModified(servletResponse, eTag, varyEncoding, expires);
+			return true;
+		}
+		
+		// Download resume validation
+		//-------------------------------------------
+		
+		// If-Match header should contain "*" or ETag. If not, then return 412.
+		String ifMatch = servletRequest.getHeader("If-Match");
+		if (ifMatch != null && !HttpHeaderUtil.matchETag(ifMatch, eTag, false)) {
+			servletResponse.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+			return true;
+		}
+		
+		// If-Unmodified-Since header should be greater than LastModified. If not, then return 412.
+		long ifUnmodifiedSince = servletRequest.getDateHeader("If-Unmodified-Since");
+		if (ifUnmodifiedSince != -1 && ifUnmodifiedSince + 1000 <= lastModified) {
+			servletResponse.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Respond with 304 (not modified)
+	 *
+	 * @param  HttpServletResponse to response
+	 * @param  ETag of the content
+	 * @param  Indicates if the response varies by Accept-Encoding
+	 * @param  Expires timestamp, 0 if disabled
+	 **/
+	private static void sendNotModified(HttpServletResponse servletResponse, String eTag,
+		boolean varyEncoding, long expires) {
+		servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		servletResponse.setHeader("ETag", eTag); // Required in 304.
+		if (varyEncoding) {
+			servletResponse.setHeader("Vary", "Accept-Encoding");
+		}
+		if (expires > 0) {
+			servletResponse.setDateHeader("Expires", expires);
+		}
+	}
+	
+	/**
+	 * Validate and process the Range and If-Range headers, and respond with 416 if
+	 * the range is not satisfiable.
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  ETag of the content
+	 * @param  Last modified timestamp of the content
+	 * @param  Length of the content
+	 *
+	 * @return the requested ranges, an empty list for the full content,
+	 *         or null if the response was sent (416)
+	 **/
+	protected List<Range> requestRanges( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		String eTag, long lastModified, long length //
+	) throws IOException {
+		List<Range> ranges = new ArrayList<Range>();
+		
+		// Validate and process Range and If-Range headers.
+		String range = servletRequest.getHeader("Range");
+		if (range == null) {
+			return ranges;
+		}
+		
+		// If-Range header should either match ETag or be greater then LastModified. If not,
+		// then return full file.
+		String ifRange = servletRequest.getHeader("If-Range");
+		if (ifRange != null && !ifRange.equals(eTag)) {
+			try {
+				long ifRangeTime = servletRequest.getDateHeader("If-Range"); // Throws IAE if invalid.
+				if (ifRangeTime != -1 && ifRangeTime + 1000 < lastModified) {
+					return ranges;
+				}
+			} catch (IllegalArgumentException ignore) {
+				return ranges;
+			}
+		}
+		
+		// If any valid If-Range header, then process each part of byte range. Assuming a file with
+		// length of 100, the following examples returns bytes at: 50-80 (50 to 80),
+		// 40- (40 to length=100), -20 (length-20=80 to length=100). Overlapping ranges are coalesced.
+		long[] rangePairs = new long[Math.max(1, maxRangeCount) * 2];
+		int rangeCount = HttpHeaderUtil.parseRange(range, length, rangePairs);
+		
+		// Check if Range is syntactically valid (and satisfiable). If not, then return 416.
+		if (rangeCount == HttpHeaderUtil.RANGE_NOT_SATISFIABLE) {
+			servletResponse.setHeader("Content-Range", "bytes */" + length); // Required in 416.
+			servletResponse.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return null;
+		}
+		
+		// Add ranges (none if there are too many ranges, where the full file is returned)
+		for (int i = 0; i < rangeCount; ++i) {
+			ranges.add(new Range(rangePairs[i * 2], rangePairs[i * 2 + 1], length));
+		}
+		return ranges;
+	}
+	
+	/**
+	 * Reset the response, and set its common headers
+	 *
+	 * @param  HttpServletResponse to response
+	 * @param  Content disposition ("inline" / "attachment")
+	 * @param  File name
+	 * @param  ETag of the content
+	 * @param  Last modified timestamp of the content
+	 * @param  Expires timestamp
+	 * @param  Indicates if the response varies by Accept-Encoding
+	 **/
+	protected void initResponseHeaders( //
+		HttpServletResponse servletResponse, //
+		String disposition, String fileName, String eTag, //
+		long lastModified, long expires, boolean varyEncoding //
+	) {
+		servletResponse.reset();
+		//servletResponse.setBufferSize(10240);
+		servletResponse.setHeader("Content-Disposition", disposition + ";filename=\"" + fileName
+			+ "\"");
+		servletResponse.setHeader("Accept-Ranges", "bytes");
+		servletResponse.setHeader("ETag", eTag);
+		servletResponse.setDateHeader("Last-Modified", lastModified);
+		servletResponse.setDateHeader("Expires", expires);
+		if (varyEncoding) {
+			servletResponse.setHeader("Vary", "Accept-Encoding");
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Compressed content variants
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Inner class representing a compressed variant of the requested file
+	 **/
+	protected static class ContentVariant {
+		/** Content-Encoding of the variant ("br" / "gzip") */
+		String encoding;
+		
+		/** File to read from, either the precompressed sidecar file, or the original file */
+		File file;
+		
+		/** Length of the file to read from */
+		long fileLength;
+		
+		/** Last modified timestamp of the file to read from */
+		long lastModified;
+		
+		/** In-memory compressed content, if avaliable */
+		ByteBuffer cached = null;
+		
+		/** Indicates if the file needs to be compressed on the fly */
+		boolean compressOnTheFly = false;
+		
+		/**
+		 * @return the compressed content length, or -1 if its unknown (compressed on the fly)
+		 **/
+		long contentLength() {
+			if (compressOnTheFly) {
+				return -1;
+			}
+			return (cached != null) ? cached.remaining() : fileLength;
 		}
 	}
 	
 	/**
-	 * Returns true if the header matches the given value, or is "*" wild
+	 * Returns true if the given content type (without parameters) benefits from compression.
+	 * Override this to customize which content types are compressed.
+	 *
+	 * @param  Content type of the file
+	 *
+	 * @return boolean true if compressible
+	 **/
+	protected boolean isCompressibleType(String contentType) {
+		return contentType.startsWith("text") || contentType.endsWith("javascript")
+			|| contentType.endsWith("json") || contentType.endsWith("xml")
+			|| contentType.equals("image/svg+xml");
+	}
+	
+	/**
+	 * Get the precompressed sidecar file variant of the given file, if it exists
+	 * and is not older than the original file.
 	 *
-	 * @param Header to match
-	 * @param Value to be matched
+	 * @param  File to get the sidecar of
+	 * @param  Content-Encoding of the sidecar ("br" or "gzip")
+	 * @param  Last modified timestamp of the original file
 	 *
-	 * @return boolean true if valid
+	 * @return ContentVariant of the sidecar file, or null if not avaliable
 	 **/
-	private static boolean headerMatch(String header, String toMatch) {
-		// Header pattern: grpA/typA, grpB/typB, grpC/typC .....
+	protected ContentVariant precompressedVariant(File file, String encoding, long lastModified) {
+		if (!usePrecompressedFiles) {
+			return null;
+		}
 		
-		// Shorten less efficent refence implmentation
-		//-------------------------------------------------------------------
-		// return (header.indexOf("*/*") > -1 || header.indexOf( toMatch ) > -1 || header.indexOf( toMatch.replaceAll("/.*$", "/*") ) > -1);
+		// Get the sidecar file attributes
+		File sidecar = new File(file.getPath() + (encoding.equals("br") ? ".br" : ".gz"));
+		FileServletStatCache.Stat sidecarStat = fileStat(sidecar);
+		if (!sidecarStat.isFile() || sidecarStat.lastModified < lastModified) {
+			return null;
+		}
 		
-		// Longer more "efficent" version for multiple entry?
-		//-------------------------------------------------------------------
-		String[] headerValues = header.split("\\s*(,|;)\\s*");
-		Arrays.sort(headerValues);
+		// Sidecar file found
+		ContentVariant ret = new ContentVariant();
+		ret.encoding = encoding;
+		ret.file = sidecar;
+		ret.fileLength = sidecarStat.length;
+		ret.lastModified = sidecarStat.lastModified;
+		return ret;
+	}
+	
+	/**
+	 * Get the gzip variant of the given file, which is either compressed once
+	 * and cached in memory (for smaller files), or compressed on the fly.
+	 *
+	 * @param  File to compress
+	 * @param  Length of the file
+	 * @param  Last modified timestamp of the file
+	 *
+	 * @return ContentVariant of the file
+	 **/
+	protected ContentVariant gzipCompressedVariant(File file, long length, long lastModified)
+		throws IOException {
+		ContentVariant ret = new ContentVariant();
+		ret.encoding = "gzip";
+		ret.file = file;
+		ret.fileLength = length;
+		ret.lastModified = lastModified;
 		
-		return Arrays.binarySearch(headerValues, toMatch) > -1
-			|| Arrays.binarySearch(headerValues, toMatch.replaceAll("/.*$", "/*")) > -1
-			|| Arrays.binarySearch(headerValues, "*/*") > -1;
+		// Compress once, and cache it
+		if (useCompressedCache && useMemoryCache && length <= memoryCacheMaxFileSize) {
+			ret.cached = memoryCache().getGzip(file, length, lastModified);
+		}
+		ret.compressOnTheFly = (ret.cached == null);
+		return ret;
+	}
+	
+	/**
+	 * Output the compressed content variant
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  ContentVariant to output
+	 **/
+	protected void outputContentVariant( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		ContentVariant variant //
+	) throws IOException {
+		// Cached content (of compressed sidecar file) if avaliable
+		ByteBuffer cached = variant.cached;
+		if (cached == null && !variant.compressOnTheFly) {
+			cached = cachedContent(variant.file, variant.fileLength, variant.lastModified);
+		}
+		
+		// Prepare streams.
+		FileChannel input = null;
+		OutputStream output = null;
+		
+		try {
+			if (cached != null) {
+				// Output from the in-memory content
+				output = servletResponse.getOutputStream();
+				copy(cached, output, 0, cached.remaining());
+			} else if (variant.compressOnTheFly) {
+				// Compress the file on the fly
+				input = FileChannel.open(variant.file.toPath(), StandardOpenOption.READ);
+				output = new GZIPOutputStream(servletResponse.getOutputStream(), gzipBufferSize);
+				copy(input, output, 0, variant.fileLength);
+			} else if (!trySendfile(servletRequest, servletResponse, variant.file, 0,
+				variant.fileLength)
+				&& !tryAsyncOutput(servletRequest, servletResponse, variant.file, 0,
+					variant.fileLength)) {
+				// Output the precompressed sidecar file
+				input = FileChannel.open(variant.file.toPath(), StandardOpenOption.READ);
+				output = servletResponse.getOutputStream();
+				copy(input, output, 0, variant.fileLength);
+			}
+		} finally {
+			close(output);
+			close(input);
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Memory cache, stat cache and sendfile handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Returns the memory cache, initializing it if needed
+	 **/
+	protected FileServletCache memoryCache() {
+		FileServletCache ret = _memoryCache;
+		if (ret != null) {
+			return ret;
+		}
+		synchronized (this) {
+			if (_memoryCache == null) {
+				_memoryCache = new FileServletCache(memoryCacheMaxFileSize, memoryCacheMaxTotalSize);
+			}
+			return _memoryCache;
+		}
+	}
+	
+	/**
+	 * Returns the stat cache, initializing it if needed
+	 **/
+	protected FileServletStatCache statCache() {
+		FileServletStatCache ret = _statCache;
+		if (ret != null) {
+			return ret;
+		}
+		synchronized (this) {
+			if (_statCache == null) {
+				_statCache = new FileServletStatCache(statCacheTTL, statCacheMaxEntries);
+			}
+			return _statCache;
+		}
+	}
+	
+	/**
+	 * Get the file metadata, from the stat cache if enabled
+	 *
+	 * @param  File to get the metadata of (null for a not found entry)
+	 *
+	 * @return FileServletStatCache.Stat of the file
+	 **/
+	protected FileServletStatCache.Stat fileStat(File file) {
+		if (file != null && useStatCache) {
+			return statCache().get(file);
+		}
+		return new FileServletStatCache.Stat(file, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Get the in-memory cached file content, if the memory cache is enabled
+	 * and the file is within its size limit
+	 *
+	 * @param  File to get the content of
+	 * @param  Length of the file
+	 * @param  Last modified timestamp of the file
+	 *
+	 * @return ByteBuffer of the file content, or null if its not cached
+	 **/
+	protected ByteBuffer cachedContent(File file, long length, long lastModified)
+		throws IOException {
+		if (useMemoryCache && length <= memoryCacheMaxFileSize) {
+			return memoryCache().get(file, length, lastModified);
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the content hash of the file, used for strong ETags. This is computed once
+	 * per file version, and kept in the memory cache (alongside its content)
+	 *
+	 * @param  File to get the content hash of
+	 * @param  Length of the file
+	 * @param  Last modified timestamp of the file
+	 *
+	 * @return String content hash, or null if its not avaliable (file too large to be cached)
+	 **/
+	protected String contentHash(File file, long length, long lastModified) throws IOException {
+		if (useContentHashETag && useMemoryCache && length <= memoryCacheMaxFileSize) {
+			return memoryCache().getContentHash(file, length, lastModified);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns true if the servlet container sendfile can be used for the response.
+	 *
+	 * This requires the container to support it (signalled by its request attribute),
+	 * and the response to not be wrapped (which may be transforming the output)
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  Length of the byte range to send
+	 *
+	 * @return boolean true if sendfile is to be used
+	 **/
+	protected boolean isSendfileSupported( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		long length //
+	) {
+		return useSendfile && length >= sendfileMinSize
+			&& Boolean.TRUE.equals(servletRequest.getAttribute(SENDFILE_SUPPORTED_ATTR))
+			&& !(servletResponse instanceof ServletResponseWrapper);
+	}
+	
+	/**
+	 * Send the given file range via the servlet container sendfile, if supported.
+	 * The file is sent by the container, after this request completes.
+	 *
+	 * Note that the response headers (including Content-Length) should be set before this.
+	 *
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  File to send
+	 * @param  Start of the byte range.
+	 * @param  Length of the byte range.
+	 *
+	 * @return boolean true if sendfile is used, false if the file needs to be written normally
+	 **/
+	protected boolean trySendfile( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		File file, //
+		long start, //
+		long length //
+	) throws IOException {
+		if (!isSendfileSupported(servletRequest, servletResponse, length)) {
+			return false;
+		}
+		servletRequest.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+		servletRequest.setAttribute(SENDFILE_FILE_START_ATTR, Long.valueOf(start));
+		servletRequest.setAttribute(SENDFILE_FILE_END_ATTR, Long.valueOf(start + length));
+		return true;
 	}
 	
 	/**
-	 * Returns true if the header accept the given value, or is "* / *" wild
+	 * Write the given file range asynchronously (non blocking), if enabled and supported.
+	 * The request is completed once the file range is written.
+	 *
+	 * Note that the response headers (including Content-Length) should be set before this,
+	 * and no further output should be done after this.
 	 *
-	 * @param Header to match
-	 * @param Value to be matched
+	 * @param  HttpServletRequest to process
+	 * @param  HttpServletResponse to response
+	 * @param  File to send
+	 * @param  Start of the byte range.
+	 * @param  Length of the byte range.
 	 *
-	 * @return boolean true if valid
+	 * @return boolean true if async output is used, false if the file needs to be written normally
 	 **/
-	private static boolean headerAccept(String header, String toMatch) {
-		// Header pattern: valueA, valueB, valueC .....
+	protected boolean tryAsyncOutput( //
+		HttpServletRequest servletRequest, //
+		HttpServletResponse servletResponse, //
+		File file, //
+		long start, //
+		long length //
+	) throws IOException {
+		if (!useAsyncOutput || length < asyncMinSize || !servletRequest.isAsyncSupported()) {
+			return false;
+		}
 		
-		// Shorten less efficent refence implmentation
-		//-------------------------------------------------------------------
-		// return (header.indexOf("*") > -1 || header.indexOf(toMatch) > -1);
+		// Open the file, and start the async request
+		FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		AsyncContext asyncContext;
+		try {
+			asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+		} catch (IllegalStateException e) {
+			// Async not allowed for the current request state, fallback to blocking output
+			close(input);
+			return false;
+		}
+		asyncContext.setTimeout(asyncTimeout);
 		
-		// Longer more "efficent" version for multiple entry?
-		//-------------------------------------------------------------------
-		String[] headerValues = header.split("\\s*,\\s*");
-		Arrays.sort(headerValues);
+		// Setup the non blocking writer, which completes the async request when done
+		ServletOutputStream output = servletResponse.getOutputStream();
+		FileAsyncWriter writer = new FileAsyncWriter(asyncContext, output, input, start, length,
+			asyncChunkSize);
+		asyncContext.addListener(writer);
+		output.setWriteListener(writer);
+		return true;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Utility functions
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Utility function called by init, or paramtirized startup. To validate basePath
+	 **/
+	public void validateBasePath() {
+		// Validate base path.
+		if (baseFolder == null) {
+			if (basePath == null) {
+				throw new RuntimeException("FileServlet init param 'basePath' is required.");
+			}
+			baseFolder = new File(basePath);
+		}
 		
-		return Arrays.binarySearch(headerValues, toMatch) > -1
-			|| Arrays.binarySearch(headerValues, "*") > -1;
+		if (!baseFolder.exists()) {
+			throw new RuntimeException("FileServlet init param 'basePath' (" + baseFolder.toString()
+				+ ") does actually not exist in file system.");
+		}
+		
+		if (!baseFolder.isDirectory()) {
+			throw new RuntimeException("FileServlet init param 'basePath' value ("
+				+ baseFolder.toString() + ") is actually not a directory in file system.");
+		}
+		
+		if (!baseFolder.canRead()) {
+			throw new RuntimeException("FileServlet init param 'basePath' value ("
+				+ baseFolder.toString() + ") is actually not readable in file system.");
+		}
+		
+		// Use provided file, to extract filepath
+		if (basePath == null) {
+			basePath = baseFolder.toString();
+		}
 	}
 	
 	/**
@@ -587,53 +1447,111 @@ public class FileServlet extends HttpServlet {
 	}
 	
 	/**
-	 * Returns a substring of the given string value from the given begin index to the given end
-	 * index as a long. If the substring is empty, then -1 will be returned
+	 * Copy the given byte range, from either the cached content (if not null) or the file input
 	 *
-	 * @param Value to return a substring as long from.
-	 * @param begin index of the substring to be returned as long.
-	 * @param end index of the substring to be returned as long.
+	 * @param FileChannel input to copy from, if there is no cached content
+	 * @param ByteBuffer of cached content to copy from, can be null
+	 * @param OutputStream to copy the given range to.
+	 * @param Start of the byte range.
+	 * @param Length of the byte range.
+	 *
+	 * @throws IOException If something fails at I/O level.
+	 **/
+	private static void copy(FileChannel input, ByteBuffer cached, OutputStream output, long start,
+		long length) throws IOException {
+		if (cached != null) {
+			copy(cached, output, start, length);
+		} else {
+			copy(input, output, start, length);
+		}
+	}
+	
+	/**
+	 * Copy the given byte range of the cached content to the given output.
+	 *
+	 * @param ByteBuffer of cached content to copy the given range from.
+	 * @param OutputStream to copy the given range to.
+	 * @param Start of the byte range.
+	 * @param Length of the byte range.
 	 *
-	 * @return A substring of the given string value as long or -1 if substring is empty.
+	 * @throws IOException If something fails at I/O level.
 	 **/
-	private static long sublong(String value, int beginIndex, int endIndex) {
-		String substring = value.substring(beginIndex, endIndex);
-		return (substring.length() > 0) ? Long.parseLong(substring) : -1;
+	private static void copy(ByteBuffer cached, OutputStream output, long start, long length)
+		throws IOException {
+		// Use a duplicate, so that the shared cached buffer position is not modified
+		ByteBuffer range = cached.duplicate();
+		range.limit((int) (start + length));
+		range.position((int) start);
+		
+		// Note: the channel is intentionally not closed, as it would close the output stream
+		WritableByteChannel target = Channels.newChannel(output);
+		while (range.hasRemaining()) {
+			target.write(range);
+		}
 	}
 	
 	/**
 	 * Copy the given byte range of the given input to the given output.
 	 *
-	 * @param RandomAccessFile input to copy the given range to the given output for.
+	 * This uses FileChannel.transferTo, which lets the JVM transfer the file data
+	 * in large chunks (or directly by the OS where supported by the output channel),
+	 * instead of a read / write loop on a small heap buffer.
+	 *
+	 * @param FileChannel input to copy the given range to the given output for.
 	 * @param OutputStream to copy the given range from the given input for.
 	 * @param Start of the byte range.
 	 * @param Length of the byte range.
 	 *
 	 * @throws IOException If something fails at I/O level.
 	 **/
-	private static void copy(RandomAccessFile input, OutputStream output, long start, long length)
+	private static void copy(FileChannel input, OutputStream output, long start, long length)
 		throws IOException {
-		byte[] buffer = new byte[64]; //line cache size
-		int read;
+		// Note: the channel is intentionally not closed, as it would close the output stream
+		WritableByteChannel target = Channels.newChannel(output);
+		long position = start;
+		long remaining = length;
+		while (remaining > 0) {
+			long written = input.transferTo(position, remaining, target);
+			if (written <= 0) {
+				// End of file reached (file truncated while being read)
+				break;
+			}
+			position += written;
+			remaining -= written;
+		}
+	}
+	
+	/**
+	 * Copy the given byte range of the given input stream to the given output.
+	 *
+	 * @param InputStream to copy from (from its current position)
+	 * @param OutputStream to copy the given range to.
+	 * @param Number of bytes to skip, before the range.
+	 * @param Length of the byte range.
+	 *
+	 * @throws IOException If something fails at I/O level.
+	 **/
+	private static void copy(InputStream input, OutputStream output, long skip, long length)
+		throws IOException {
+		byte[] buffer = new byte[8192];
 		
-		if (input.length() == length) {
-			// Write full range.
-			while ((read = input.read(buffer)) > 0) {
-				output.write(buffer, 0, read);
+		// Skip to the range start, by reading through the content
+		while (skip > 0) {
+			int read = input.read(buffer, 0, (int) Math.min(buffer.length, skip));
+			if (read < 0) {
+				return;
 			}
-		} else {
-			// Write partial range.
-			input.seek(start);
-			long toRead = length;
-			
-			while ((read = input.read(buffer)) > 0) {
-				if ((toRead -= read) > 0) {
-					output.write(buffer, 0, read);
-				} else {
-					output.write(buffer, 0, (int) toRead + read);
-					break;
-				}
+			skip -= read;
+		}
+		
+		// And copy the range
+		while (length > 0) {
+			int read = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (read < 0) {
+				return;
 			}
+			output.write(buffer, 0, read);
+			length -= read;
 		}
 	}
 	
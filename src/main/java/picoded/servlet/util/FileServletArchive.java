@@ -0,0 +1,462 @@
+package picoded.servlet.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Immutable in-memory index of a zip / jar archive, used by FileServlet to serve files
+ * directly from the archive (or classpath jar), without extracting them onto the disk.
+ *
+ * The archive central directory is read once on construction, and each entry data offset,
+ * sizes, compression method and ETag (derived from its CRC32) is kept in memory. So that
+ * serving a file only involves positional reads of the (already opened) archive file.
+ *
+ * + Stored (uncompressed) entries are served as a byte range of the archive file
+ * + Deflated entries are served as-is with a gzip wrapper (without recompression),
+ *   or inflated on the fly for clients which do not accept gzip (or for range requests)
+ *
+ * Zip64 archives, and encrypted entries are not supported.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class FileServletArchive implements Closeable {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Zip format constants
+	//
+	///////////////////////////////////////////////////////
+	
+	/** End of central directory record signature, and its minimum size */
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int END_SIZE = 22;
+	
+	/** Central directory file header signature, and its fixed size */
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_SIZE = 46;
+	
+	/** Local file header signature, and its fixed size */
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_SIZE = 30;
+	
+	/** Supported compression methods */
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+	
+	/** Gzip header (deflate, no timestamp / flags), used to wrap deflated entries */
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	
+	///////////////////////////////////////////////////////
+	//
+	// Archive entry
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Indexed archive file entry
+	 */
+	public static class Entry {
+		/** Entry name, within the archive (after the prefix) */
+		public final String name;
+		
+		/** Compression method, STORED or DEFLATED */
+		public final int method;
+		
+		/** Offset of the entry data, within the archive file */
+		public final long dataOffset;
+		
+		/** Compressed data size */
+		public final long compressedSize;
+		
+		/** Uncompressed file size */
+		public final long size;
+		
+		/** CRC32 of the uncompressed file */
+		public final long crc;
+		
+		/** Precomputed (strong) ETag of the entry */
+		public final String eTag;
+		
+		/** Precomputed (strong) ETag of the gzip wrapped entry */
+		public final String gzipETag;
+		
+		Entry(String name, int method, long dataOffset, long compressedSize, long size, long crc) {
+			this.name = name;
+			this.method = method;
+			this.dataOffset = dataOffset;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.crc = crc;
+			this.eTag = "\"" + Long.toHexString(crc) + "-" + Long.toHexString(size) + "\"";
+			this.gzipETag = "\"" + Long.toHexString(crc) + "-" + Long.toHexString(size) + "-gzip\"";
+		}
+		
+		/**
+		 * @return  the file name (without its folder path)
+		 */
+		public String fileName() {
+			return name.substring(name.lastIndexOf('/') + 1);
+		}
+		
+		/**
+		 * @return  true if the entry is deflated
+		 */
+		public boolean isDeflated() {
+			return method == DEFLATED;
+		}
+		
+		/**
+		 * @return  the gzip wrapped content length, of a deflated entry
+		 */
+		public long gzipLength() {
+			return GZIP_HEADER.length + compressedSize + 8;
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Archive file */
+	public final File archiveFile;
+	
+	/** Archive last modified timestamp, used for all its entries */
+	public final long lastModified;
+	
+	/** Indexed entries, by their request path (with the leading "/") */
+	protected final Map<String, Entry> entryMap;
+	
+	/** Opened archive file, used for positional reads */
+	protected final FileChannel channel;
+	
+	/**
+	 * Index the given archive, for the entries within the given folder prefix
+	 *
+	 * @param  archiveFile to index
+	 * @param  prefix folder within the archive to serve (eg. "static/"), or "" for all entries
+	 *
+	 * @throws IOException if the archive cannot be read, or is not a supported zip file
+	 */
+	public FileServletArchive(File archiveFile, String prefix) throws IOException {
+		this.archiveFile = archiveFile;
+		this.lastModified = archiveFile.lastModified();
+		
+		// Normalize the prefix, to be a folder path without the leading "/"
+		prefix = (prefix == null) ? "" : prefix;
+		while (prefix.startsWith("/")) {
+			prefix = prefix.substring(1);
+		}
+		if (prefix.length() > 0 && !prefix.endsWith("/")) {
+			prefix = prefix + "/";
+		}
+		
+		// Index the archive
+		this.channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ);
+		try {
+			this.entryMap = Collections.unmodifiableMap(readIndex(prefix));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Index the classpath resource folder, if it is within a jar archive
+	 *
+	 * @param  classLoader to get the resource from
+	 * @param  resourcePath folder to serve (eg. "static")
+	 *
+	 * @return  the archive index, or null if the resource folder is not within a jar file
+	 *          (eg. an exploded classpath directory)
+	 *
+	 * @throws IOException if the resource folder is not found, or cannot be read
+	 */
+	public static FileServletArchive fromClasspath(ClassLoader classLoader, String resourcePath)
+		throws IOException {
+		URL url = classLoader.getResource(resourcePath);
+		if (url == null) {
+			throw new IOException("Classpath resource not found : " + resourcePath);
+		}
+		if (!url.getProtocol().equals("jar")) {
+			return null;
+		}
+		
+		// Get the jar file, and its folder ("jar:file:/path/app.jar!/static")
+		String path = url.getPath();
+		int split = path.indexOf("!/");
+		if (split < 0 || path.indexOf("!/", split + 2) >= 0) {
+			throw new IOException("Unsupported (nested) classpath jar resource : " + url);
+		}
+		try {
+			File jar = new File(new URI(path.substring(0, split)));
+			return new FileServletArchive(jar, path.substring(split + 2));
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Unsupported classpath jar resource : " + url, e);
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Index reading
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Read the archive central directory, and the local header of each entry
+	 *
+	 * @param  prefix of the entries to index
+	 *
+	 * @return  entries by their request path
+	 */
+	protected Map<String, Entry> readIndex(String prefix) throws IOException {
+		// Find the end of central directory record (which may be followed by a comment)
+		long archiveSize = channel.size();
+		int tailSize = (int) Math.min(archiveSize, END_SIZE + 0xFFFF);
+		ByteBuffer tail = read(archiveSize - tailSize, tailSize);
+		int end = -1;
+		for (int i = tailSize - END_SIZE; i >= 0; --i) {
+			if (tail.getInt(i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("Invalid zip archive (missing central directory) : " + archiveFile);
+		}
+		int entryCount = tail.getShort(end + 10) & 0xFFFF;
+		long centralSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long centralOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+		if (entryCount == 0xFFFF || centralOffset == 0xFFFFFFFFL) {
+			throw new IOException("Zip64 archives are not supported : " + archiveFile);
+		}
+		
+		// Read each central directory entry
+		Map<String, Entry> ret = new HashMap<>();
+		ByteBuffer central = read(centralOffset, (int) centralSize);
+		ByteBuffer local = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		int pos = 0;
+		for (int i = 0; i < entryCount; ++i) {
+			if (central.getInt(pos) != CENTRAL_SIGNATURE) {
+				throw new IOException("Invalid zip archive (central directory) : " + archiveFile);
+			}
+			int flags = central.getShort(pos + 8) & 0xFFFF;
+			int method = central.getShort(pos + 10) & 0xFFFF;
+			long crc = central.getInt(pos + 16) & 0xFFFFFFFFL;
+			long compressedSize = central.getInt(pos + 20) & 0xFFFFFFFFL;
+			long size = central.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = central.getShort(pos + 28) & 0xFFFF;
+			int extraLength = central.getShort(pos + 30) & 0xFFFF;
+			int commentLength = central.getShort(pos + 32) & 0xFFFF;
+			long localOffset = central.getInt(pos + 42) & 0xFFFFFFFFL;
+			
+			// Entry name (UTF-8 as written by the jar tool, and most zip tools)
+			byte[] nameBytes = new byte[nameLength];
+			central.position(pos + CENTRAL_SIZE);
+			central.get(nameBytes);
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+			pos += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+			
+			// Skip folders, entries outside the prefix, and unsupported entries
+			if (name.endsWith("/") || !name.startsWith(prefix) || (flags & 1) != 0
+				|| (method != STORED && method != DEFLATED)) {
+				continue;
+			}
+			if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+				throw new IOException("Zip64 archives are not supported : " + archiveFile);
+			}
+			
+			// The data offset is after the local header, which has its own extra field length
+			local.clear();
+			readFully(local, localOffset);
+			if (local.getInt(0) != LOCAL_SIGNATURE) {
+				throw new IOException("Invalid zip archive (local header) : " + archiveFile);
+			}
+			long dataOffset = localOffset + LOCAL_SIZE + (local.getShort(26) & 0xFFFF)
+				+ (local.getShort(28) & 0xFFFF);
+			
+			// Index the entry, and its folder index.html
+			String path = "/" + name.substring(prefix.length());
+			Entry entry = new Entry(path.substring(1), method, dataOffset, compressedSize, size, crc);
+			ret.put(path, entry);
+			if (path.endsWith("/index.html")) {
+				String folder = path.substring(0, path.length() - "index.html".length());
+				ret.put(folder, entry);
+				if (folder.length() > 1) {
+					ret.put(folder.substring(0, folder.length() - 1), entry);
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Read the given archive range, into a little endian buffer
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer ret = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(ret, position);
+		return ret;
+	}
+	
+	/**
+	 * Fill the given buffer, from the archive position
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Invalid zip archive (unexpected end of file) : " + archiveFile);
+			}
+			position += read;
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Entry access
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Get the entry of the given (decoded) request path, folders resolve to their index.html
+	 *
+	 * @param  requestPath to get (with the leading "/")
+	 *
+	 * @return  the entry, or null if not found
+	 */
+	public Entry get(String requestPath) {
+		return entryMap.get(requestPath);
+	}
+	
+	/**
+	 * @return  number of indexed entries (including folder index.html aliases)
+	 */
+	public int size() {
+		return entryMap.size();
+	}
+	
+	/**
+	 * Get the archive file channel, for reading stored entries (or deflated data) directly.
+	 * This should only be used with positional reads / transfers, and must not be closed.
+	 *
+	 * @return  the archive file channel
+	 */
+	public FileChannel channel() {
+		return channel;
+	}
+	
+	/**
+	 * Open an input stream of the uncompressed entry content
+	 *
+	 * @param  entry to read
+	 *
+	 * @return  input stream of the entry content
+	 */
+	public InputStream openStream(Entry entry) {
+		InputStream raw = Channels.newInputStream(new ArchiveRangeChannel(entry.dataOffset,
+			entry.compressedSize));
+		if (entry.isDeflated()) {
+			return new InflaterInputStream(raw, new Inflater(true), 8192) {
+				@Override
+				public void close() throws IOException {
+					// Release the native inflater memory
+					inf.end();
+					super.close();
+				}
+			};
+		}
+		return raw;
+	}
+	
+	/**
+	 * @return  gzip header, for wrapping a deflated entry
+	 */
+	public static byte[] gzipHeader() {
+		return GZIP_HEADER.clone();
+	}
+	
+	/**
+	 * @param  entry to get the gzip trailer of
+	 *
+	 * @return  gzip trailer (CRC32, and size), for wrapping a deflated entry
+	 */
+	public static byte[] gzipTrailer(Entry entry) {
+		ByteBuffer ret = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		ret.putInt((int) entry.crc);
+		ret.putInt((int) entry.size);
+		return ret.array();
+	}
+	
+	/**
+	 * Close the archive file
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	/**
+	 * Readable channel of an archive byte range, using positional reads
+	 * (so that the shared archive channel position is not modified)
+	 */
+	private class ArchiveRangeChannel implements ReadableByteChannel {
+		private long position;
+		private final long end;
+		private boolean open = true;
+		
+		ArchiveRangeChannel(long start, long length) {
+			this.position = start;
+			this.end = start + length;
+		}
+		
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int limit = dst.limit();
+			if (dst.remaining() > end - position) {
+				dst.limit(dst.position() + (int) (end - position));
+			}
+			try {
+				int read = channel.read(dst, position);
+				if (read > 0) {
+					position += read;
+				}
+				return read;
+			} finally {
+				dst.limit(limit);
+			}
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+		
+		@Override
+		public void close() {
+			// Only closes this range, and not the shared archive channel
+			open = false;
+		}
+	}
+}
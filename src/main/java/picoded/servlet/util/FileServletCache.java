@@ -0,0 +1,384 @@
+package picoded.servlet.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache of file contents, used by FileServlet to serve frequently
+ * requested small to medium sized files, without reopening and rereading them.
+ *
+ * File contents are copied outside the JVM heap, into direct ByteBuffers. Memory mapping
+ * is not used, as reading a mapped file which was truncated (or rewritten) in place
+ * crashes the reading thread with an InternalError (SIGBUS), instead of serving stale content.
+ *
+ * The gzip compressed content, and content hash (used for strong ETags) of each file
+ * can also be cached alongside its content, so that it is only computed once per file version.
+ *
+ * Entries are keyed by the normalized absolute file path, and are invalidated
+ * when the file length or last modified timestamp changes. The total size of the
+ * cached files is bounded, with the least recently used files evicted first.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class FileServletCache {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Cache entry
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Cached file content, with the file version it was loaded from
+	 */
+	protected static class Entry {
+		/** File length, when it was loaded */
+		final long length;
+		
+		/** File last modified timestamp, when it was loaded */
+		final long lastModified;
+		
+		/** Read only file content */
+		final ByteBuffer buffer;
+		
+		/** Read only gzip compressed file content, null if not compressed yet */
+		ByteBuffer gzip = null;
+		
+		/** Content hash of the file, null if not computed yet */
+		String contentHash = null;
+		
+		Entry(long length, long lastModified, ByteBuffer buffer) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.buffer = buffer;
+		}
+		
+		/** @return total cached size of the entry */
+		long size() {
+			return length + ((gzip != null) ? gzip.capacity() : 0);
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Maximum size of a single file to cache */
+	public final long maxFileSize;
+	
+	/** Maximum total size of all cached files */
+	public final long maxTotalSize;
+	
+	/** Cached entries, in least recently used order */
+	protected final LinkedHashMap<String, Entry> cacheMap = new LinkedHashMap<>(64, 0.75f, true);
+	
+	/** Current total size of all cached files */
+	protected long totalSize = 0;
+	
+	/**
+	 * Setup the file cache, with its size limits
+	 *
+	 * @param  maxFileSize   maximum size of a single file to cache
+	 * @param  maxTotalSize  maximum total size of all cached files
+	 */
+	public FileServletCache(long maxFileSize, long maxTotalSize) {
+		this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+		this.maxTotalSize = maxTotalSize;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Cache access
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Get the cached file content, loading it into the cache if needed.
+	 *
+	 * The file length and last modified timestamp is provided by the caller
+	 * (which already needs them for the response headers), and is used to
+	 * validate that the cached content is still up to date.
+	 *
+	 * @param  file          to get the content of
+	 * @param  length        current file length
+	 * @param  lastModified  current file last modified timestamp
+	 *
+	 * @return  read only buffer of the file content (positioned at 0),
+	 *          or null if the file is too large to be cached
+	 *
+	 * @throws IOException if the file failed to be read
+	 */
+	public ByteBuffer get(File file, long length, long lastModified) throws IOException {
+		// Skip files which are too large
+		if (length > maxFileSize || length > maxTotalSize) {
+			return null;
+		}
+		String key = cacheKey(file);
+		
+		// Get from the cache first if possible
+		synchronized (cacheMap) {
+			Entry entry = cacheMap.get(key);
+			if (entry != null) {
+				if (entry.length == length && entry.lastModified == lastModified) {
+					return entry.buffer.duplicate();
+				}
+				// File was modified, remove the outdated entry
+				removeEntry(key);
+			}
+		}
+		
+		// Cache not found, lets load this (outside the lock, as it involves IO)
+		Entry entry = new Entry(length, lastModified, load(file, length));
+		
+		// And store in cache, + return it
+		synchronized (cacheMap) {
+			removeEntry(key);
+			cacheMap.put(key, entry);
+			totalSize += entry.size();
+			evict();
+		}
+		return entry.buffer.duplicate();
+	}
+	
+	/**
+	 * Get the gzip compressed file content, compressing and caching it if needed.
+	 *
+	 * @param  file          to get the compressed content of
+	 * @param  length        current file length
+	 * @param  lastModified  current file last modified timestamp
+	 *
+	 * @return  read only buffer of the gzip content (positioned at 0),
+	 *          or null if the file is too large to be cached
+	 *
+	 * @throws IOException if the file failed to be read
+	 */
+	public ByteBuffer getGzip(File file, long length, long lastModified) throws IOException {
+		// Get the uncompressed content first
+		ByteBuffer content = get(file, length, lastModified);
+		if (content == null) {
+			return null;
+		}
+		String key = cacheKey(file);
+		
+		// Get the existing compressed content if possible
+		Entry entry;
+		synchronized (cacheMap) {
+			entry = validEntry(key, length, lastModified);
+			if (entry != null && entry.gzip != null) {
+				return entry.gzip.duplicate();
+			}
+		}
+		
+		// Compress it (outside the lock, as it is CPU intensive)
+		ByteBuffer gzip = compress(content);
+		
+		// And store in cache (if the entry is still valid), + return it
+		synchronized (cacheMap) {
+			if (entry != null && validEntry(key, length, lastModified) == entry && entry.gzip == null) {
+				entry.gzip = gzip;
+				totalSize += gzip.capacity();
+				evict();
+			}
+		}
+		return gzip.duplicate();
+	}
+	
+	/**
+	 * Get the content hash of the file (truncated SHA-256, in url safe base64),
+	 * computing and caching it if needed.
+	 *
+	 * @param  file          to get the content hash of
+	 * @param  length        current file length
+	 * @param  lastModified  current file last modified timestamp
+	 *
+	 * @return  content hash of the file, or null if the file is too large to be cached
+	 *
+	 * @throws IOException if the file failed to be read
+	 */
+	public String getContentHash(File file, long length, long lastModified) throws IOException {
+		// Get the uncompressed content first
+		ByteBuffer content = get(file, length, lastModified);
+		if (content == null) {
+			return null;
+		}
+		String key = cacheKey(file);
+		
+		// Get the existing content hash if possible
+		Entry entry;
+		synchronized (cacheMap) {
+			entry = validEntry(key, length, lastModified);
+			if (entry != null && entry.contentHash != null) {
+				return entry.contentHash;
+			}
+		}
+		
+		// Compute it (outside the lock)
+		String hash = contentHash(content);
+		
+		// And store in cache (if the entry is still valid), + return it
+		synchronized (cacheMap) {
+			if (entry != null && validEntry(key, length, lastModified) == entry) {
+				entry.contentHash = hash;
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * Remove all cached files
+	 */
+	public void clear() {
+		synchronized (cacheMap) {
+			cacheMap.clear();
+			totalSize = 0;
+		}
+	}
+	
+	/**
+	 * @return  current total size of all cached files
+	 */
+	public long totalSize() {
+		synchronized (cacheMap) {
+			return totalSize;
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Internal loading and eviction
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * @param  file to get the cache key of
+	 *
+	 * @return  normalized absolute file path
+	 */
+	protected String cacheKey(File file) {
+		return file.toPath().toAbsolutePath().normalize().toString();
+	}
+	
+	/**
+	 * Get the cached entry, if it matches the given file version.
+	 * Must be called within the cacheMap lock.
+	 *
+	 * @param  key           of the entry
+	 * @param  length        current file length
+	 * @param  lastModified  current file last modified timestamp
+	 *
+	 * @return  the entry, or null if not found (or outdated)
+	 */
+	protected Entry validEntry(String key, long length, long lastModified) {
+		Entry entry = cacheMap.get(key);
+		if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+			return entry;
+		}
+		return null;
+	}
+	
+	/**
+	 * Compute the content hash, as the first 144 bits of its SHA-256 digest in url safe base64
+	 *
+	 * @param  content to hash
+	 *
+	 * @return  content hash string
+	 */
+	protected String contentHash(ByteBuffer content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(content.duplicate());
+			return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(Arrays.copyOf(digest.digest(), 18));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Gzip compress the given content, with the best compression level
+	 * (as it is only done once per file version)
+	 *
+	 * @param  content to compress
+	 *
+	 * @return  read only buffer of the compressed content
+	 */
+	protected ByteBuffer compress(ByteBuffer content) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.remaining() / 2 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8192) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			// Copy the (possibly direct) content in chunks
+			ByteBuffer source = content.duplicate();
+			byte[] chunk = new byte[8192];
+			while (source.hasRemaining()) {
+				int len = Math.min(chunk.length, source.remaining());
+				source.get(chunk, 0, len);
+				gzip.write(chunk, 0, len);
+			}
+		}
+		return ByteBuffer.wrap(compressed.toByteArray()).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Load the file content into a direct buffer
+	 *
+	 * @param  file    to load
+	 * @param  length  of the file
+	 *
+	 * @return  read only buffer of the file content
+	 */
+	protected ByteBuffer load(File file, long length) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// Copy the file into a direct buffer
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("File was truncated while being read : " + file);
+				}
+			}
+			buffer.flip();
+			return buffer.asReadOnlyBuffer();
+		}
+	}
+	
+	/**
+	 * Remove the given entry (if it exists), must be called within the cacheMap lock
+	 *
+	 * @param  key of the entry to remove
+	 */
+	protected void removeEntry(String key) {
+		Entry old = cacheMap.remove(key);
+		if (old != null) {
+			totalSize -= old.size();
+		}
+	}
+	
+	/**
+	 * Evict the least recently used entries, until the total size is within its limits.
+	 * Must be called within the cacheMap lock.
+	 */
+	protected void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = cacheMap.entrySet().iterator();
+		while (totalSize > maxTotalSize && iterator.hasNext()) {
+			totalSize -= iterator.next().getValue().size();
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package picoded.servlet.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short lived cache of file metadata (existence, type, size and last modified), used by
+ * FileServlet to avoid repeated filesystem lookups for frequently requested files.
+ *
+ * This caches both
+ *
+ * + The file metadata, keyed by the file path (including negative "not found" entries)
+ * + The resolved file of each request path (after validation, and index.html resolution)
+ *
+ * Alongside the response values derived from the metadata (MIME type, and ETag), so that
+ * a revalidation request (304) within the TTL can be answered without any filesystem call.
+ *
+ * Entries expire after the configured TTL, so file changes are picked up within the TTL.
+ * The number of entries is bounded, with the least recently used entries evicted first.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class FileServletStatCache {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Cache entry
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * File metadata, at the time it was checked
+	 */
+	public static class Stat {
+		/** The file (null if the request path was rejected) */
+		public final File file;
+		
+		/** Indicates if the file exists (and is readable) */
+		public final boolean exists;
+		
+		/** Indicates if the file is a directory */
+		public final boolean directory;
+		
+		/** File length */
+		public final long length;
+		
+		/** File last modified timestamp */
+		public final long lastModified;
+		
+		/** Timestamp when the file was checked */
+		public final long checkedAt;
+		
+		/** MIME type of the file, null if not resolved yet */
+		public volatile String contentType = null;
+		
+		/** ETag of the file (without the content encoding), null if not computed yet */
+		public volatile String eTag = null;
+		
+		/**
+		 * Read the file metadata, in a single lookup
+		 *
+		 * @param  file to read (can be null, for a not found entry)
+		 * @param  checkedAt timestamp
+		 */
+		public Stat(File file, long checkedAt) {
+			BasicFileAttributes attributes = null;
+			if (file != null) {
+				try {
+					attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				} catch (IOException | SecurityException e) {
+					attributes = null;
+				}
+			}
+			this.file = file;
+			this.exists = (attributes != null);
+			this.directory = exists && attributes.isDirectory();
+			this.length = exists ? attributes.size() : 0;
+			this.lastModified = exists ? attributes.lastModifiedTime().toMillis() : 0;
+			this.checkedAt = checkedAt;
+		}
+		
+		/**
+		 * @return  true if its an existing (non directory) file
+		 */
+		public boolean isFile() {
+			return exists && !directory;
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Time to live of each entry, in milliseconds */
+	public final long ttl;
+	
+	/** Maximum number of entries (for each of the file, and request path maps) */
+	public final int maxEntries;
+	
+	/** File metadata entries, by file path, in least recently used order */
+	protected final LinkedHashMap<String, Stat> statMap;
+	
+	/** Resolved file metadata entries, by request path, in least recently used order */
+	protected final LinkedHashMap<String, Stat> pathMap;
+	
+	/**
+	 * Setup the stat cache, with its TTL and size limit
+	 *
+	 * @param  ttl         time to live of each entry, in milliseconds
+	 * @param  maxEntries  maximum number of entries
+	 */
+	public FileServletStatCache(long ttl, int maxEntries) {
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+		this.statMap = boundedMap(maxEntries);
+		this.pathMap = boundedMap(maxEntries);
+	}
+	
+	/**
+	 * @param  maxEntries of the map
+	 *
+	 * @return  access ordered map, which evicts its least recently used entry above the limit
+	 */
+	private static LinkedHashMap<String, Stat> boundedMap(int maxEntries) {
+		return new LinkedHashMap<String, Stat>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Stat> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Cache access
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Get the file metadata, reading it if its not cached (or expired)
+	 *
+	 * @param  file to get the metadata of
+	 *
+	 * @return  the file metadata
+	 */
+	public Stat get(File file) {
+		String key = file.getPath();
+		long now = System.currentTimeMillis();
+		
+		// Get from the cache first if possible
+		synchronized (statMap) {
+			Stat ret = statMap.get(key);
+			if (ret != null && !isExpired(ret, now)) {
+				return ret;
+			}
+		}
+		
+		// Cache not found, read the file metadata (outside the lock, as it involves IO)
+		Stat ret = new Stat(file, now);
+		synchronized (statMap) {
+			statMap.put(key, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Get the cached resolved file metadata of a request path
+	 *
+	 * @param  requestPath to get
+	 *
+	 * @return  the resolved file metadata, or null if its not cached (or expired)
+	 */
+	public Stat getResolved(String requestPath) {
+		synchronized (pathMap) {
+			Stat ret = pathMap.get(requestPath);
+			if (ret != null && !isExpired(ret, System.currentTimeMillis())) {
+				return ret;
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Cache the resolved file metadata of a request path
+	 *
+	 * @param  requestPath to store
+	 * @param  stat of the resolved file
+	 */
+	public void putResolved(String requestPath, Stat stat) {
+		synchronized (pathMap) {
+			pathMap.put(requestPath, stat);
+		}
+	}
+	
+	/**
+	 * Clear all the cached entries
+	 */
+	public void clear() {
+		synchronized (statMap) {
+			statMap.clear();
+		}
+		synchronized (pathMap) {
+			pathMap.clear();
+		}
+	}
+	
+	/**
+	 * @param  stat to check
+	 * @param  now current timestamp
+	 *
+	 * @return  true if the entry has expired
+	 */
+	protected boolean isExpired(Stat stat, long now) {
+		return now - stat.checkedAt >= ttl || now < stat.checkedAt;
+	}
+}
@@ -0,0 +1,205 @@
+package picoded.servlet.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import picoded.core.struct.GenericConvertMap;
+import picoded.core.web.RequestHttpClient;
+
+/**
+ * Per target server client and concurrency limit, used by ProxyServlet.
+ *
+ * Each target server (see `ProxyServlet.serverTarget()`) gets its own RequestHttpClient,
+ * and so its own connection pool and keep-alive settings, configured from the
+ * `sys.proxy` config. Alongside a bounded number of concurrent relayed requests,
+ * so that a slow target server cannot exhaust the servlet container threads.
+ *
+ * The following `sys.proxy` config is supported
+ *
+ * + client                : RequestHttpClient config (eg. timeouts, and connection pool settings)
+ * + maxConcurrentRequests : maximum concurrent requests per target, 0 (default) for unlimited
+ * + acquireTimeout        : time to wait (in ms) for a request slot, before failing with 503
+ * + connectTimeout        : streaming relay connect timeout (in ms), 0 (default) for no timeout
+ * + readTimeout           : streaming relay read timeout (in ms), 0 (default) for no timeout
+ *
+ * Request slot usage metrics (active, available, waiting, wait time) are tracked for each target,
+ * see `metrics()`, and `ProxyServlet.poolMetrics()`. Note that these are of the relayed requests
+ * (concurrency limit), and not the client connection pool (active / idle connections),
+ * which is internal to RequestHttpClient.
+ *
+ * Note that this class is designed for concurrent access by multiple threads
+ **/
+public class ProxyClientPool {
+	
+	///////////////////////////////////////////////////////
+	//
+	// Constructor setup
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Target server */
+	public final String target;
+	
+	/** Client used for the target server */
+	public final RequestHttpClient client;
+	
+	/** Maximum concurrent requests, 0 for unlimited */
+	public final int maxConcurrentRequests;
+	
+	/** Time to wait for a request slot, in milliseconds */
+	public final long acquireTimeout;
+	
+	/** Streaming relay connect timeout, in milliseconds */
+	public final int connectTimeout;
+	
+	/** Streaming relay read timeout, in milliseconds */
+	public final int readTimeout;
+	
+	/** Concurrent requests limit, null if unlimited */
+	protected final Semaphore semaphore;
+	
+	/**
+	 * Setup the pool for the given target, and its config
+	 *
+	 * @param  target server
+	 * @param  config of the proxy (`sys.proxy`), can be null
+	 */
+	public ProxyClientPool(String target, GenericConvertMap<String, Object> config) {
+		this.target = target;
+		
+		// Client config, without redirects (which are relayed instead)
+		Map<String, Object> clientConfig = new HashMap<>();
+		clientConfig.put("followRedirects", false);
+		clientConfig.put("followSslRedirects", false);
+		
+		// Proxy config, and the additional client config
+		if (config != null) {
+			GenericConvertMap<String, Object> extraConfig = config.getGenericConvertStringMap(
+				"client", "{}");
+			if (extraConfig != null) {
+				clientConfig.putAll(extraConfig);
+			}
+			maxConcurrentRequests = Math.max(0, config.getInt("maxConcurrentRequests", 0));
+			acquireTimeout = config.getLong("acquireTimeout", 30000);
+			connectTimeout = config.getInt("connectTimeout", 0);
+			readTimeout = config.getInt("readTimeout", 0);
+		} else {
+			maxConcurrentRequests = 0;
+			acquireTimeout = 30000;
+			connectTimeout = 0;
+			readTimeout = 0;
+		}
+		
+		this.client = new RequestHttpClient(clientConfig);
+		this.semaphore = (maxConcurrentRequests > 0) ? new Semaphore(maxConcurrentRequests, true)
+			: null;
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Request slot handling
+	//
+	///////////////////////////////////////////////////////
+	
+	/** Number of active requests */
+	protected final AtomicInteger active = new AtomicInteger();
+	
+	/** Number of requests waiting for a slot */
+	protected final AtomicInteger waiting = new AtomicInteger();
+	
+	/** Total number of requests */
+	protected final LongAdder requestCount = new LongAdder();
+	
+	/** Total number of requests rejected (after the acquire timeout) */
+	protected final LongAdder rejectedCount = new LongAdder();
+	
+	/** Total time spent waiting for a slot, in nanoseconds */
+	protected final LongAdder totalWaitNanos = new LongAdder();
+	
+	/** Longest time spent waiting for a slot, in nanoseconds */
+	protected final AtomicLong maxWaitNanos = new AtomicLong();
+	
+	/**
+	 * Acquire a request slot, waiting up to the acquire timeout if needed.
+	 * Every successful acquire must be followed by a `release()`
+	 *
+	 * @return  true if acquired, false if the timeout was reached (or interrupted)
+	 */
+	public boolean acquire() {
+		requestCount.increment();
+		if (semaphore != null && !semaphore.tryAcquire()) {
+			// Wait for a slot
+			long start = System.nanoTime();
+			waiting.incrementAndGet();
+			boolean acquired = false;
+			try {
+				acquired = semaphore.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				waiting.decrementAndGet();
+			}
+			
+			// Track the wait time
+			long waited = System.nanoTime() - start;
+			totalWaitNanos.add(waited);
+			maxWaitNanos.accumulateAndGet(waited, Math::max);
+			if (!acquired) {
+				rejectedCount.increment();
+				return false;
+			}
+		}
+		active.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * Release the acquired request slot
+	 */
+	public void release() {
+		active.decrementAndGet();
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+	
+	///////////////////////////////////////////////////////
+	//
+	// Metrics
+	//
+	///////////////////////////////////////////////////////
+	
+	/**
+	 * Get the request slot usage metrics
+	 *
+	 * + target            : target server
+	 * + maxConcurrent     : maximum concurrent requests, 0 for unlimited
+	 * + active            : active requests
+	 * + available         : available request slots, -1 if unlimited
+	 * + waiting           : requests waiting for a slot
+	 * + requests          : total requests
+	 * + rejected          : total requests rejected
+	 * + totalWaitMillis   : total time spent waiting for a slot
+	 * + maxWaitMillis     : longest time spent waiting for a slot
+	 *
+	 * @return  metrics map
+	 */
+	public Map<String, Object> metrics() {
+		Map<String, Object> ret = new HashMap<>();
+		ret.put("target", target);
+		ret.put("maxConcurrent", maxConcurrentRequests);
+		ret.put("active", active.get());
+		ret.put("available", (semaphore != null) ? semaphore.availablePermits() : -1);
+		ret.put("waiting", waiting.get());
+		ret.put("requests", requestCount.sum());
+		ret.put("rejected", rejectedCount.sum());
+		ret.put("totalWaitMillis", TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum()));
+		ret.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+		return ret;
+	}
+}
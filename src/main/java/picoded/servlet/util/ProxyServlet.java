@@ -4,12 +4,22 @@ import picoded.servlet.*;
 import picoded.servlet.annotation.*;
 import picoded.core.web.*;
 import picoded.core.conv.*;
+import picoded.core.struct.GenericConvertMap;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.io.IOUtils;
@@ -33,6 +43,23 @@ import org.apache.commons.io.IOUtils;
  * 	}
  * }
  * ```
+ * 
+ * By default the request parameters are parsed, and resent to the target server.
+ * Alternatively the streaming relay (see `streamRelayRequest`) pipes the raw request
+ * and response body bytes as it is, supporting any content type (including binary uploads)
+ * without decoding them. This can be enabled by setting `_streamingRelay` to true,
+ * or by calling `streamRelayRequest()` directly.
+ * 
+ * Each target server uses its own client (connection pool) and concurrent requests limit,
+ * configured with `sys.proxy` (see ProxyClientPool and `proxyConfig()`). Its request slot
+ * usage metrics can be exposed by the application, for example
+ * 
+ * ```
+ * @ApiPath("proxy/metrics")
+ * public void proxyMetrics() {
+ * 	getApiResponseMap().put("result", ProxyServlet.poolMetrics());
+ * }
+ * ```
  */
 public class ProxyServlet extends BasePage {
 	
@@ -41,6 +68,16 @@ public class ProxyServlet extends BasePage {
 	 */
 	protected String _serverTarget = null;
 	
+	/**
+	 * Use the byte streaming relay, instead of parsing and resending the request parameters
+	 */
+	protected boolean _streamingRelay = false;
+	
+	/**
+	 * Original BasePage which recieved the request (if any), used for its `sys.proxy` config
+	 */
+	protected BasePage _sourcePage = null;
+	
 	/**
 	 * Setup the class with the server target, and BasePage (to initialize from)
 	 * 
@@ -49,6 +86,7 @@ public class ProxyServlet extends BasePage {
 	 */
 	public ProxyServlet(BasePage page, String target) {
 		transferParamsProcess(page);
+		_sourcePage = page;
 		_serverTarget = target;
 	}
 	
@@ -76,6 +114,14 @@ public class ProxyServlet extends BasePage {
 		return _serverTarget;
 	}
 	
+	/**
+	 * Indicates if the byte streaming relay is used by `relayRequest()`
+	 * This function can be overwritten to change the relay behaviour
+	 */
+	public boolean streamingRelay() {
+		return _streamingRelay;
+	}
+	
 	/**
 	 * Given the current request parameters and serverTarget, 
 	 * computes the target endpoint to make the request by using the servlet requestURI
@@ -95,6 +141,81 @@ public class ProxyServlet extends BasePage {
 		return server + requestURI();
 	}
 	
+	//--------------------------------------------------------
+	// Per target client pool support
+	//--------------------------------------------------------
+	
+	/**
+	 * Client pool for each target server
+	 */
+	protected static final ConcurrentHashMap<String, ProxyClientPool> _clientPoolMap = new ConcurrentHashMap<>();
+	
+	/**
+	 * Proxy configuration, used to setup the client pool of each target server
+	 * This function can be overwritten to change the configuration used
+	 * 
+	 * By default this is the `sys.proxy` config of the original BasePage (if its a BaseUtilPage),
+	 * else of the config folder of this servlet itself (when it directly serves the request).
+	 * Null is returned for the default client pool settings, if there is no config folder.
+	 * 
+	 * @return  the `sys.proxy` config
+	 */
+	protected GenericConvertMap<String, Object> proxyConfig() {
+		// Original page config
+		if (_sourcePage instanceof BaseUtilPage) {
+			return ((BaseUtilPage) _sourcePage).configFileSet().getGenericConvertStringMap(
+				"sys.proxy", "{}");
+		}
+		
+		// Config folder of the current request (as this servlet is not a BaseUtilPage)
+		BaseUtilPage configPage = new BaseUtilPage();
+		configPage.transferParams(this);
+		if (!(new File(configPage.getConfigPath())).isDirectory()) {
+			return null;
+		}
+		return configPage.configFileSet().getGenericConvertStringMap("sys.proxy", "{}");
+	}
+	
+	/**
+	 * Client pool of the current server target, initialized on first use
+	 * 
+	 * The pool is shared by every ProxyServlet relaying to the same server target, and is
+	 * configured once with the `proxyConfig()` of its first caller. As `sys.proxy` is an
+	 * application wide config, this only matters if `proxyConfig()` is overwritten to return
+	 * different settings for the same target, where the later settings are ignored.
+	 * 
+	 * @return  ProxyClientPool used in relay
+	 */
+	public ProxyClientPool clientPool() {
+		return _clientPoolMap.computeIfAbsent(serverTarget(),
+			(target) -> new ProxyClientPool(target, proxyConfig()));
+	}
+	
+	/**
+	 * Request slot usage metrics of the client pool of every target server
+	 * 
+	 * @return  metrics map (see `ProxyClientPool.metrics()`), by target server
+	 */
+	public static Map<String, Map<String, Object>> poolMetrics() {
+		Map<String, Map<String, Object>> ret = new HashMap<>();
+		for (ProxyClientPool pool : _clientPoolMap.values()) {
+			ret.put(pool.target, pool.metrics());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Respond with 503 (service unavailable), when the target server request slots are
+	 * all in use (after waiting for the pool acquire timeout)
+	 */
+	protected void sendPoolExhausted() {
+		try {
+			getHttpServletResponse().sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	//--------------------------------------------------------
 	// Static client library support
 	//--------------------------------------------------------
@@ -103,9 +224,10 @@ public class ProxyServlet extends BasePage {
 	private static volatile RequestHttpClient httpClientObj = null;
 	
 	/**
-	 * RequestHttpClient, which by defaults uses the cached RequestHttp
+	 * Shared RequestHttpClient, without the per target `sys.proxy` configuration.
+	 * Note that the relay uses the client of `clientPool()` instead.
 	 * 
-	 * @return  RequestHttpClient used in relay
+	 * @return  shared RequestHttpClient
 	 */
 	public static RequestHttpClient httpClient() {
 		// Thread safe get
@@ -164,11 +286,35 @@ public class ProxyServlet extends BasePage {
 	/**
 	 * Calls the targetEndpoint, and relay the request
 	 */
-	@SuppressWarnings("unchecked")
 	public void relayRequest() {
+		// Use the streaming relay instead, if enabled
+		if (streamingRelay()) {
+			streamRelayRequest();
+			return;
+		}
+		
+		// Get a request slot of the target server client pool
+		ProxyClientPool pool = clientPool();
+		if (!pool.acquire()) {
+			sendPoolExhausted();
+			return;
+		}
+		try {
+			relayRequest(pool.client);
+		} finally {
+			pool.release();
+		}
+	}
+	
+	/**
+	 * Calls the targetEndpoint, and relay the request with the given client
+	 * 
+	 * @param client  to make the request with
+	 */
+	@SuppressWarnings("unchecked")
+	protected void relayRequest(RequestHttpClient client) {
 		// Compute the target endpoint
 		String target = targetEndpoint();
-		RequestHttpClient client = httpClient();
 		
 		// The header and cookie map
 		Map<String, String[]> headerMap = requestHeaderMap();
@@ -257,6 +403,160 @@ public class ProxyServlet extends BasePage {
 		}
 	}
 	
+	//--------------------------------------------------------
+	// Streaming relay support
+	//--------------------------------------------------------
+	
+	/**
+	 * Hop-by-hop headers (lowercase) which are not relayed, as they only apply to
+	 * a single connection. As well as the host, and content length (which is set by the connection)
+	 */
+	protected static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<>(Arrays.asList(
+		"connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "proxy-connection",
+		"te", "trailer", "transfer-encoding", "upgrade", "host", "content-length"));
+	
+	/**
+	 * Buffer size used for the streaming relay, and its chunked request body
+	 */
+	protected static final int STREAM_BUFFER_SIZE = 8192;
+	
+	/**
+	 * Calls the targetEndpoint, and relay the request (and its response) as a byte stream.
+	 * 
+	 * Unlike `relayRequest()` the request body is not parsed, and is instead piped directly
+	 * from the servlet input stream to the target server (and vice versa for its response).
+	 * So any content type is supported, without any intermediate parameter maps.
+	 * 
+	 * Note that the request body is read directly from the servlet request, and hence this
+	 * should not be used together with the request parameters (including endpoint name parameters)
+	 * for form POST requests, as the container consumes the body when parsing its parameters.
+	 * And the request methods supported are limited to those of HttpURLConnection
+	 * (GET, POST, HEAD, OPTIONS, PUT, DELETE and TRACE).
+	 */
+	public void streamRelayRequest() {
+		// Get a request slot of the target server client pool
+		ProxyClientPool pool = clientPool();
+		if (!pool.acquire()) {
+			sendPoolExhausted();
+			return;
+		}
+		try {
+			streamRelayRequest(pool);
+		} finally {
+			pool.release();
+		}
+	}
+	
+	/**
+	 * Calls the targetEndpoint, and relay the request as a byte stream
+	 * 
+	 * @param pool  of the target server, for its timeout settings
+	 */
+	protected void streamRelayRequest(ProxyClientPool pool) {
+		HttpServletRequest servletRequest = getHttpServletRequest();
+		HttpServletResponse servletResponse = getHttpServletResponse();
+		
+		// Compute the target endpoint, with its query string
+		String target = targetEndpoint();
+		String queryString = servletRequest.getQueryString();
+		if (queryString != null) {
+			target = target + "?" + queryString;
+		}
+		
+		HttpURLConnection connection = null;
+		try {
+			// Setup the connection, without following redirects (which are relayed instead)
+			connection = (HttpURLConnection) new URL(target).openConnection();
+			connection.setRequestMethod(requestTypeString().toUpperCase());
+			connection.setInstanceFollowRedirects(false);
+			connection.setUseCaches(false);
+			connection.setConnectTimeout(pool.connectTimeout);
+			connection.setReadTimeout(pool.readTimeout);
+			
+			// Pass over the request headers
+			Enumeration<String> headerNames = servletRequest.getHeaderNames();
+			while (headerNames != null && headerNames.hasMoreElements()) {
+				String name = headerNames.nextElement();
+				if (HOP_BY_HOP_HEADERS.contains(name.toLowerCase())) {
+					continue;
+				}
+				Enumeration<String> values = servletRequest.getHeaders(name);
+				while (values.hasMoreElements()) {
+					connection.addRequestProperty(name, values.nextElement());
+				}
+			}
+			
+			// Pipe the request body (if any), with a fixed or chunked length
+			long contentLength = servletRequest.getContentLengthLong();
+			if (contentLength > 0 || servletRequest.getHeader("Transfer-Encoding") != null) {
+				connection.setDoOutput(true);
+				if (contentLength > 0) {
+					connection.setFixedLengthStreamingMode(contentLength);
+				} else {
+					connection.setChunkedStreamingMode(STREAM_BUFFER_SIZE);
+				}
+				try (OutputStream upstream = connection.getOutputStream()) {
+					copyStream(servletRequest.getInputStream(), upstream);
+				}
+			}
+			
+			// Set the status code
+			int statusCode = connection.getResponseCode();
+			servletResponse.setStatus(statusCode);
+			
+			// Pass over the response headers (the null key is the status line)
+			for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+				String name = header.getKey();
+				if (name == null || HOP_BY_HOP_HEADERS.contains(name.toLowerCase())) {
+					continue;
+				}
+				for (String value : header.getValue()) {
+					servletResponse.addHeader(name, value);
+				}
+			}
+			
+			// Pass over the response content length, if known
+			long responseLength = connection.getContentLengthLong();
+			if (responseLength >= 0) {
+				servletResponse.setHeader("Content-Length", String.valueOf(responseLength));
+			}
+			
+			// Pipe the response body (the error stream for error status codes)
+			InputStream responseInputStream = (statusCode >= 400) ? connection.getErrorStream()
+				: connection.getInputStream();
+			if (responseInputStream != null) {
+				try (InputStream upstream = responseInputStream) {
+					copyStream(upstream, getOutputStream());
+				}
+			}
+		} catch (IOException e) {
+			// Only disconnect on failure, as the fully read connection is
+			// otherwise reused (keep-alive) for subsequent relays
+			if (connection != null) {
+				connection.disconnect();
+			}
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Copy the input stream to the output stream, flushing after each read so that
+	 * streamed (eg. server sent events) content is relayed as it arrives
+	 * 
+	 * @param input   stream to read from
+	 * @param output  stream to write to
+	 */
+	protected void copyStream(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+		int len;
+		while ((len = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, len);
+			if (input.available() <= 0) {
+				output.flush();
+			}
+		}
+	}
+	
 	/**
 	 * Wildcard request path
 	 * to relay all request 
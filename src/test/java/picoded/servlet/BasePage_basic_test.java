@@ -2,12 +2,20 @@ package picoded.servlet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,6 +33,7 @@ import picoded.core.web.ResponseHttp;
 import picoded.servlet.annotation.*;
 
 import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
 
 public class BasePage_basic_test {
 	
@@ -323,4 +332,245 @@ public class BasePage_basic_test {
 		assertEquals("Unsupported type in method simpleNameParam for parameter type Integer",
 			genericConvertMap.getGenericConvertStringMap("ERROR").getString("message").toString());
 	}
+	
+	/**
+	 * Method whose argument fails to resolve
+	 */
+	public static class ArgumentFailureServlet extends BasePage {
+		@Override
+		public ServletRequestMap requestParameterMap() {
+			throw new RuntimeException("Invalid request parameters");
+		}
+		
+		@RequestPath("argument/failure")
+		public void argumentFailure(Map<String, Object> map) {
+			// intentionally leave blank
+		}
+	}
+	
+	@Test
+	public void test_argumentFailure() {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, new ArgumentFailureServlet()));
+		String testUrl = "http://127.0.0.1:" + testPort + "/argument/failure";
+		ResponseHttp response = RequestHttp.get(testUrl, null, null, null);
+		Map<String, Object> map = response.toMap();
+		GenericConvertMap<String, Object> genericConvertMap = GenericConvert
+			.toGenericConvertStringMap(map);
+		assertEquals("Invalid request parameters",
+			genericConvertMap.getGenericConvertStringMap("ERROR").getString("message").toString());
+	}
+	
+	/**
+	 * Async page, dispatched off the container thread
+	 */
+	@AsyncPage(virtualThreads = false, maxThreads = 4)
+	public static class AsyncHelloWorld extends BasePage {
+		@RequestPath("hello")
+		public void helloWorld() {
+			getPrintWriter().println(
+				(isAsyncDispatched() && CorePage.getCorePage() == this) ? "world" : "sync");
+		}
+	}
+	
+	@Test
+	public void testAsyncPage() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, new AsyncHelloWorld()));
+		String testUrl = "http://127.0.0.1:" + testPort + "/hello";
+		ResponseHttp response = RequestHttp.get(testUrl, null, null, null);
+		assertEquals("world", response.toString().trim());
+	}
+	
+	/**
+	 * Async endpoint results, completed off the container thread
+	 */
+	public static class CompletableFutureServlet extends BasePage {
+		@ApiPath("hello")
+		public CompletableFuture<Map<String, Object>> hello() {
+			return CompletableFuture.supplyAsync(() -> {
+				Map<String, Object> ret = new HashMap<>();
+				ret.put("hello", "world");
+				return ret;
+			});
+		}
+		
+		@RequestAfter("hello")
+		public void after() {
+			getApiResponseMap().put("after", "filter");
+		}
+		
+		@RequestPath("text")
+		public CompletableFuture<String> text() {
+			return CompletableFuture.supplyAsync(() -> "world");
+		}
+	}
+	
+	@Test
+	public void testCompletableFuture() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, new CompletableFutureServlet()));
+		String testUrl = "http://127.0.0.1:" + testPort + "/hello";
+		GenericConvertMap<String, Object> map = GenericConvert.toGenericConvertStringMap(RequestHttp
+			.get(testUrl, null, null, null).toMap());
+		assertEquals("world", map.getString("hello"));
+		assertEquals("filter", map.getString("after"));
+		
+		testUrl = "http://127.0.0.1:" + testPort + "/text";
+		assertEquals("world", RequestHttp.get(testUrl, null, null, null).toString().trim());
+	}
+	
+	/**
+	 * Async endpoint results, which fails, halts, or takes too long
+	 */
+	public static class CompletableFutureErrorServlet extends BasePage {
+		@Override
+		public long asyncResponseTimeout() {
+			return 500;
+		}
+		
+		@ApiPath("failed")
+		public CompletableFuture<Map<String, Object>> failed() {
+			return CompletableFuture.supplyAsync(() -> {
+				throw new RuntimeException("boom");
+			});
+		}
+		
+		@RequestPath("halted")
+		public CompletableFuture<String> halted() {
+			return CompletableFuture.supplyAsync(() -> {
+				throw new HaltException();
+			});
+		}
+		
+		@RequestPath("slow")
+		public CompletableFuture<String> slow() {
+			return new CompletableFuture<>();
+		}
+		
+		@RequestBefore("slowFilter")
+		public CompletableFuture<String> slowFilter() {
+			return new CompletableFuture<>();
+		}
+		
+		@RequestPath("slowFilter")
+		public String slowFilterPath() {
+			return "never";
+		}
+	}
+	
+	@Test
+	public void testCompletableFutureError() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort,
+			new CompletableFutureErrorServlet()));
+		
+		// Failed result, is handled as per a thrown exception
+		String testUrl = "http://127.0.0.1:" + testPort + "/failed";
+		GenericConvertMap<String, Object> map = GenericConvert.toGenericConvertStringMap(RequestHttp
+			.get(testUrl, null, null, null).toMap());
+		assertNotNull(map.get("ERROR"));
+		
+		// Halted result, skips the output
+		testUrl = "http://127.0.0.1:" + testPort + "/halted";
+		ResponseHttp response = RequestHttp.get(testUrl, null, null, null);
+		assertEquals(200, response.statusCode());
+		assertEquals("", response.toString().trim());
+		
+		// Result which takes too long, is 503 (deferred, or waited on)
+		testUrl = "http://127.0.0.1:" + testPort + "/slow";
+		assertEquals(503, RequestHttp.get(testUrl, null, null, null).statusCode());
+		testUrl = "http://127.0.0.1:" + testPort + "/slowFilter";
+		assertEquals(503, RequestHttp.get(testUrl, null, null, null).statusCode());
+	}
+	
+	/**
+	 * Endpoint with more than 4 parameters (invoked with a spread argument array)
+	 */
+	public static class ManyParameters extends BasePage {
+		@ApiPath("many")
+		public void many(ServletRequestMap req, ApiResponseMap res, Map<String, Object> map,
+			HttpServletRequest httpReq, StringBuilder builder) {
+			res.put("name", req.getString("name"));
+			res.put("sameMap", map == req);
+			res.put("method", httpReq.getMethod());
+			res.put("sameBuilder", builder == getResponseStringBuilder());
+		}
+	}
+	
+	@Test
+	public void testManyParameters() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, new ManyParameters()));
+		String testUrl = "http://127.0.0.1:" + testPort + "/many";
+		Map<String, Object> params = new HashMap<>();
+		params.put("name", "hello");
+		GenericConvertMap<String, Object> map = GenericConvert.toGenericConvertStringMap(RequestHttp
+			.get(testUrl, params, null, null).toMap());
+		assertEquals("hello", map.getString("name"));
+		assertTrue(map.getBoolean("sameMap"));
+		assertEquals("GET", map.getString("method"));
+		assertTrue(map.getBoolean("sameBuilder"));
+	}
+	
+	/**
+	 * Non-public page class, which methods are not accessible to the method handle lookup
+	 * (and invoked with reflection instead)
+	 */
+	static class NonPublicPage extends BasePage {
+		@RequestPath("hello")
+		public void helloWorld(PrintWriter writer) {
+			writer.println("world");
+		}
+	}
+	
+	@Test
+	public void testNonPublicPage() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, new NonPublicPage()));
+		String testUrl = "http://127.0.0.1:" + testPort + "/hello";
+		ResponseHttp response = RequestHttp.get(testUrl, null, null, null);
+		assertEquals("world", response.toString().trim());
+	}
+	
+	/**
+	 * Gzip compressed JSON API response
+	 */
+	public static class CompressedApiResponse extends BasePage {
+		@Override
+		protected boolean compressApiResponse() {
+			return true;
+		}
+		
+		@ApiPath("hello")
+		public Map<String, Object> hello() {
+			Map<String, Object> ret = new HashMap<>();
+			StringBuilder value = new StringBuilder();
+			for (int i = 0; i < 4096; ++i) {
+				value.append('x');
+			}
+			ret.put("hello", value.toString());
+			return ret;
+		}
+	}
+	
+	@Test
+	public void testCompressedApiResponse() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, new CompressedApiResponse()));
+		URL testUrl = new URL("http://127.0.0.1:" + testPort + "/hello");
+		
+		// Without Accept-Encoding, the output is as it is
+		HttpURLConnection connection = (HttpURLConnection) testUrl.openConnection();
+		assertEquals(200, connection.getResponseCode());
+		assertNull(connection.getHeaderField("Content-Encoding"));
+		assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+		try (InputStream in = connection.getInputStream()) {
+			assertEquals(4096, ConvertJSON.toMap(IOUtils.toString(in, "UTF-8")).get("hello")
+				.toString().length());
+		}
+		
+		// With Accept-Encoding, the output is compressed
+		connection = (HttpURLConnection) testUrl.openConnection();
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+		try (InputStream in = new GZIPInputStream(connection.getInputStream())) {
+			assertEquals(4096, ConvertJSON.toMap(IOUtils.toString(in, "UTF-8")).get("hello")
+				.toString().length());
+		}
+	}
 }
@@ -118,4 +118,72 @@ public class CorePage_test {
 		assertEquals("POST", response.toString().trim());
 	}
 	
+	//
+	// Servlet config sharing with spawned instances
+	//
+	public static class InitCountPage extends CorePage {
+		// Number of times init was called
+		static int initCount = 0;
+		
+		@Override
+		public void init() throws ServletException {
+			++initCount;
+		}
+	}
+	
+	public static class InitOnSpawnPage extends InitCountPage {
+		@Override
+		protected boolean initOnSpawnInstance() {
+			return true;
+		}
+	}
+	
+	// Minimal servlet config, with a single init parameter
+	ServletContext servletContext = (ServletContext) java.lang.reflect.Proxy.newProxyInstance(
+		getClass().getClassLoader(), new Class<?>[] { ServletContext.class },
+		(proxy, m, args) -> null);
+	ServletConfig servletConfig = (ServletConfig) java.lang.reflect.Proxy.newProxyInstance(
+		getClass().getClassLoader(), new Class<?>[] { ServletConfig.class }, (proxy, m, args) -> {
+			switch (m.getName()) {
+				case "getServletContext":
+					return servletContext;
+				case "getInitParameter":
+					return "hello".equals(args[0]) ? "world" : null;
+				case "getServletName":
+					return "test";
+				default:
+					return null;
+			}
+		});
+	
+	@Test
+	public void spawnInstanceSharesServletConfig() throws Exception {
+		InitCountPage.initCount = 0;
+		InitCountPage page = new InitCountPage();
+		page.init(servletConfig);
+		assertEquals(1, InitCountPage.initCount);
+		
+		// Spawned page has the original servlet config, without running init
+		CorePage spawned = page.spawnInstance();
+		assertNotSame(page, spawned);
+		assertSame(servletConfig, spawned.getServletConfig());
+		assertSame(servletContext, spawned.getServletContext());
+		assertEquals("world", spawned.getInitParameter("hello"));
+		assertEquals(1, InitCountPage.initCount);
+	}
+	
+	@Test
+	public void spawnInstanceWithInitOnSpawn() throws Exception {
+		InitCountPage.initCount = 0;
+		InitOnSpawnPage page = new InitOnSpawnPage();
+		page.init(servletConfig);
+		assertEquals(1, InitCountPage.initCount);
+		
+		// Spawned page runs init, with the original servlet config
+		CorePage spawned = page.spawnInstance();
+		assertNotSame(page, spawned);
+		assertSame(servletConfig, spawned.getServletConfig());
+		assertEquals("world", spawned.getInitParameter("hello"));
+		assertEquals(2, InitCountPage.initCount);
+	}
 }
\ No newline at end of file
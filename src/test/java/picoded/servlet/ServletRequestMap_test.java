@@ -0,0 +1,265 @@
+package picoded.servlet;
+
+// Junit includes
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+// Base class to build on
+public class ServletRequestMap_test {
+	
+	/** Number of times the request body was read */
+	int bodyReadCount = 0;
+	
+	/**
+	 * Minimal HttpServletRequest, with the given method, query parameters, and JSON body
+	 */
+	HttpServletRequest jsonRequest(String method, Map<String, String[]> params, String body) {
+		return request(method, (body == null) ? null : "application/json", params, body);
+	}
+	
+	/**
+	 * Minimal HttpServletRequest, with the given method, content type, query parameters, and body
+	 */
+	HttpServletRequest request(String method, String contentType, Map<String, String[]> params,
+		String body) {
+		return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { HttpServletRequest.class }, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "getMethod":
+						return method;
+					case "getContentType":
+						return contentType;
+					case "getContentLength":
+						return (body == null) ? -1 : body.getBytes().length;
+					case "getCharacterEncoding":
+						return "UTF-8";
+					case "getParameterMap":
+						return params;
+					case "getParameterValues":
+						return params.get(args[0]);
+					case "getInputStream":
+						++bodyReadCount;
+						return inputStream(body);
+					default:
+						return null;
+				}
+			});
+	}
+	
+	/**
+	 * ServletInputStream of the given body
+	 */
+	ServletInputStream inputStream(String body) {
+		ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes());
+		return new ServletInputStream() {
+			public int read() throws IOException {
+				return in.read();
+			}
+			
+			public boolean isFinished() {
+				return in.available() <= 0;
+			}
+			
+			public boolean isReady() {
+				return true;
+			}
+			
+			public void setReadListener(ReadListener listener) {
+			}
+		};
+	}
+	
+	@Test
+	public void queryParameters() {
+		Map<String, String[]> params = new HashMap<>();
+		params.put("hello", new String[] { "world" });
+		params.put("list", new String[] { "a", "b" });
+		
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("GET", params, null));
+		assertEquals("world", map.get("hello"));
+		assertEquals(Arrays.asList("a", "b"), map.get("list"));
+		assertNull(map.get("missing"));
+		assertEquals(2, map.size());
+	}
+	
+	@Test
+	public void bodyParsedOnDemand() {
+		Map<String, String[]> params = new HashMap<>();
+		params.put("hello", new String[] { "query" });
+		
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", params,
+			"{\"hello\":\"body\",\"other\":\"value\"}"));
+		assertEquals(0, bodyReadCount);
+		
+		// Body parameters are parsed on first access, and overwrites the query parameters
+		assertEquals("body", map.get("hello"));
+		assertEquals(1, bodyReadCount);
+		assertEquals("value", map.get("other"));
+		assertEquals(1, bodyReadCount);
+		assertEquals(2, map.keySet().size());
+	}
+	
+	@Test
+	public void putDoesNotReadBody() {
+		Map<String, String[]> params = new HashMap<>();
+		params.put("hello", new String[] { "query" });
+		
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", params,
+			"{\"hello\":\"body\",\"name\":\"body\"}"), true);
+		map.put("name", "explicit");
+		map.putIfAbsent("id", "explicit");
+		map.merge("id", "-merged", (a, b) -> a.toString() + b);
+		assertEquals(0, bodyReadCount);
+		
+		// The body is still available to be streamed, and does not overwrite explicit values
+		assertEquals("body", map.get("hello"));
+		assertEquals("explicit", map.get("name"));
+		assertEquals("explicit-merged", map.get("id"));
+		assertEquals(1, bodyReadCount);
+	}
+	
+	@Test
+	public void multipartFieldsAreMerged() {
+		Map<String, String[]> params = new HashMap<>();
+		params.put("list", new String[] { "query" });
+		params.put("hello", new String[] { "query" });
+		
+		String body = "--xyz\r\n" //
+			+ "Content-Disposition: form-data; name=\"list\"\r\n\r\na\r\n" //
+			+ "--xyz\r\n" //
+			+ "Content-Disposition: form-data; name=\"list\"\r\n\r\nb\r\n" //
+			+ "--xyz--\r\n";
+		ServletRequestMap map = new ServletRequestMap(request("POST",
+			"multipart/form-data; boundary=xyz", params, body));
+		assertEquals(Arrays.asList("query", "a", "b"), map.get("list"));
+		assertEquals("query", map.get("hello"));
+		assertEquals(1, bodyReadCount);
+	}
+	
+	@Test
+	public void invalidBodyIsRethrown() {
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", new HashMap<>(),
+			"{ invalid json"), true);
+		for (int i = 0; i < 2; ++i) {
+			try {
+				map.get("hello");
+				fail("Expected the invalid JSON body to throw");
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+		assertEquals(1, bodyReadCount);
+	}
+	
+	/**
+	 * Minimal form POST HttpServletRequest, where (like tomcat) the form body parameters
+	 * are lost if the input stream is read before the parameters are parsed
+	 */
+	HttpServletRequest formRequest(Map<String, String[]> formParams) {
+		Map<String, String[]> params = new HashMap<>();
+		boolean[] parsed = new boolean[] { false };
+		boolean[] read = new boolean[] { false };
+		return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { HttpServletRequest.class }, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "getMethod":
+						return "POST";
+					case "getContentType":
+						return "application/x-www-form-urlencoded";
+					case "getCharacterEncoding":
+						return "UTF-8";
+					case "getParameterMap":
+					case "getParameterValues":
+						if (!parsed[0]) {
+							parsed[0] = true;
+							if (!read[0]) {
+								params.putAll(formParams);
+							}
+						}
+						return m.getName().equals("getParameterMap") ? params : params.get(args[0]);
+					case "getInputStream":
+						read[0] = true;
+						return inputStream(parsed[0] ? "" : "postParam=hello");
+					default:
+						return null;
+				}
+			});
+	}
+	
+	@Test
+	public void formPostParameters() {
+		Map<String, String[]> formParams = new HashMap<>();
+		formParams.put("postParam", new String[] { "hello" });
+		
+		// Lookup of a missing key, reads the (remaining) body
+		ServletRequestMap map = new ServletRequestMap(formRequest(formParams));
+		assertNull(map.get("missing"));
+		assertEquals("hello", map.get("postParam"));
+		
+		// Put before any lookup, is the same
+		map = new ServletRequestMap(formRequest(formParams));
+		map.put("nameParam", "value");
+		map.getRequestBodyString();
+		assertEquals("hello", map.get("postParam"));
+		assertEquals("value", map.get("nameParam"));
+	}
+	
+	@Test
+	public void explicitValuesAreNotOverwritten() {
+		Map<String, String[]> params = new HashMap<>();
+		params.put("hello", new String[] { "query" });
+		
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", params,
+			"{\"hello\":\"body\",\"name\":\"body\"}"));
+		map.put("name", "explicit");
+		map.remove("hello");
+		
+		assertEquals("explicit", map.get("name"));
+		assertFalse(map.containsKey("hello"));
+		assertTrue(map.containsKey("name"));
+		assertEquals(1, map.size());
+	}
+	
+	@Test
+	public void streamingJsonBody() {
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", new HashMap<>(),
+			"{\"hello\":\"body\",\"num\":1,\"list\":[true,null]}"), true);
+		assertEquals("body", map.get("hello"));
+		assertEquals(1, map.get("num"));
+		assertEquals(Arrays.asList(true, null), map.get("list"));
+		assertEquals(1, bodyReadCount);
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void streamingJsonBodyStringAfterParsing() {
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", new HashMap<>(),
+			"{\"hello\":\"body\"}"), true);
+		assertEquals("body", map.get("hello"));
+		map.getRequestBodyString();
+	}
+	
+	@Test
+	public void streamingJsonBodyStringBeforeParsing() {
+		ServletRequestMap map = new ServletRequestMap(jsonRequest("POST", new HashMap<>(),
+			"{\"hello\":\"body\"}"), true);
+		assertEquals("{\"hello\":\"body\"}", map.getRequestBodyString());
+		assertEquals("body", map.get("hello"));
+	}
+}
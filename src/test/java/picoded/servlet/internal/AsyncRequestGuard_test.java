@@ -0,0 +1,121 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+///
+/// Test the AsyncRequestGuard completion, and guarded response, with mock async context / response
+///
+public class AsyncRequestGuard_test {
+	
+	//
+	// The mock async context / response state
+	//
+	int status = 0;
+	int completeCount = 0;
+	List<AsyncListener> listeners = new ArrayList<>();
+	Map<String, String> headers = new HashMap<>();
+	ByteArrayOutputStream output = new ByteArrayOutputStream();
+	HttpServletResponse response = null;
+	AsyncContext asyncContext = null;
+	
+	@Before
+	public void setUp() {
+		ServletOutputStream servletOutput = new ServletOutputStream() {
+			public void write(int b) {
+				output.write(b);
+			}
+			
+			public boolean isReady() {
+				return true;
+			}
+			
+			public void setWriteListener(WriteListener listener) {
+			}
+		};
+		response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "sendError":
+						status = (Integer) args[0];
+						return null;
+					case "isCommitted":
+						return status != 0;
+					case "setHeader":
+						headers.put((String) args[0], (String) args[1]);
+						return null;
+					case "getOutputStream":
+						return servletOutput;
+					default:
+						return null;
+				}
+			});
+		asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { AsyncContext.class }, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getResponse":
+						return response;
+					case "addListener":
+						listeners.add((AsyncListener) args[0]);
+						return null;
+					case "complete":
+						completeCount++;
+						return null;
+					default:
+						return null;
+				}
+			});
+	}
+	
+	@Test
+	public void completeOnce() throws Exception {
+		AsyncRequestGuard guard = new AsyncRequestGuard(asyncContext);
+		assertEquals(Arrays.asList(guard), listeners);
+		
+		HttpServletResponse guarded = guard.wrapResponse(response);
+		guarded.setHeader("hello", "world");
+		guarded.getOutputStream().write("done".getBytes());
+		
+		assertTrue(guard.complete(0));
+		assertFalse(guard.complete(HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
+		assertEquals(1, completeCount);
+		assertEquals(0, status);
+		assertEquals("world", headers.get("hello"));
+		assertEquals("done", output.toString());
+	}
+	
+	@Test
+	public void timeoutGuardsResponse() throws Exception {
+		AsyncRequestGuard guard = new AsyncRequestGuard(asyncContext);
+		HttpServletResponse guarded = guard.wrapResponse(response);
+		ServletOutputStream out = guarded.getOutputStream();
+		
+		guard.onTimeout(null);
+		assertTrue(guard.isFinished());
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status);
+		assertEquals(1, completeCount);
+		
+		// Processing thread output, after the timeout is dropped
+		guarded.setHeader("late", "header");
+		guarded.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		try {
+			out.write("late".getBytes());
+			fail("Expected the output to fail, after the timeout");
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(guard.complete(0));
+		
+		assertEquals(1, completeCount);
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status);
+		assertNull(headers.get("late"));
+		assertEquals("", output.toString());
+	}
+}
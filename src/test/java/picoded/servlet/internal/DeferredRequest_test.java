@@ -0,0 +1,223 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+///
+/// Test the DeferredRequest step handling, with mock async context / response
+///
+public class DeferredRequest_test {
+	
+	//
+	// The mock async context state
+	//
+	int status = 0;
+	int completeCount = 0;
+	AsyncContext asyncContext = null;
+	AsyncRequestGuard guard = null;
+	
+	@Before
+	public void setUp() {
+		status = 0;
+		completeCount = 0;
+		
+		HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+			getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class }, (proxy,
+				method, args) -> {
+				if (method.getName().equals("sendError")) {
+					status = (Integer) args[0];
+				}
+				if (method.getName().equals("isCommitted")) {
+					return status != 0;
+				}
+				return null;
+			});
+		ServletContext context = (ServletContext) Proxy.newProxyInstance(getClass()
+			.getClassLoader(), new Class<?>[] { ServletContext.class }, (proxy, method, args) -> null);
+		ServletRequest request = (ServletRequest) Proxy.newProxyInstance(getClass()
+			.getClassLoader(), new Class<?>[] { ServletRequest.class }, (proxy, method, args) -> {
+			if (method.getName().equals("getServletContext")) {
+				return context;
+			}
+			return null;
+		});
+		asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { AsyncContext.class }, (proxy, method, args) -> {
+				switch (method.getName()) {
+				case "getRequest":
+					return request;
+				case "getResponse":
+					return response;
+				case "complete":
+					completeCount++;
+					return null;
+				default:
+					return null;
+				}
+			});
+		guard = new AsyncRequestGuard(asyncContext);
+	}
+	
+	@Test
+	public void stepsInOrder() {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		DeferredRequest deferred = new DeferredRequest(guard, result);
+		List<String> steps = new ArrayList<>();
+		
+		deferred.then((value, error) -> {
+			steps.add("output:" + value);
+			return value;
+		});
+		deferred.then((value, error) -> {
+			steps.add("teardown");
+			return value;
+		});
+		deferred.finish();
+		
+		// Nothing is done, until the result completes
+		assertEquals(0, steps.size());
+		assertEquals(0, completeCount);
+		
+		result.complete("hello");
+		assertEquals(Arrays.asList("output:hello", "teardown"), steps);
+		assertEquals(1, completeCount);
+		assertEquals(0, status);
+	}
+	
+	@Test
+	public void errorPassedAlong() {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		DeferredRequest deferred = new DeferredRequest(guard, result);
+		List<Throwable> errors = new ArrayList<>();
+		
+		// Error is unwrapped and passed along, until a step handles it
+		deferred.then((value, error) -> {
+			errors.add(error);
+			throw error;
+		});
+		deferred.then((value, error) -> {
+			errors.add(error);
+			return "handled";
+		});
+		deferred.finish();
+		
+		RuntimeException boom = new RuntimeException("boom");
+		result.completeExceptionally(new CompletionException(boom));
+		assertSame(boom, errors.get(0));
+		assertSame(boom, errors.get(1));
+		assertEquals(1, completeCount);
+		assertEquals(0, status);
+	}
+	
+	@Test
+	public void unhandledErrorIs500() {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		result.completeExceptionally(new IllegalStateException("boom"));
+		
+		// Already completed result, is processed on the current thread
+		DeferredRequest deferred = new DeferredRequest(guard, result);
+		deferred.finish();
+		
+		assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, status);
+		assertEquals(1, completeCount);
+	}
+	
+	@Test
+	public void timeoutSkipsOutputSteps() {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		DeferredRequest deferred = new DeferredRequest(guard, result);
+		List<String> steps = new ArrayList<>();
+		deferred.then((value, error) -> {
+			steps.add("output");
+			return value;
+		});
+		deferred.thenAlways((value, error) -> {
+			steps.add("teardown:" + value);
+			return value;
+		});
+		deferred.finish();
+		
+		guard.onTimeout(null);
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status);
+		assertEquals(1, completeCount);
+		
+		// Late result, skips the output, but not the teardown
+		result.complete("late");
+		assertEquals(Arrays.asList("teardown:late"), steps);
+		assertEquals(1, completeCount);
+	}
+	
+	@Test
+	public void timeoutAfterFailedResult() {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		DeferredRequest deferred = new DeferredRequest(guard, result);
+		List<Throwable> errors = new ArrayList<>();
+		deferred.then((value, error) -> {
+			fail("Output step should be skipped");
+			return value;
+		});
+		deferred.thenAlways((value, error) -> {
+			errors.add(error);
+			throw error;
+		});
+		deferred.finish();
+		
+		guard.onTimeout(null);
+		
+		// Late error, is passed to the teardown, without overwriting the 503
+		RuntimeException boom = new RuntimeException("boom");
+		result.completeExceptionally(boom);
+		assertEquals(Arrays.asList(boom), errors);
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status);
+		assertEquals(1, completeCount);
+	}
+	
+	@Test
+	public void timeoutWaitsForOutputStep() throws Exception {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		DeferredRequest deferred = new DeferredRequest(guard, result);
+		List<String> steps = new ArrayList<>();
+		Thread timeout = new Thread(() -> guard.onTimeout(null));
+		deferred.then((value, error) -> {
+			// Timeout in the middle of the output, waits for it
+			timeout.start();
+			timeout.join(200);
+			steps.add("output:" + (timeout.isAlive() ? "ongoing" : "interrupted"));
+			return value;
+		});
+		deferred.thenAlways((value, error) -> {
+			// Timeout proceeds, once the output step is done
+			timeout.join();
+			steps.add("teardown");
+			return value;
+		});
+		deferred.then((value, error) -> {
+			steps.add("after");
+			return value;
+		});
+		deferred.finish();
+		
+		result.complete("hello");
+		
+		// Output step completes, with the 503 sent before the remaining output
+		assertEquals(Arrays.asList("output:ongoing", "teardown"), steps);
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status);
+		assertEquals(1, completeCount);
+	}
+	
+	@Test
+	public void unwrap() {
+		RuntimeException boom = new RuntimeException("boom");
+		assertSame(boom, DeferredRequest.unwrap(new CompletionException(new ExecutionException(
+			boom))));
+		assertSame(boom, DeferredRequest.unwrap(boom));
+		assertNull(DeferredRequest.unwrap(null));
+	}
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -15,6 +16,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import picoded.core.common.HttpRequestType;
 import picoded.servlet.annotation.*;
 
 // Base class to build on
@@ -100,4 +102,91 @@ public class EndpointMap_test {
 		assertEquals("session", sampleList.get(1));
 		assertEquals("*", sampleList.get(2));
 	}
+	
+	@Test
+	public void trieLookupPrecedenceOrder() {
+		endpoints.registerEndpointPath("job/*", "d");
+		endpoints.registerEndpointPath(":projectId/testrunset/list", "e");
+		endpoints.registerEndpointPath("job/:jobId/*", "c");
+		endpoints.registerEndpointPath("job/testrunset/list", "a");
+		endpoints.registerEndpointPath("job/testrunset/*", "b");
+		endpoints.registerEndpointPath("job/testrunset", "invalid");
+		
+		List<String> expected = Arrays.asList("job/testrunset/list", "job/testrunset/*",
+			"job/:jobId/*", "job/*", ":projectId/testrunset/list");
+		assertEquals(expected, endpoints.findValidKeys("job/testrunset/list"));
+	}
+	
+	@Test
+	public void trieLookupMatchesLinearScan() {
+		String[] sample = new String[] { "*", "hello", "hello/*", ":start/*", "hello/:ohno/*",
+			"hello/good/*", "hello/good/world", "hello/:test/world", "hello/bad/world",
+			"hello/:test/notaworld", "hello/good/world/others", "hello/*/world", "Hello/Good/World" };
+		for (String path : sample) {
+			endpoints.registerEndpointPath(path, path);
+		}
+		
+		String[] requests = new String[] { "", "hello", "hello/good", "hello/good/world",
+			"HELLO/GOOD/WORLD", "hello/bad/world", "hello/good/world/others/more", "other/path" };
+		for (String request : requests) {
+			String[] requestArr = endpoints.splitUriString(request);
+			
+			// Linear scan and sort, as the reference implementation
+			List<String> expected = new ArrayList<>();
+			for (String path : sample) {
+				if (endpoints.isValidEndpoint(endpoints.splitUriString(path), requestArr)) {
+					expected.add(path);
+				}
+			}
+			endpoints.sortEndpointList(expected);
+			
+			assertEquals(expected, endpoints.findValidKeys(requestArr));
+		}
+	}
+	
+	@Test
+	public void trieRecompiledOnRegistration() {
+		endpoints.registerEndpointPath("hello/*", "Awesome world");
+		assertEquals(1, endpoints.findValidKeys("hello/good/world").size());
+		endpoints.registerEndpointPath("hello/good/world", "Awesome world");
+		assertEquals(2, endpoints.findValidKeys("hello/good/world").size());
+		endpoints.remove("hello/*");
+		assertEquals(1, endpoints.findValidKeys("hello/good/world").size());
+	}
+	
+	/** Sample request methods, used for request type filtering */
+	public static class RequestTypePage {
+		@RequestType({ "GET" })
+		public void getOnly() {
+		}
+		
+		@RequestType({ "post", "PUT" })
+		public void postOrPut() {
+		}
+		
+		public void anyType() {
+		}
+	}
+	
+	@Test
+	public void requestTypeFiltering() throws Exception {
+		EndpointMap<Method> methodMap = new EndpointMap<>();
+		methodMap.registerEndpointPath("hello/world", RequestTypePage.class.getMethod("getOnly"));
+		methodMap.registerEndpointPath("hello/:name", RequestTypePage.class.getMethod("postOrPut"));
+		methodMap.registerEndpointPath("hello/*", RequestTypePage.class.getMethod("anyType"));
+		
+		String[] requestArr = methodMap.splitUriString("hello/world");
+		assertEquals(Arrays.asList("hello/world", "hello/:name", "hello/*"),
+			methodMap.findValidKeys(requestArr, null));
+		assertEquals(Arrays.asList("hello/world", "hello/*"),
+			methodMap.findValidKeys(requestArr, HttpRequestType.GET));
+		assertEquals(Arrays.asList("hello/:name", "hello/*"),
+			methodMap.findValidKeys(requestArr, HttpRequestType.POST));
+		assertEquals(Arrays.asList("hello/*"),
+			methodMap.findValidKeys(requestArr, HttpRequestType.DELETE));
+		
+		// Subtree without any supported endpoint
+		methodMap.remove("hello/*");
+		assertEquals(0, methodMap.findValidKeys(requestArr, HttpRequestType.DELETE).size());
+	}
 }
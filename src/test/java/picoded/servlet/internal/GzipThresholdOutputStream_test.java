@@ -0,0 +1,81 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+///
+/// Test the GzipThresholdOutputStream minimum size handling
+///
+public class GzipThresholdOutputStream_test {
+	
+	/// Response headers set
+	Map<String, String> responseHeaders = new HashMap<>();
+	
+	/// Response output
+	ByteArrayOutputStream output = new ByteArrayOutputStream();
+	
+	/// Response which records its headers
+	HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(getClass()
+		.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, (proxy, m, args) -> {
+		if (m.getName().equals("setHeader")) {
+			responseHeaders.put((String) args[0], (String) args[1]);
+		}
+		return m.getReturnType().equals(boolean.class) ? false : null;
+	});
+	
+	/// Decompress the output
+	String gunzip(byte[] data) throws IOException {
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+			ByteArrayOutputStream ret = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				ret.write(buffer, 0, len);
+			}
+			return new String(ret.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+	
+	@Test
+	public void belowMinSize() throws IOException {
+		GzipThresholdOutputStream gzip = new GzipThresholdOutputStream(response, output, 64);
+		gzip.write("{\"hello\":\"world\"}".getBytes(StandardCharsets.UTF_8));
+		gzip.flush();
+		
+		// Output is held back until finished
+		assertEquals(0, output.size());
+		gzip.finish();
+		
+		assertFalse(gzip.isCompressed());
+		assertNull(responseHeaders.get("Content-Encoding"));
+		assertEquals("{\"hello\":\"world\"}", new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void aboveMinSize() throws IOException {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 1000; ++i) {
+			json.append(i).append(",");
+		}
+		json.append("0]");
+		
+		GzipThresholdOutputStream gzip = new GzipThresholdOutputStream(response, output, 64);
+		byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+		gzip.write(data, 0, 10);
+		gzip.write(data, 10, data.length - 10);
+		gzip.finish();
+		
+		assertTrue(gzip.isCompressed());
+		assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+		assertTrue(output.size() < data.length);
+		assertEquals(json.toString(), gunzip(output.toByteArray()));
+	}
+}
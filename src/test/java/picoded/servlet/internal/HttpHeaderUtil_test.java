@@ -0,0 +1,89 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+///
+/// Test the HttpHeaderUtil header parsing
+///
+public class HttpHeaderUtil_test {
+	
+	/// Parse the range header, with the given max range count, into a comparable string
+	String range(String header, long length, int maxRanges) {
+		long[] out = new long[maxRanges * 2];
+		int count = HttpHeaderUtil.parseRange(header, length, out);
+		if (count <= 0) {
+			return String.valueOf(count);
+		}
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) {
+				ret.append(",");
+			}
+			ret.append(out[i * 2]).append("-").append(out[i * 2 + 1]);
+		}
+		return ret.toString();
+	}
+	
+	@Test
+	public void matchETag() {
+		assertTrue(HttpHeaderUtil.matchETag("\"abc\"", "\"abc\"", false));
+		assertTrue(HttpHeaderUtil.matchETag("\"xyz\" , \"abc\"", "\"abc\"", false));
+		assertTrue(HttpHeaderUtil.matchETag(" * ", "\"abc\"", false));
+		assertFalse(HttpHeaderUtil.matchETag("\"abcd\", \"ab\"", "\"abc\"", false));
+		
+		// Weak ETags only match with weak comparison
+		assertTrue(HttpHeaderUtil.matchETag("W/\"abc\"", "\"abc\"", true));
+		assertFalse(HttpHeaderUtil.matchETag("W/\"abc\"", "\"abc\"", false));
+	}
+	
+	@Test
+	public void acceptsEncoding() {
+		assertTrue(HttpHeaderUtil.acceptsEncoding("gzip, deflate, br", "br"));
+		assertTrue(HttpHeaderUtil.acceptsEncoding("deflate;q=0.5,GZIP;q=1.0", "gzip"));
+		assertTrue(HttpHeaderUtil.acceptsEncoding("*", "gzip"));
+		assertFalse(HttpHeaderUtil.acceptsEncoding("gzip;q=0", "gzip"));
+		assertFalse(HttpHeaderUtil.acceptsEncoding("br; q=0.000, x-gzip", "br"));
+		assertFalse(HttpHeaderUtil.acceptsEncoding("deflate", "gzip"));
+		assertFalse(HttpHeaderUtil.acceptsEncoding("", "gzip"));
+	}
+	
+	@Test
+	public void acceptsMediaType() {
+		assertTrue(HttpHeaderUtil.acceptsMediaType("text/html, application/pdf;q=0.9", "application/pdf"));
+		assertTrue(HttpHeaderUtil.acceptsMediaType("text/html, application/*", "application/pdf"));
+		assertTrue(HttpHeaderUtil.acceptsMediaType("text/html, */*;q=0.8", "application/pdf"));
+		assertFalse(HttpHeaderUtil.acceptsMediaType("text/html, */*;q=0", "application/pdf"));
+		assertFalse(HttpHeaderUtil.acceptsMediaType("text/*, app/*", "application/pdf"));
+	}
+	
+	@Test
+	public void parseRange() {
+		// Single, open ended and suffix ranges
+		assertEquals("50-80", range("bytes=50-80", 100, 16));
+		assertEquals("40-99", range("bytes=40-", 100, 16));
+		assertEquals("80-99", range("bytes=-20", 100, 16));
+		assertEquals("0-99", range("bytes=-200", 100, 16));
+		assertEquals("90-99", range("Bytes = 90-1000", 100, 16));
+		
+		// Multiple ranges are sorted and coalesced
+		assertEquals("0-9,20-29", range("bytes=20-29, 0-9", 100, 16));
+		assertEquals("0-29", range("bytes=0-9,10-19,5-29", 100, 16));
+		assertEquals("0-99", range("bytes=0-,0-,0-,0-", 100, 16));
+		
+		// Unsatisfiable ranges are skipped, and empty elements ignored
+		assertEquals("0-9", range("bytes=0-9,,200-300", 100, 16));
+		
+		// Invalid or unsatisfiable ranges
+		assertEquals("-1", range("bytes=200-300", 100, 16));
+		assertEquals("-1", range("bytes=50-40", 100, 16));
+		assertEquals("-1", range("bytes=a-b", 100, 16));
+		assertEquals("-1", range("bytes=-", 100, 16));
+		assertEquals("-1", range("items=0-10", 100, 16));
+		assertEquals("-1", range("bytes=", 100, 16));
+		assertEquals("-1", range("bytes=0-0", 0, 16));
+		
+		// Too many ranges are ignored
+		assertEquals("0", range("bytes=0-1,2-3,4-5", 100, 2));
+	}
+}
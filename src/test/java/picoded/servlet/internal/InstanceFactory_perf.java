@@ -0,0 +1,63 @@
+package picoded.servlet.internal;
+
+// Junit includes
+
+import static org.junit.Assert.assertNotNull;
+
+import java.util.function.Supplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+
+import picoded.servlet.*;
+
+/**
+ * Compares the page instance creation, between the reflective `Class.newInstance()`
+ * and the cached constructor factory used by `spawnInstance` and reroutes.
+ */
+@BenchmarkOptions(benchmarkRounds = 3, warmupRounds = 1)
+public class InstanceFactory_perf {
+	
+	/** Number of instances per benchmark round, kept small as it runs with the test suite */
+	static final int INSTANCE_COUNT = 1000;
+	
+	@Rule
+	public TestRule benchmarkRun = new BenchmarkRule();
+	
+	public static class PerfPage extends BasePage {
+	}
+	
+	@Test
+	@SuppressWarnings("deprecation")
+	public void reflectionNewInstance() throws Exception {
+		Object ret = null;
+		for (int i = 0; i < INSTANCE_COUNT; ++i) {
+			ret = PerfPage.class.newInstance();
+		}
+		assertNotNull(ret);
+	}
+	
+	@Test
+	public void cachedFactory() {
+		Supplier<PerfPage> factory = InstanceFactory.forClass(PerfPage.class);
+		Object ret = null;
+		for (int i = 0; i < INSTANCE_COUNT; ++i) {
+			ret = factory.get();
+		}
+		assertNotNull(ret);
+	}
+	
+	@Test
+	public void methodHandleFactory() {
+		Supplier<PerfPage> factory = InstanceFactory.methodHandleFactory(PerfPage.class);
+		Object ret = null;
+		for (int i = 0; i < INSTANCE_COUNT; ++i) {
+			ret = factory.get();
+		}
+		assertNotNull(ret);
+	}
+}
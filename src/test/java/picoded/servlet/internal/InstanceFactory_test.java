@@ -0,0 +1,93 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.IOUtils;
+
+///
+/// Test the InstanceFactory, and its fallbacks
+///
+public class InstanceFactory_test {
+	
+	/// Plain class, to construct
+	public static class Plain {
+	}
+	
+	/// Number of Failing instances constructed
+	static int failingCount = 0;
+	
+	/// Class whose constructor fails
+	public static class Failing {
+		public Failing() {
+			++failingCount;
+			throw new IllegalStateException("constructor failure");
+		}
+	}
+	
+	/// Class loader, which defines the Plain class itself (so that it is not visible
+	/// to the InstanceFactory class loader)
+	static class ChildClassLoader extends ClassLoader {
+		ChildClassLoader() {
+			super(InstanceFactory_test.class.getClassLoader());
+		}
+		
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(Plain.class.getName())) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> ret = findLoadedClass(name);
+				if (ret != null) {
+					return ret;
+				}
+				try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/')
+					+ ".class")) {
+					byte[] data = IOUtils.toByteArray(in);
+					return defineClass(name, data, 0, data.length);
+				} catch (IOException e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void sameClassLoader() {
+		Supplier<Plain> factory = InstanceFactory.forClass(Plain.class);
+		assertNotNull(factory.get());
+		assertNotSame(factory.get(), factory.get());
+	}
+	
+	@Test
+	public void childClassLoader() throws Exception {
+		Class<?> childClass = new ChildClassLoader().loadClass(Plain.class.getName());
+		assertNotSame(Plain.class, childClass);
+		
+		// Falls back, instead of failing with NoClassDefFoundError on use
+		assertNull(InstanceFactory.lambdaFactory(childClass));
+		Supplier<?> factory = InstanceFactory.forClass(childClass);
+		assertSame(childClass, factory.get().getClass());
+	}
+	
+	@Test
+	public void constructorFailure() {
+		// No instance is constructed on setup
+		Supplier<Failing> factory = InstanceFactory.forClass(Failing.class);
+		assertNotNull(InstanceFactory.lambdaFactory(Failing.class));
+		assertEquals(0, failingCount);
+		
+		// Constructor failures are thrown as it is on use
+		try {
+			factory.get();
+			fail("Expected the constructor failure to be thrown");
+		} catch (IllegalStateException e) {
+			assertEquals("constructor failure", e.getMessage());
+		}
+		assertEquals(1, failingCount);
+	}
+}
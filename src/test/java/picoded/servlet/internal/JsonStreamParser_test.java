@@ -0,0 +1,118 @@
+package picoded.servlet.internal;
+
+// Junit includes
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+// Base class to build on
+public class JsonStreamParser_test {
+	
+	/**
+	 * Parse the given JSON string as a map
+	 */
+	Map<String, Object> parse(String json) throws Exception {
+		return new JsonStreamParser(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+			StandardCharsets.UTF_8).parseMap();
+	}
+	
+	@Test
+	public void emptyBody() throws Exception {
+		assertEquals(new HashMap<String, Object>(), parse(""));
+		assertEquals(new HashMap<String, Object>(), parse(" { } "));
+	}
+	
+	@Test
+	public void valueTypes() throws Exception {
+		Map<String, Object> map = parse("{ \"str\" : \"hello\", \"int\" : -12, "
+			+ "\"long\" : 12345678901, \"big\" : 123456789012345678901234567890, "
+			+ "\"dbl\" : 1.5e2, \"t\" : true, \"f\" : false, \"n\" : null }");
+		assertEquals("hello", map.get("str"));
+		assertEquals(-12, map.get("int"));
+		assertEquals(12345678901L, map.get("long"));
+		assertEquals(new BigInteger("123456789012345678901234567890"), map.get("big"));
+		assertEquals(150.0, map.get("dbl"));
+		assertEquals(true, map.get("t"));
+		assertEquals(false, map.get("f"));
+		assertEquals(8, map.size());
+	}
+	
+	@Test
+	public void nestedValues() throws Exception {
+		Map<String, Object> map = parse("{\"list\":[1,[],{\"a\":[\"b\"]}],\"obj\":{\"x\":{}}}");
+		List<?> list = (List<?>) map.get("list");
+		assertEquals(1, list.get(0));
+		assertEquals(Arrays.asList(), list.get(1));
+		assertEquals(Arrays.asList("b"), ((Map<?, ?>) list.get(2)).get("a"));
+		assertEquals(new HashMap<String, Object>(), ((Map<?, ?>) map.get("obj")).get("x"));
+	}
+	
+	/**
+	 * JSON object, with a value of the given number of nested arrays
+	 */
+	String nestedArrays(int depth) {
+		StringBuilder sb = new StringBuilder("{\"a\":");
+		for (int i = 0; i < depth; ++i) {
+			sb.append('[');
+		}
+		for (int i = 0; i < depth; ++i) {
+			sb.append(']');
+		}
+		return sb.append('}').toString();
+	}
+	
+	@Test
+	public void nestingDepthLimit() throws Exception {
+		// Within the limit
+		assertEquals(1, ((List<?>) parse(nestedArrays(JsonStreamParser.MAX_DEPTH)).get("a")).size());
+		
+		// Deep nesting fails as invalid JSON, instead of a StackOverflowError
+		try {
+			parse(nestedArrays(100000));
+			fail("Expected the deeply nested JSON to fail");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("Nesting too deep"));
+		}
+	}
+	
+	@Test
+	public void stringEscapes() throws Exception {
+		Map<String, Object> map = parse("{\"s\":\"a\\\"b\\\\c\\/d\\n\\u00e9\\u4e2d\u4e2d\"}");
+		assertEquals("a\"b\\c/d\n\u00e9\u4e2d\u4e2d", map.get("s"));
+	}
+	
+	@Test
+	public void largeString() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; ++i) {
+			sb.append((char) ('a' + (i % 26)));
+		}
+		assertEquals(sb.toString(), parse("{\"s\":\"" + sb + "\"}").get("s"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidTopLevel() throws Exception {
+		parse("[1,2]");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidTrailingContent() throws Exception {
+		parse("{} {}");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unterminatedString() throws Exception {
+		parse("{\"a\":\"b");
+	}
+}
@@ -0,0 +1,102 @@
+package picoded.servlet.internal;
+
+// Junit includes
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+// Base class to build on
+public class JsonStreamWriter_test {
+	
+	/**
+	 * Write the given value as JSON, without the trailing line separator
+	 */
+	String write(Object value, boolean pretty) throws Exception {
+		StringWriter out = new StringWriter();
+		JsonStreamWriter.writeTo(out, value, pretty);
+		return out.toString().trim();
+	}
+	
+	@Test
+	public void prettyFormat() throws Exception {
+		Map<String, Object> map = new LinkedHashMap<>();
+		assertEquals("{ }", write(map, true));
+		
+		map.put("return", "money");
+		assertEquals("{\n\t\"return\" : \"money\"\n}", write(map, true));
+		
+		Map<String, Object> inner = new LinkedHashMap<>();
+		inner.put("a", 1);
+		map.put("list", Arrays.asList(1, "two", inner));
+		map.put("empty", new ArrayList<Object>());
+		assertEquals("{\n\t\"return\" : \"money\",\n\t\"list\" : [ 1, \"two\", {\n\t\t\"a\" : 1\n\t} ],"
+			+ "\n\t\"empty\" : [ ]\n}", write(map, true));
+	}
+	
+	@Test
+	public void compactFormat() throws Exception {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("str", "hello");
+		map.put("num", 1.5);
+		map.put("bool", true);
+		map.put("nil", null);
+		map.put("arr", new int[] { 1, 2 });
+		map.put("map", new LinkedHashMap<String, Object>());
+		assertEquals(
+			"{\"str\":\"hello\",\"num\":1.5,\"bool\":true,\"nil\":null,\"arr\":[1,2],\"map\":{}}",
+			write(map, false));
+	}
+	
+	@Test
+	public void stringEscaping() throws Exception {
+		assertEquals("\"a\\\"b\\\\c\\n\\t\\u0001/\u00e9\"", write("a\"b\\c\n\t\u0001/\u00e9", false));
+	}
+	
+	@Test
+	public void lazyIteratorAndStream() throws Exception {
+		// Iterator values are only generated while writing
+		List<Integer> generated = new ArrayList<>();
+		Iterator<Integer> iterator = IntStream.range(0, 3).peek(generated::add).iterator();
+		assertEquals(0, generated.size());
+		assertEquals("[0,1,2]", write(iterator, false));
+		assertEquals(Arrays.asList(0, 1, 2), generated);
+		
+		// Streams are closed after being written
+		AtomicBoolean closed = new AtomicBoolean(false);
+		Stream<String> stream = Stream.of("a", "b").onClose(() -> closed.set(true));
+		assertEquals("[ \"a\", \"b\" ]", write(stream, true));
+		assertTrue(closed.get());
+	}
+	
+	@Test
+	public void largeOutputToStream() throws Exception {
+		// Larger than the write buffer, to ensure it is flushed in parts
+		List<String> list = new ArrayList<>();
+		for (int i = 0; i < 5000; ++i) {
+			list.add("value-" + i);
+		}
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("list", list);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonStreamWriter.writeTo(out, StandardCharsets.UTF_8, map, false);
+		String json = new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+		assertTrue(json.startsWith("{\"list\":[\"value-0\",\"value-1\","));
+		assertTrue(json.endsWith(",\"value-4999\"]}"));
+	}
+}
@@ -0,0 +1,61 @@
+package picoded.servlet.internal;
+
+// Junit includes
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import picoded.servlet.*;
+import picoded.servlet.annotation.*;
+
+// Base class to build on
+public class PagePool_test {
+	
+	@PooledPage(2)
+	public static class PooledTestPage extends BasePage {
+		public void setupResponse() {
+			responseApiMap = new ApiResponseMap();
+			responseStringBuilder = new StringBuilder();
+		}
+	}
+	
+	public static class PooledTestSubPage extends PooledTestPage {
+	}
+	
+	@Test
+	public void unpooledClass() {
+		assertNull(PagePool.forClass(BasePage.class));
+		assertNull(PagePool.forClass(BasePage.class));
+	}
+	
+	@Test
+	public void inheritedAnnotation() {
+		assertNotNull(PagePool.forClass(PooledTestPage.class));
+		assertNotNull(PagePool.forClass(PooledTestSubPage.class));
+		assertSame(PagePool.forClass(PooledTestPage.class), PagePool.forClass(PooledTestPage.class));
+	}
+	
+	@Test
+	public void borrowAndRecycle() {
+		PagePool pool = new PagePool(1);
+		assertNull(pool.borrow());
+		
+		PooledTestPage page = new PooledTestPage();
+		page.setupResponse();
+		assertTrue(pool.recycle(page));
+		assertFalse(pool.recycle(new PooledTestPage()));
+		
+		// Request scoped fields are cleared on recycle
+		PooledTestPage borrowed = (PooledTestPage) pool.borrow();
+		assertSame(page, borrowed);
+		assertNull(borrowed.getApiResponseMap());
+		assertNull(borrowed.getResponseStringBuilder());
+		assertNull(borrowed.getHttpServletRequest());
+		assertNull(pool.borrow());
+	}
+}
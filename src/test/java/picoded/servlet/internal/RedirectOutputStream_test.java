@@ -0,0 +1,48 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+///
+/// Test the RedirectOutputStream, underneath a PrintWriter
+///
+public class RedirectOutputStream_test {
+	
+	/// Number of times the response output was flushed
+	int flushCount = 0;
+	
+	/// Response output, which counts its flushes
+	ByteArrayOutputStream output = new ByteArrayOutputStream() {
+		@Override
+		public void flush() {
+			++flushCount;
+		}
+	};
+	
+	@Test
+	public void redirectBufferedOutput() throws IOException {
+		RedirectOutputStream redirect = new RedirectOutputStream(output);
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(redirect,
+			StandardCharsets.UTF_8), true);
+		
+		// Buffered output, is flushed into the redirected stream instead
+		writer.print("hello ");
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		redirect.redirect(target);
+		writer.flush();
+		redirect.restore();
+		
+		assertEquals("hello ", target.toString("UTF-8"));
+		assertEquals(0, output.size());
+		assertEquals(0, flushCount);
+		
+		// Once restored, output goes to the response as per normal
+		writer.print("world");
+		writer.flush();
+		assertEquals("world", output.toString("UTF-8"));
+		assertEquals(1, flushCount);
+	}
+}
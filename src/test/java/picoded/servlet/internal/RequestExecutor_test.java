@@ -0,0 +1,63 @@
+package picoded.servlet.internal;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.concurrent.*;
+
+import picoded.servlet.*;
+import picoded.servlet.annotation.*;
+
+///
+/// Test the RequestExecutor setup, and its bounded thread pool fallback
+///
+public class RequestExecutor_test {
+	
+	/// Page without async execution
+	public static class SyncPage extends CorePage {
+	}
+	
+	/// Page with async execution, on the bounded thread pool
+	@AsyncPage(virtualThreads = false, maxThreads = 4, timeout = 5000)
+	public static class BoundedPage extends CorePage {
+	}
+	
+	@Test
+	public void forClass() {
+		assertNull(RequestExecutor.forClass(SyncPage.class));
+		
+		RequestExecutor executor = RequestExecutor.forClass(BoundedPage.class);
+		assertNotNull(executor);
+		assertSame(executor, RequestExecutor.forClass(BoundedPage.class));
+		assertFalse(executor.isVirtualThreads());
+		assertEquals(5000, executor.timeout);
+		assertEquals(4, ((ThreadPoolExecutor) executor.executor).getMaximumPoolSize());
+	}
+	
+	@Test
+	public void boundedExecutorRejects() throws Exception {
+		ThreadPoolExecutor pool = RequestExecutor.boundedExecutor("test", 1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		
+		// One running, and one queued, the next is rejected
+		pool.execute(blocked);
+		pool.execute(blocked);
+		try {
+			pool.execute(blocked);
+			fail("Expected the request to be rejected");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		
+		release.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
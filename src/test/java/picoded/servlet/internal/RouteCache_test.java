@@ -0,0 +1,73 @@
+package picoded.servlet.internal;
+
+// Junit includes
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Base class to build on
+public class RouteCache_test {
+	
+	RouteCache<String> cache = null;
+	
+	@Before
+	public void setUp() {
+		cache = new RouteCache<>(8);
+	}
+	
+	@Test
+	public void getAndPut() {
+		assertNull(cache.get("GET:hello/world"));
+		cache.put("GET:hello/world", "hello");
+		assertEquals("hello", cache.get("GET:hello/world"));
+		assertNull(cache.get("POST:hello/world"));
+	}
+	
+	@Test
+	public void boundedSize() {
+		for (int i = 0; i < 100; ++i) {
+			cache.put("GET:user/" + i, "user" + i);
+			assertTrue(cache.size() <= 8);
+		}
+		// Most recent insertion is kept
+		assertEquals("user99", cache.get("GET:user/99"));
+	}
+	
+	@Test
+	public void recentlyUsedIsKept() {
+		cache.put("GET:hot", "hot");
+		for (int i = 0; i < 100; ++i) {
+			assertEquals("hot", cache.get("GET:hot"));
+			cache.put("GET:user/" + i, "user" + i);
+		}
+		assertEquals("hot", cache.get("GET:hot"));
+	}
+	
+	@Test
+	public void sharedAccessTicks() {
+		// All entries accessed after the last insertion, share the same access tick
+		for (int i = 0; i < 8; ++i) {
+			cache.put("GET:user/" + i, "user" + i);
+		}
+		for (int i = 0; i < 8; ++i) {
+			assertEquals("user" + i, cache.get("GET:user/" + i));
+		}
+		
+		// Only a quarter of the entries are evicted, and not every entry of the same tick
+		cache.put("GET:user/8", "user8");
+		assertEquals(7, cache.size());
+		assertEquals("user8", cache.get("GET:user/8"));
+	}
+	
+	@Test
+	public void disabledCache() {
+		cache = new RouteCache<>(0);
+		cache.put("GET:hello/world", "hello");
+		assertNull(cache.get("GET:hello/world"));
+		assertEquals(0, cache.size());
+	}
+}
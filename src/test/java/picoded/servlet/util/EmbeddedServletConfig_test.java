@@ -0,0 +1,60 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.*;
+
+///
+/// Test the EmbeddedServletConfig settings
+///
+public class EmbeddedServletConfig_test {
+	
+	@Test
+	public void protocolClassName() {
+		EmbeddedServletConfig config = new EmbeddedServletConfig();
+		assertEquals("HTTP/1.1", config.protocolClassName());
+		assertEquals("org.apache.coyote.http11.Http11NioProtocol", config.protocol("nio")
+			.protocolClassName());
+		assertEquals("org.apache.coyote.http11.Http11Nio2Protocol", config.protocol("NIO2")
+			.protocolClassName());
+		assertEquals("org.apache.coyote.http11.Http11AprProtocol", config.protocol("apr")
+			.protocolClassName());
+		assertEquals("custom.Protocol", config.protocol("custom.Protocol").protocolClassName());
+	}
+	
+	@Test
+	public void setByName() {
+		EmbeddedServletConfig config = new EmbeddedServletConfig();
+		assertFalse(config.useExecutor());
+		assertTrue(config.connectorPropertyMap().isEmpty());
+		
+		config.set("maxThreads", "400").set("maxQueueSize", "1000").set("acceptCount", "200");
+		config.set("socketReceiveBufferSize", "65536").set("socket.tcpNoDelay", "true");
+		config.set("http2", "true").set("http2MaxConcurrentStreams", "50");
+		assertTrue(config.useExecutor());
+		assertEquals(400, config.maxThreads);
+		assertEquals(1000, config.maxQueueSize);
+		assertTrue(config.http2);
+		assertEquals(50, config.http2MaxConcurrentStreams);
+		
+		// Connector properties, only for the configured settings
+		Map<String, String> props = config.connectorPropertyMap();
+		assertEquals(3, props.size());
+		assertEquals("200", props.get("acceptCount"));
+		assertEquals("65536", props.get("socket.rxBufSize"));
+		assertEquals("true", props.get("socket.tcpNoDelay"));
+	}
+	
+	@Test
+	public void compression() {
+		EmbeddedServletConfig config = new EmbeddedServletConfig().compression(true, 2048);
+		config.set("compressibleMimeType", "application/json,text/html");
+		
+		Map<String, String> props = config.connectorPropertyMap();
+		assertEquals("on", props.get("compression"));
+		assertEquals("2048", props.get("compressionMinSize"));
+		assertEquals("application/json,text/html", props.get("compressibleMimeType"));
+		assertEquals(props, config.compressionPropertyMap());
+	}
+}
@@ -161,4 +161,43 @@ public class EmbeddedServlet_test {
 		assertEquals("<h1>Hello World</h1>",
 			RequestHttp.get("http://localhost:" + testPort + "/ctest/test").toString().trim());
 	}
+	
+	@Test
+	public void helloWorldServlet_tunedConnector() {
+		EmbeddedServletConfig config = new EmbeddedServletConfig().protocol("nio").threads(2, 20)
+			.maxQueueSize(50).acceptCount(10).keepAlive(3000, 5).socketBufferSize(65536, 65536);
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, "ROOT", new HelloWorld(), null,
+			config));
+		assertEquals("<h1>Hello World</h1>", RequestHttp
+			.get("http://localhost:" + testPort + "/test").toString().trim());
+		
+		// Connector is setup with the config
+		assertEquals("org.apache.coyote.http11.Http11NioProtocol", testServlet.getConnector()
+			.getProtocolHandlerClassName());
+		assertEquals("5", testServlet.getConnector().getProperty("maxKeepAliveRequests").toString());
+		assertEquals("65536", testServlet.getConnector().getProperty("socket.rxBufSize").toString());
+	}
+	
+	@Test
+	public void helloWorldServlet_http2() throws Exception {
+		assertNotNull(testServlet = new EmbeddedServlet(testPort, "ROOT", new HelloWorld(), null,
+			new EmbeddedServletConfig().http2(true)));
+		
+		// HTTP/1.1 requests continue to work as per normal
+		assertEquals("<h1>Hello World</h1>", RequestHttp
+			.get("http://localhost:" + testPort + "/test").toString().trim());
+		
+		// h2c upgrade request, is switched over to HTTP/2
+		try (Socket socket = new Socket("localhost", testPort)) {
+			socket.setSoTimeout(5000);
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET /test HTTP/1.1\r\n" + "Host: localhost\r\n"
+				+ "Connection: Upgrade, HTTP2-Settings\r\n" + "Upgrade: h2c\r\n"
+				+ "HTTP2-Settings: AAMAAABkAAQAAP__\r\n" + "\r\n").getBytes("US-ASCII"));
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+				"US-ASCII"));
+			assertEquals("HTTP/1.1 101", in.readLine().substring(0, 12));
+		}
+	}
 }
@@ -0,0 +1,84 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+///
+/// Test the FileAsyncWriter implmentation, with a output stream which is only
+/// ready for a limited number of writes at a time
+///
+public class FileAsyncWriter_test {
+	
+	//
+	// The output written, the remaining writes until its "not ready", and complete count
+	//
+	ByteArrayOutputStream written = new ByteArrayOutputStream();
+	int readyWrites = 0;
+	int completeCount = 0;
+	
+	@Test
+	public void chunkedNonBlockingWrite() throws IOException {
+		File file = Files.createTempFile("FileAsyncWriter_test", ".txt").toFile();
+		try {
+			Files.write(file.toPath(), "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8));
+			
+			// Output stream, which is only ready for the remaining readyWrites
+			ServletOutputStream output = new ServletOutputStream() {
+				public void write(int b) {
+					written.write(b);
+				}
+				
+				public void write(byte[] b, int off, int len) {
+					written.write(b, off, len);
+					--readyWrites;
+				}
+				
+				public boolean isReady() {
+					return readyWrites > 0;
+				}
+				
+				public void setWriteListener(WriteListener listener) {
+				}
+			};
+			AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { AsyncContext.class }, (proxy, m, args) -> {
+				if (m.getName().equals("complete")) {
+					++completeCount;
+				}
+				return null;
+			});
+			
+			// Write the range 5 to 15, in chunks of 4 bytes
+			FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			FileAsyncWriter writer = new FileAsyncWriter(asyncContext, output, input, 5, 10, 4);
+			
+			// Only 2 chunks written, until the output is ready again
+			readyWrites = 2;
+			writer.onWritePossible();
+			assertEquals("56789abc", new String(written.toByteArray(), StandardCharsets.UTF_8));
+			assertEquals(0, completeCount);
+			
+			// Remaining chunk written, and the request completed
+			readyWrites = 2;
+			writer.onWritePossible();
+			assertEquals("56789abcde", new String(written.toByteArray(), StandardCharsets.UTF_8));
+			assertEquals(1, completeCount);
+			
+			// File closed on completion
+			writer.onComplete(null);
+			assertFalse(input.isOpen());
+		} finally {
+			file.delete();
+		}
+	}
+}
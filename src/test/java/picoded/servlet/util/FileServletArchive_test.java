@@ -0,0 +1,125 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+///
+/// Test the FileServletArchive implmentation
+///
+public class FileServletArchive_test {
+	
+	//
+	// The test archive to use
+	//
+	File archiveFile = null;
+	FileServletArchive archive = null;
+	
+	@Before
+	public void setUp() throws IOException {
+		archiveFile = Files.createTempFile("FileServletArchive_test", ".jar").toFile();
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archiveFile))) {
+			writeEntry(zip, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0", true);
+			writeEntry(zip, "static/app.js", "var a = 1; var b = 2; var c = 3;", true);
+			writeEntry(zip, "static/raw.txt", "stored content", false);
+			writeEntry(zip, "static/docs/index.html", "<html></html>", true);
+		}
+		archive = new FileServletArchive(archiveFile, "/static");
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		archive.close();
+		archiveFile.delete();
+	}
+	
+	/// Write a deflated or stored zip entry
+	void writeEntry(ZipOutputStream zip, String name, String content, boolean deflated)
+		throws IOException {
+		byte[] data = content.getBytes(StandardCharsets.UTF_8);
+		ZipEntry entry = new ZipEntry(name);
+		if (!deflated) {
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(data.length);
+			entry.setCompressedSize(data.length);
+			entry.setCrc(crc.getValue());
+		}
+		zip.putNextEntry(entry);
+		zip.write(data);
+		zip.closeEntry();
+	}
+	
+	/// Read the stream fully as a string
+	String read(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int len;
+			while ((len = input.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+	
+	@Test
+	public void indexedEntries() throws IOException {
+		// Only the entries within the prefix are indexed
+		assertNull(archive.get("/META-INF/MANIFEST.MF"));
+		assertNull(archive.get("/static/app.js"));
+		
+		FileServletArchive.Entry app = archive.get("/app.js");
+		assertTrue(app.isDeflated());
+		assertEquals("app.js", app.fileName());
+		assertEquals("var a = 1; var b = 2; var c = 3;", read(archive.openStream(app)));
+		
+		FileServletArchive.Entry raw = archive.get("/raw.txt");
+		assertFalse(raw.isDeflated());
+		assertEquals("stored content", read(archive.openStream(raw)));
+		assertNotEquals(app.eTag, raw.eTag);
+		
+		// Folders resolve to their index.html
+		FileServletArchive.Entry index = archive.get("/docs/index.html");
+		assertSame(index, archive.get("/docs/"));
+		assertSame(index, archive.get("/docs"));
+		assertEquals("<html></html>", read(archive.openStream(index)));
+	}
+	
+	@Test
+	public void gzipWrappedEntry() throws IOException {
+		FileServletArchive.Entry app = archive.get("/app.js");
+		
+		// Wrap the raw deflated data, as read from the archive
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+		gzip.write(FileServletArchive.gzipHeader());
+		byte[] data = new byte[(int) app.compressedSize];
+		System.arraycopy(Files.readAllBytes(archiveFile.toPath()), (int) app.dataOffset, data, 0,
+			data.length);
+		gzip.write(data);
+		gzip.write(FileServletArchive.gzipTrailer(app));
+		assertEquals(app.gzipLength(), gzip.size());
+		
+		assertEquals("var a = 1; var b = 2; var c = 3;",
+			read(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))));
+	}
+	
+	@Test(expected = IOException.class)
+	public void invalidArchive() throws IOException {
+		File invalid = Files.createTempFile("FileServletArchive_test", ".zip").toFile();
+		try {
+			Files.write(invalid.toPath(), "not a zip file".getBytes(StandardCharsets.UTF_8));
+			new FileServletArchive(invalid, "");
+		} finally {
+			invalid.delete();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+///
+/// Test the FileServletCache implmentation
+///
+public class FileServletCache_test {
+	
+	//
+	// The test folder to use
+	//
+	File testFolder = null;
+	
+	@Before
+	public void setUp() throws IOException {
+		testFolder = Files.createTempDirectory("FileServletCache_test").toFile();
+	}
+	
+	@After
+	public void tearDown() {
+		for (File file : testFolder.listFiles()) {
+			file.delete();
+		}
+		testFolder.delete();
+	}
+	
+	/// Write the given content as a test file
+	File writeFile(String name, String content) throws IOException {
+		File file = new File(testFolder, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+	
+	/// Convert the buffer to a string, without modifying it
+	String toString(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void cacheHitAndInvalidation() throws IOException {
+		FileServletCache cache = new FileServletCache(1024, 4096);
+		File file = writeFile("hello.txt", "hello");
+		
+		long version = file.lastModified();
+		assertEquals("hello", toString(cache.get(file, 5, version)));
+		assertEquals(5, cache.totalSize());
+		
+		// Same version returns the cached content, even if the file was changed on disk
+		Files.write(file.toPath(), "world".getBytes(StandardCharsets.UTF_8));
+		assertEquals("hello", toString(cache.get(file, 5, version)));
+		
+		// A different version reloads the file
+		assertEquals("world", toString(cache.get(file, 5, version + 1000)));
+		assertEquals(5, cache.totalSize());
+	}
+	
+	@Test
+	public void truncatedInPlace() throws IOException {
+		FileServletCache cache = new FileServletCache(128 * 1024, 256 * 1024);
+		StringBuilder content = new StringBuilder();
+		while (content.length() < 100 * 1024) {
+			content.append("cached content ");
+		}
+		File file = writeFile("large.txt", content.toString());
+		long length = file.length();
+		long version = file.lastModified();
+		assertEquals(content.toString(), toString(cache.get(file, length, version)));
+		
+		// Truncating the file in place, does not affect the cached content
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+		}
+		assertEquals(content.toString(), toString(cache.get(file, length, version)));
+		
+		// While a version mismatch on the truncated file, fails with an IOException
+		try {
+			cache.get(file, length, version + 1000);
+			fail("Expected the truncated file to fail");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void sizeLimitsAndEviction() throws IOException {
+		FileServletCache cache = new FileServletCache(10, 20);
+		File large = writeFile("large.txt", "0123456789ABC");
+		File a = writeFile("a.txt", "0123456789");
+		File b = writeFile("b.txt", "0123456789");
+		File c = writeFile("c.txt", "0123456789");
+		
+		// Files above the size limit are not cached
+		assertNull(cache.get(large, large.length(), large.lastModified()));
+		assertEquals(0, cache.totalSize());
+		
+		// Least recently used file is evicted
+		cache.get(a, a.length(), a.lastModified());
+		cache.get(b, b.length(), b.lastModified());
+		cache.get(a, a.length(), a.lastModified());
+		cache.get(c, c.length(), c.lastModified());
+		assertEquals(20, cache.totalSize());
+		assertEquals(2, cache.cacheMap.size());
+		assertTrue(cache.cacheMap.containsKey(a.toPath().toAbsolutePath().normalize().toString()));
+		assertFalse(cache.cacheMap.containsKey(b.toPath().toAbsolutePath().normalize().toString()));
+	}
+	
+	@Test
+	public void gzipCompressedOnce() throws IOException {
+		FileServletCache cache = new FileServletCache(1024, 4096);
+		File file = writeFile("hello.txt", "hello hello hello hello");
+		
+		ByteBuffer gzip = cache.getGzip(file, file.length(), file.lastModified());
+		assertEquals(file.length() + gzip.remaining(), cache.totalSize());
+		
+		// Decompress and validate
+		byte[] data = new byte[gzip.remaining()];
+		gzip.duplicate().get(data);
+		try (InputStream in = new java.util.zip.GZIPInputStream(new ByteArrayInputStream(data))) {
+			byte[] out = new byte[64];
+			int len = in.read(out);
+			assertEquals("hello hello hello hello", new String(out, 0, len, StandardCharsets.UTF_8));
+		}
+		
+		// Same compressed content is reused
+		assertEquals(data.length, cache.getGzip(file, file.length(), file.lastModified()).remaining());
+		assertEquals(file.length() + data.length, cache.totalSize());
+	}
+	
+	@Test
+	public void contentHash() throws IOException {
+		FileServletCache cache = new FileServletCache(1024, 4096);
+		File a = writeFile("a.txt", "same");
+		File b = writeFile("b.txt", "same");
+		File c = writeFile("c.txt", "different");
+		
+		String hash = cache.getContentHash(a, a.length(), a.lastModified());
+		assertEquals(24, hash.length());
+		assertEquals(hash, cache.getContentHash(a, a.length(), a.lastModified()));
+		assertEquals(hash, cache.getContentHash(b, b.length(), b.lastModified()));
+		assertNotEquals(hash, cache.getContentHash(c, c.length(), c.lastModified()));
+	}
+}
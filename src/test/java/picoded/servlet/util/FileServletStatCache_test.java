@@ -0,0 +1,80 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+///
+/// Test the FileServletStatCache implmentation
+///
+public class FileServletStatCache_test {
+	
+	//
+	// The test folder to use
+	//
+	File testFolder = null;
+	
+	@Before
+	public void setUp() throws IOException {
+		testFolder = Files.createTempDirectory("FileServletStatCache_test").toFile();
+	}
+	
+	@After
+	public void tearDown() {
+		for (File file : testFolder.listFiles()) {
+			file.delete();
+		}
+		testFolder.delete();
+	}
+	
+	@Test
+	public void cachedUntilExpired() throws IOException {
+		FileServletStatCache cache = new FileServletStatCache(60000, 16);
+		File file = new File(testFolder, "hello.txt");
+		
+		// Not found entry
+		FileServletStatCache.Stat stat = cache.get(file);
+		assertFalse(stat.exists);
+		assertFalse(stat.isFile());
+		
+		// Which is cached, until cleared
+		Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+		assertSame(stat, cache.get(file));
+		cache.clear();
+		stat = cache.get(file);
+		assertTrue(stat.isFile());
+		assertEquals(3, stat.length);
+		assertEquals(file.lastModified(), stat.lastModified);
+		
+		// Directories are not files
+		assertTrue(cache.get(testFolder).directory);
+		assertFalse(cache.get(testFolder).isFile());
+	}
+	
+	@Test
+	public void expiryAndEviction() {
+		FileServletStatCache cache = new FileServletStatCache(0, 2);
+		File file = new File(testFolder, "a.txt");
+		
+		// Zero TTL always rereads the metadata
+		assertNotSame(cache.get(file), cache.get(file));
+		
+		// Least recently used entries are evicted
+		cache.get(new File(testFolder, "b.txt"));
+		cache.get(new File(testFolder, "c.txt"));
+		assertEquals(2, cache.statMap.size());
+		assertFalse(cache.statMap.containsKey(file.getPath()));
+	}
+	
+	@Test
+	public void resolvedRequestPath() {
+		FileServletStatCache cache = new FileServletStatCache(60000, 16);
+		assertNull(cache.getResolved("/index.html"));
+		
+		FileServletStatCache.Stat stat = cache.get(new File(testFolder, "index.html"));
+		cache.putResolved("/", stat);
+		assertSame(stat, cache.getResolved("/"));
+	}
+}
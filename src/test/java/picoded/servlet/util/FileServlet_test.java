@@ -0,0 +1,340 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+///
+/// Test the FileServlet implmentation, with minimal request / response objects
+///
+public class FileServlet_test {
+	
+	//
+	// The test folder and servlet to use
+	//
+	File testFolder = null;
+	FileServlet fileServlet = null;
+	
+	//
+	// The last response status, headers and body
+	//
+	int status = 200;
+	Map<String, String> responseHeaders = new HashMap<>();
+	ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+	
+	@Before
+	public void setUp() throws IOException {
+		testFolder = Files.createTempDirectory("FileServlet_test").toFile();
+		fileServlet = new FileServlet(testFolder);
+	}
+	
+	@After
+	public void tearDown() {
+		for (File file : testFolder.listFiles()) {
+			file.delete();
+		}
+		testFolder.delete();
+	}
+	
+	/// Write the given content as a test file
+	File writeFile(String name, byte[] content) throws IOException {
+		File file = new File(testFolder, name);
+		Files.write(file.toPath(), content);
+		return file;
+	}
+	
+	/// Gzip the given string
+	byte[] gzip(String content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+	
+	/// Gunzip the given bytes as a string
+	String gunzip(byte[] content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content))) {
+			byte[] buffer = new byte[1024];
+			int len;
+			while ((len = gzip.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+			}
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/// Process a GET request for the given path, with the given request headers
+	void request(String path, Map<String, String> requestHeaders) throws IOException {
+		status = 200;
+		responseHeaders.clear();
+		responseBody.reset();
+		fileServlet.processRequest(request(requestHeaders), response(), false, path);
+	}
+	
+	/// Minimal HttpServletRequest, with the given headers
+	HttpServletRequest request(Map<String, String> requestHeaders) {
+		ServletContext context = (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { ServletContext.class }, (proxy, m, args) -> {
+				if (m.getName().equals("getMimeType")) {
+					String name = (String) args[0];
+					if (name.endsWith(".js")) {
+						return "application/javascript";
+					}
+					return name.endsWith(".txt") ? "text/plain" : null;
+				}
+				return null;
+			});
+		return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { HttpServletRequest.class }, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "getHeader":
+						return requestHeaders.get(args[0]);
+					case "getDateHeader":
+						return -1L;
+					case "getServletContext":
+						return context;
+					default:
+						return null;
+				}
+			});
+	}
+	
+	/// Minimal HttpServletResponse, recording its status, headers and body
+	HttpServletResponse response() {
+		ServletOutputStream output = new ServletOutputStream() {
+			public void write(int b) {
+				responseBody.write(b);
+			}
+			
+			public boolean isReady() {
+				return true;
+			}
+			
+			public void setWriteListener(WriteListener listener) {
+			}
+		};
+		return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { HttpServletResponse.class }, (proxy, m, args) -> {
+				switch (m.getName()) {
+					case "setStatus":
+					case "sendError":
+						status = (Integer) args[0];
+						return null;
+					case "setHeader":
+						responseHeaders.put((String) args[0], (String) args[1]);
+						return null;
+					case "setContentType":
+						responseHeaders.put("Content-Type", (String) args[0]);
+						return null;
+					case "reset":
+						responseHeaders.clear();
+						return null;
+					case "getOutputStream":
+						return output;
+					default:
+						return null;
+				}
+			});
+	}
+	
+	@Test
+	public void uncompressedResponse() throws IOException {
+		writeFile("hello.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+		request("/hello.txt", new HashMap<>());
+		
+		assertEquals(200, status);
+		assertEquals("hello world", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals("11", responseHeaders.get("Content-Length"));
+		assertEquals("Accept-Encoding", responseHeaders.get("Vary"));
+		assertNull(responseHeaders.get("Content-Encoding"));
+	}
+	
+	@Test
+	public void gzipCompressedOnce() throws IOException {
+		writeFile("hello.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip, deflate");
+		
+		request("/hello.txt", headers);
+		byte[] first = responseBody.toByteArray();
+		assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+		assertEquals(String.valueOf(first.length), responseHeaders.get("Content-Length"));
+		assertTrue(responseHeaders.get("ETag").endsWith("-gzip\""));
+		assertEquals("hello world", gunzip(first));
+		
+		// Repeated requests are served from the same compressed content
+		request("/hello.txt", headers);
+		assertArrayEquals(first, responseBody.toByteArray());
+		
+		// Revalidation of the compressed variant
+		headers.put("If-None-Match", responseHeaders.get("ETag"));
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+		assertEquals(0, responseBody.size());
+	}
+	
+	@Test
+	public void precompressedSidecars() throws IOException {
+		writeFile("app.js", "var a = 1;".getBytes(StandardCharsets.UTF_8));
+		writeFile("app.js.gz", gzip("var a = 1;"));
+		writeFile("app.js.br", new byte[] { 1, 2, 3 });
+		Map<String, String> headers = new HashMap<>();
+		
+		// Brotli is preferred, if accepted
+		headers.put("Accept-Encoding", "gzip, deflate, br");
+		request("/app.js", headers);
+		assertEquals("br", responseHeaders.get("Content-Encoding"));
+		assertEquals("3", responseHeaders.get("Content-Length"));
+		assertTrue(responseHeaders.get("ETag").endsWith("-br\""));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, responseBody.toByteArray());
+		
+		// Gzip sidecar otherwise
+		headers.put("Accept-Encoding", "gzip");
+		request("/app.js", headers);
+		assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+		assertEquals("var a = 1;", gunzip(responseBody.toByteArray()));
+		
+		// And the original file, if neither is accepted
+		headers.remove("Accept-Encoding");
+		request("/app.js", headers);
+		assertNull(responseHeaders.get("Content-Encoding"));
+		assertEquals("Accept-Encoding", responseHeaders.get("Vary"));
+		assertEquals("var a = 1;", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void contentHashETag() throws IOException {
+		// Without the stat cache, so that file changes are picked up immediately
+		fileServlet.useStatCache = false;
+		File file = writeFile("hello.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+		request("/hello.txt", new HashMap<>());
+		String eTag = responseHeaders.get("ETag");
+		assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+		
+		// Same content with a different timestamp, has the same ETag
+		assertTrue(file.setLastModified(file.lastModified() - 60000));
+		Map<String, String> headers = new HashMap<>();
+		headers.put("If-None-Match", eTag);
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+		assertEquals(eTag, responseHeaders.get("ETag"));
+		
+		// Different content, has a different ETag
+		writeFile("hello.txt", "hello there".getBytes(StandardCharsets.UTF_8));
+		request("/hello.txt", headers);
+		assertEquals(200, status);
+		assertNotEquals(eTag, responseHeaders.get("ETag"));
+		assertEquals("hello there", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void statCache() throws IOException {
+		File file = writeFile("hello.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+		request("/hello.txt", new HashMap<>());
+		Map<String, String> headers = new HashMap<>();
+		headers.put("If-None-Match", responseHeaders.get("ETag"));
+		
+		// Revalidation within the TTL uses the cached metadata, even if the file was removed
+		assertTrue(file.delete());
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+		
+		// Which is picked up after the TTL
+		fileServlet.statCache().clear();
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, status);
+		
+		// Not found entries are cached as well
+		writeFile("hello.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, status);
+	}
+	
+	@Test
+	public void rangeRequests() throws IOException {
+		writeFile("hello.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+		Map<String, String> headers = new HashMap<>();
+		
+		// Overlapping ranges are coalesced into a single part
+		headers.put("Range", "bytes=6-8, 7-");
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+		assertEquals("bytes 6-10/11", responseHeaders.get("Content-Range"));
+		assertEquals("world", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+		
+		// Unsatisfiable range
+		headers.put("Range", "bytes=20-");
+		request("/hello.txt", headers);
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status);
+		assertEquals("bytes */11", responseHeaders.get("Content-Range"));
+		
+		// Too many ranges returns the full file
+		fileServlet.maxRangeCount = 2;
+		headers.put("Range", "bytes=0-0,2-2,4-4");
+		request("/hello.txt", headers);
+		assertEquals(200, status);
+		assertEquals("hello world", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void archiveRequests() throws IOException {
+		File archiveFile = new File(testFolder, "static.zip");
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archiveFile))) {
+			zip.putNextEntry(new ZipEntry("static/hello.txt"));
+			zip.write("hello world".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		try (FileServletArchive archive = new FileServletArchive(archiveFile, "static")) {
+			fileServlet = new FileServlet(archive);
+			Map<String, String> headers = new HashMap<>();
+			
+			// Deflated entry, inflated on the fly
+			request("/hello.txt", headers);
+			assertEquals(200, status);
+			assertEquals("hello world", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+			assertEquals("Accept-Encoding", responseHeaders.get("Vary"));
+			
+			// Served as gzip, without recompression
+			headers.put("Accept-Encoding", "gzip");
+			request("/hello.txt", headers);
+			assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+			assertEquals(String.valueOf(responseBody.size()), responseHeaders.get("Content-Length"));
+			assertEquals("hello world", gunzip(responseBody.toByteArray()));
+			
+			// Revalidation, with the precomputed ETag
+			headers.put("If-None-Match", responseHeaders.get("ETag"));
+			request("/hello.txt", headers);
+			assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+			
+			// Range of the inflated content
+			headers.clear();
+			headers.put("Range", "bytes=6-");
+			request("/hello.txt", headers);
+			assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+			assertEquals("world", new String(responseBody.toByteArray(), StandardCharsets.UTF_8));
+			
+			// Not found, and protected paths
+			request("/missing.txt", headers);
+			assertEquals(HttpServletResponse.SC_NOT_FOUND, status);
+			request("/../static/hello.txt", headers);
+			assertEquals(HttpServletResponse.SC_NOT_FOUND, status);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Map;
+
+import picoded.core.struct.GenericConvertHashMap;
+
+///
+/// Test the ProxyClientPool request slots, and metrics
+///
+public class ProxyClientPool_test {
+	
+	@Test
+	public void unlimitedByDefault() {
+		ProxyClientPool pool = new ProxyClientPool("http://localhost:5555", null);
+		assertTrue(pool.acquire());
+		assertTrue(pool.acquire());
+		
+		Map<String, Object> metrics = pool.metrics();
+		assertEquals(2, metrics.get("active"));
+		assertEquals(-1, metrics.get("available"));
+		
+		pool.release();
+		pool.release();
+		assertEquals(0, pool.metrics().get("active"));
+		assertEquals(2L, pool.metrics().get("requests"));
+	}
+	
+	@Test
+	public void concurrentRequestsLimit() {
+		GenericConvertHashMap<String, Object> config = new GenericConvertHashMap<>();
+		config.put("maxConcurrentRequests", 1);
+		config.put("acquireTimeout", 10);
+		ProxyClientPool pool = new ProxyClientPool("http://localhost:5555", config);
+		
+		// Second request is rejected, after the acquire timeout
+		assertTrue(pool.acquire());
+		assertFalse(pool.acquire());
+		Map<String, Object> metrics = pool.metrics();
+		assertEquals(1, metrics.get("active"));
+		assertEquals(0, metrics.get("available"));
+		assertEquals(1L, metrics.get("rejected"));
+		assertTrue(((Long) metrics.get("maxWaitMillis")) >= 5);
+		
+		// And accepted once released
+		pool.release();
+		assertTrue(pool.acquire());
+		pool.release();
+		assertEquals(1, pool.metrics().get("available"));
+	}
+}
@@ -0,0 +1,111 @@
+package picoded.servlet.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.net.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.apache.commons.io.IOUtils;
+
+import picoded.servlet.ServletTestConfig;
+
+///
+/// Test the ProxyServlet streaming relay, against an upstream EmbeddedServlet
+///
+public class ProxyServlet_test {
+	
+	//
+	// The test vars to use
+	//
+	static volatile int upstreamPort = 0;
+	int proxyPort = 0;
+	EmbeddedServlet upstreamServlet = null;
+	EmbeddedServlet proxyServlet = null;
+	
+	//
+	// Standard setup and teardown
+	//
+	@Before
+	public void setUp() {
+		upstreamPort = ServletTestConfig.issuePortNumber();
+		proxyPort = ServletTestConfig.issuePortNumber();
+		upstreamServlet = new EmbeddedServlet(upstreamPort, new EchoServlet());
+		proxyServlet = new EmbeddedServlet(proxyPort, new StreamingProxy());
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		if (proxyServlet != null) {
+			proxyServlet.close();
+			proxyServlet = null;
+		}
+		if (upstreamServlet != null) {
+			upstreamServlet.close();
+			upstreamServlet = null;
+		}
+	}
+	
+	/// Upstream servlet, which echos the request body (or 404 for the missing path)
+	public static class EchoServlet extends HttpServlet {
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			response.setContentType("text/plain");
+			response.getWriter().print("missing " + request.getRequestURI());
+		}
+		
+		protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+			response.setContentType(request.getContentType());
+			response.setHeader("X-Echo-Path", request.getRequestURI());
+			IOUtils.copy(request.getInputStream(), response.getOutputStream());
+		}
+	}
+	
+	/// Proxy to the upstream servlet, with the streaming relay
+	public static class StreamingProxy extends ProxyServlet {
+		public StreamingProxy() {
+			super("http://127.0.0.1:" + upstreamPort);
+			_streamingRelay = true;
+		}
+	}
+	
+	@Test
+	public void binaryPostBody() throws Exception {
+		// Binary body, with every byte value (which is not valid as text)
+		byte[] body = new byte[256 * 64];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) i;
+		}
+		
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + proxyPort
+			+ "/upload/file").openConnection();
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "application/octet-stream");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+		
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("/upload/file", connection.getHeaderField("X-Echo-Path"));
+		assertEquals("application/octet-stream", connection.getContentType());
+		try (InputStream in = connection.getInputStream()) {
+			assertArrayEquals(body, IOUtils.toByteArray(in));
+		}
+	}
+	
+	@Test
+	public void errorResponse() throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + proxyPort
+			+ "/not/here").openConnection();
+		assertEquals(404, connection.getResponseCode());
+		try (InputStream in = connection.getErrorStream()) {
+			assertEquals("missing /not/here", IOUtils.toString(in, "UTF-8"));
+		}
+	}
+}